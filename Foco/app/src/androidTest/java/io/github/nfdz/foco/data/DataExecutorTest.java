@@ -0,0 +1,146 @@
+package io.github.nfdz.foco.data;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
+import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.data.entity.DocumentMetadata;
+import io.github.nfdz.foco.model.Callbacks;
+import io.github.nfdz.foco.utils.EditJournalUtils;
+import io.github.nfdz.foco.utils.TasksUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class DataExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private AppDatabase mDb;
+    private long mDocId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDb = Room.inMemoryDatabaseBuilder(mContext, AppDatabase.class).build();
+        AppDatabase.createCustomSchema(mDb.getOpenHelper().getWritableDatabase());
+        DataExecutor.getInstance(mContext).setDatabase(mDb);
+        DocumentEntity doc = new DocumentEntity();
+        doc.name = "DataExecutorTest";
+        doc.text = "Hello";
+        mDocId = mDb.insertDocument(doc);
+    }
+
+    @After
+    public void tearDown() {
+        DataExecutor.getInstance(mContext).setDatabase(null);
+        mDb.close();
+    }
+
+    @Test
+    public void editsSurviveRolledBackBatch() throws Exception {
+        DataExecutor executor = DataExecutor.getInstance(mContext);
+
+        // the writer is kept busy so the save and the failing write are queued in one batch
+        final CountDownLatch blockerStarted = new CountDownLatch(1);
+        final CountDownLatch releaseBlocker = new CountDownLatch(1);
+        executor.write(new DataExecutor.Task<Void>() {
+            @Override
+            public Void run(AppDatabase db) throws Exception {
+                blockerStarted.countDown();
+                releaseBlocker.await();
+                return null;
+            }
+        }, null);
+        blockerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long batches = executor.getWriteBatchCount();
+
+        final DocumentMetadata doc = mDb.documentDao().getDocumentMetadata(mDocId);
+        final String text = "Hello world";
+        final List<DocumentEditEntity> edits = new ArrayList<>();
+        EditJournalUtils.recordEdit(edits, mDocId, 5, 0, " world");
+        final AtomicReference<Long> storedHash = new AtomicReference<>(EditJournalUtils.hashText("Hello"));
+        final CountDownLatch saved = new CountDownLatch(1);
+        final AtomicReference<Future<Boolean>> save = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                save.set(TasksUtils.saveDocumentEdits(mContext,
+                        doc,
+                        text,
+                        edits,
+                        storedHash,
+                        0,
+                        new Callbacks.FinishCallback<Boolean>() {
+                            @Override
+                            public void onFinish(Boolean result) {
+                                if (result) saved.countDown();
+                            }
+                        }));
+            }
+        });
+        Future<Void> failing = executor.write(new DataExecutor.Task<Void>() {
+            @Override
+            public Void run(AppDatabase db) {
+                throw new IllegalStateException("Forced rollback");
+            }
+        }, null);
+        releaseBlocker.countDown();
+
+        assertNotNull(save.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        try {
+            failing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("The failing write has not failed");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        // both writes were executed in the same batch, so it was rolled back and executed again
+        assertEquals(batches + 1, executor.getWriteBatchCount());
+        assertEquals(text, mDb.loadDocumentText(mDocId));
+        saved.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(Long.valueOf(EditJournalUtils.hashText(text)), storedHash.get());
+    }
+
+    @Test
+    public void writerSurvivesError() throws Exception {
+        DataExecutor executor = DataExecutor.getInstance(mContext);
+        Future<Void> failing = executor.write(new DataExecutor.Task<Void>() {
+            @Override
+            public Void run(AppDatabase db) {
+                throw new OutOfMemoryError("Forced error");
+            }
+        }, null);
+        try {
+            failing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("The failing write has not failed");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        Future<Integer> next = executor.write(new DataExecutor.Task<Integer>() {
+            @Override
+            public Integer run(AppDatabase db) {
+                return db.documentDao().countDocuments();
+            }
+        }, null);
+        assertNotNull(next.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -2,11 +2,20 @@ package io.github.nfdz.foco;
 
 import android.app.Application;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.Intent;
 
 import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DocumentChanges;
+import io.github.nfdz.foco.data.DocumentRepository;
+import io.github.nfdz.foco.data.DocumentTextCache;
 import io.github.nfdz.foco.data.PreferencesUtils;
+import io.github.nfdz.foco.data.PreviewHtmlCache;
 import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.Document;
+import io.github.nfdz.foco.services.WordCountService;
+import io.github.nfdz.foco.utils.BackupUtils;
+import io.github.nfdz.foco.utils.TasksUtils;
+import io.github.nfdz.foco.utils.WordCountUtils;
 import timber.log.Timber;
 
 public class FocoApp extends Application {
@@ -22,6 +31,22 @@ public class FocoApp extends Application {
         if (!PreferencesUtils.getInsertedSampleFlag(this)) {
             insertSampleDocument(this);
         }
+        // documents of imports that were running when the process died are half written
+        TasksUtils.deleteInterruptedImports(this);
+        // alarms do not survive reboots
+        BackupUtils.ensureBackupScheduled(this);
+        // stored words were counted with older rules
+        if (PreferencesUtils.getWordCountVersion(this) < WordCountUtils.VERSION) {
+            startService(new Intent(this, WordCountService.class));
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        DocumentTextCache.getInstance(this).trimMemory(level);
+        DocumentRepository.getInstance(this).trimMemory(level);
+        PreviewHtmlCache.getInstance(this).trimMemory(level);
     }
 
     /**
@@ -29,20 +54,21 @@ public class FocoApp extends Application {
      * @param context
      */
     private static void insertSampleDocument(final Context context) {
-        new AsyncTask<Void,Void,Void>() {
+        DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Void>() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public Void run(AppDatabase db, DocumentChanges changes) {
                 DocumentEntity doc = new DocumentEntity();
                 doc.name = context.getString(R.string.sample_doc_title);
                 doc.text = context.getString(R.string.sample_doc_text);
-                long[] docId = AppDatabase.getInstance(context).documentDao().insert(doc);
-                if (docId.length == 0 || docId[0] <= -1) {
+                long docId = db.insertDocument(doc);
+                if (docId == Document.NULL_ID) {
                     Timber.e("There was an error inserting sample document");
                 } else {
+                    changes.onInserted(docId);
                     PreferencesUtils.setInsertedSampleFlag(context);
                 }
                 return null;
             }
-        }.execute();
+        }, null);
     }
 }
\ No newline at end of file
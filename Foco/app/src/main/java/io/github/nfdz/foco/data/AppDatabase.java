@@ -1,40 +1,355 @@
 package io.github.nfdz.foco.data;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
 
+import java.util.List;
+
 import io.github.nfdz.foco.data.dao.DocumentDao;
+import io.github.nfdz.foco.data.dao.DocumentSearchDao;
+import io.github.nfdz.foco.data.entity.DocumentContentEntity;
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
 import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.Document;
+import io.github.nfdz.foco.utils.EditJournalUtils;
 
 /**
  * This singleton class that extends RoomDatabase defines DAO an Entities objects that Room
  * has to provide access and manage in its inner database.
  */
-@Database(entities = { DocumentEntity.class }, version = 1, exportSchema = false)
+@Database(entities = { DocumentEntity.class, DocumentContentEntity.class, DocumentEditEntity.class },
+        version = 7,
+        exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     static final String DATABASE_NAME = "foco.db";
 
+    /**
+     * Version 2 moves document text out of documents table to its own table, so updates of
+     * metadata fields do not rewrite the text and metadata queries do not scan text pages.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `documents_content` (" +
+                    "`document_id` INTEGER NOT NULL, " +
+                    "`text` TEXT, " +
+                    "PRIMARY KEY(`document_id`))");
+            database.execSQL("INSERT INTO `documents_content` (`document_id`, `text`) " +
+                    "SELECT `_id`, `text` FROM `documents`");
+            // sqlite cannot drop columns so documents table has to be rebuilt
+            database.execSQL("CREATE TABLE IF NOT EXISTS `documents_new` (" +
+                    "`_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`name` TEXT, " +
+                    "`working_time` INTEGER NOT NULL, " +
+                    "`last_edition_time` INTEGER NOT NULL, " +
+                    "`words` INTEGER NOT NULL, " +
+                    "`favorite` INTEGER NOT NULL, " +
+                    "`cover_color` INTEGER NOT NULL, " +
+                    "`cover_image` TEXT)");
+            database.execSQL("INSERT INTO `documents_new` (`_id`, `name`, `working_time`, " +
+                    "`last_edition_time`, `words`, `favorite`, `cover_color`, `cover_image`) " +
+                    "SELECT `_id`, `name`, `working_time`, `last_edition_time`, `words`, " +
+                    "`favorite`, `cover_color`, `cover_image` FROM `documents`");
+            database.execSQL("DROP TABLE `documents`");
+            database.execSQL("ALTER TABLE `documents_new` RENAME TO `documents`");
+            database.execSQL("CREATE INDEX `index_documents__id` ON `documents` (`_id`)");
+        }
+    };
+
+    /**
+     * Version 3 adds the indexes of documents grid sorts and replaces NULL names with empty
+     * names, keyset predicates of documents grid cannot compare NULL values (see
+     * createSortSchema).
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("UPDATE `documents` SET `name` = '' WHERE `name` IS NULL");
+            createSortSchema(database);
+        }
+    };
+
+    /**
+     * Version 4 adds the full-text index of documents (see createSearchSchema) and fills it
+     * with existing documents.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            createSearchSchema(database);
+            database.execSQL("INSERT INTO `documents_fts` (`docid`, `name`, `text`) " +
+                    "SELECT d.`_id`, d.`name`, c.`text` FROM `documents` d " +
+                    "INNER JOIN `documents_content` c ON c.`document_id` = d.`_id`");
+        }
+    };
+
+    /**
+     * Version 5 adds the edit journal of documents.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `documents_edits` (" +
+                    "`_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`document_id` INTEGER NOT NULL, " +
+                    "`start` INTEGER NOT NULL, " +
+                    "`removed` INTEGER NOT NULL, " +
+                    "`inserted` TEXT)");
+            database.execSQL("CREATE INDEX `index_documents_edits_document_id` " +
+                    "ON `documents_edits` (`document_id`)");
+        }
+    };
+
+    /**
+     * Version 6 adds draft flag to the edit journal (autosave).
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `documents_edits` ADD COLUMN `draft` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 7 adds the modification time of documents, that changes with their metadata
+     * too (see createModificationSchema). Existing documents were last modified when edited.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `documents` ADD COLUMN `modification_time` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE `documents` SET `modification_time` = `last_edition_time`");
+            createModificationSchema(database);
+        }
+    };
+
+    /** SQL expression of the current time in millis since epoch */
+    private static final String CURRENT_TIME_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Creates schema objects that Room cannot declare. It is idempotent and it is executed
+     * every time that the database is opened by the app. Each migration only creates the
+     * objects of its version, so they are created with the columns that exist then.
+     * @param database
+     */
+    static void createCustomSchema(SupportSQLiteDatabase database) {
+        createSortSchema(database);
+        createModificationSchema(database);
+        createSearchSchema(database);
+    }
+
+    /**
+     * Creates the indexes of documents grid sorts and the triggers that keep names not NULL.
+     * @param database
+     */
+    private static void createSortSchema(SupportSQLiteDatabase database) {
+        // indexes of documents grid sorts, they have the same columns and directions than the
+        // ORDER BY clauses of DocumentDao. Room indexes cannot declare collations neither
+        // directions.
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_documents_title` ON `documents` " +
+                "(`favorite` DESC, `name` COLLATE LOCALIZED, `_id`)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_documents_edition` ON `documents` " +
+                "(`favorite` DESC, `last_edition_time` DESC, `name` COLLATE LOCALIZED, `_id`)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_documents_words` ON `documents` " +
+                "(`favorite` DESC, `words` DESC, `name` COLLATE LOCALIZED, `_id`)");
+
+        // names are never NULL, any comparison with NULL is not true so keyset predicates
+        // would skip those documents (or every document after one of them). Room alpha
+        // cannot declare column defaults so triggers store NULL names as empty names.
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_name_insert_not_null` " +
+                "AFTER INSERT ON `documents` WHEN new.`name` IS NULL BEGIN " +
+                "UPDATE `documents` SET `name` = '' WHERE `_id` = new.`_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_name_update_not_null` " +
+                "AFTER UPDATE OF `name` ON `documents` WHEN new.`name` IS NULL BEGIN " +
+                "UPDATE `documents` SET `name` = '' WHERE `_id` = new.`_id`; " +
+                "END");
+    }
+
+    /**
+     * Creates the triggers that set the modification time of documents.
+     * @param database
+     */
+    private static void createModificationSchema(SupportSQLiteDatabase database) {
+        // modification time of documents, it is set by triggers so every write of text (that
+        // sets edition time) or metadata is tracked. Its value is the current time in millis.
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_modification_insert` " +
+                "AFTER INSERT ON `documents` BEGIN " +
+                "UPDATE `documents` SET `modification_time` = " + CURRENT_TIME_MILLIS +
+                " WHERE `_id` = new.`_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_modification_update` " +
+                "AFTER UPDATE OF `name`, `favorite`, `cover_color`, `cover_image`, `last_edition_time` " +
+                "ON `documents` WHEN new.`name` IS NOT old.`name` OR new.`favorite` != old.`favorite` OR " +
+                "new.`cover_color` != old.`cover_color` OR new.`cover_image` IS NOT old.`cover_image` OR " +
+                "new.`last_edition_time` != old.`last_edition_time` BEGIN " +
+                "UPDATE `documents` SET `modification_time` = " + CURRENT_TIME_MILLIS +
+                " WHERE `_id` = new.`_id`; " +
+                "END");
+    }
+
+    /**
+     * Creates the full-text index of documents and the triggers that keep it in sync.
+     * @param database
+     */
+    private static void createSearchSchema(SupportSQLiteDatabase database) {
+        // full-text index of name and text, its docid is the document ID.
+        // triggers keep it in sync with documents and documents_content tables.
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `documents_fts` " +
+                "USING fts4(`name`, `text`)");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_fts_content_insert` " +
+                "AFTER INSERT ON `documents_content` BEGIN " +
+                "DELETE FROM `documents_fts` WHERE `docid` = new.`document_id`; " +
+                "INSERT INTO `documents_fts` (`docid`, `name`, `text`) " +
+                "SELECT new.`document_id`, `name`, new.`text` FROM `documents` " +
+                "WHERE `_id` = new.`document_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_fts_content_update` " +
+                "AFTER UPDATE OF `text` ON `documents_content` BEGIN " +
+                "UPDATE `documents_fts` SET `text` = new.`text` WHERE `docid` = new.`document_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_fts_content_delete` " +
+                "AFTER DELETE ON `documents_content` BEGIN " +
+                "DELETE FROM `documents_fts` WHERE `docid` = old.`document_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_fts_name_insert` " +
+                "AFTER INSERT ON `documents` BEGIN " +
+                "UPDATE `documents_fts` SET `name` = new.`name` WHERE `docid` = new.`_id`; " +
+                "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `documents_fts_name_update` " +
+                "AFTER UPDATE OF `name` ON `documents` WHEN new.`name` IS NOT old.`name` BEGIN " +
+                "UPDATE `documents_fts` SET `name` = new.`name` WHERE `docid` = new.`_id`; " +
+                "END");
+    }
+
     /**
      * Returns the document access object implementation.
      * @return DocumentDao
      */
     public abstract DocumentDao documentDao();
 
+    /**
+     * Returns the full-text search access object.
+     * @return DocumentSearchDao
+     */
+    public DocumentSearchDao documentSearchDao() {
+        return new DocumentSearchDao(this);
+    }
+
+    /**
+     * Inserts given document and its text in a single transaction.
+     * This method has to be called in a background thread.
+     * @param document
+     * @return document ID or Document.NULL_ID if it was not inserted
+     */
+    public long insertDocument(DocumentEntity document) {
+        beginTransaction();
+        try {
+            long[] docId = documentDao().insert(document);
+            if (docId.length == 0 || docId[0] <= -1) {
+                return Document.NULL_ID;
+            }
+            documentDao().insertContent(new DocumentContentEntity(docId[0], document.text));
+            setTransactionSuccessful();
+            return docId[0];
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Returns the current text of given document, that is its stored text with the edits of
+     * its journal applied.
+     * This method has to be called in a background thread.
+     * @param docId
+     * @return text
+     */
+    public String loadDocumentText(long docId) {
+        beginTransaction();
+        try {
+            String text = documentDao().getDocumentText(docId);
+            List<DocumentEditEntity> edits = documentDao().getEdits(docId);
+            setTransactionSuccessful();
+            return EditJournalUtils.applyEdits(text, edits);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Applies the committed edits of the journal of given document to its stored text and
+     * removes them. Draft edits are kept.
+     * This method has to be called in a background thread.
+     * @param docId
+     */
+    public void compactDocumentJournal(long docId) {
+        beginTransaction();
+        try {
+            List<DocumentEditEntity> edits = documentDao().getCommittedEdits(docId);
+            if (!edits.isEmpty()) {
+                String text = documentDao().getDocumentText(docId);
+                documentDao().updateText(docId, EditJournalUtils.applyEdits(text, edits));
+                documentDao().deleteCommittedEdits(docId);
+            }
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Deletes given documents, their text and their edit journal in a single transaction.
+     * This method has to be called in a background thread.
+     * @param documents
+     */
+    public void deleteDocuments(DocumentEntity... documents) {
+        DocumentContentEntity[] contents = new DocumentContentEntity[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            contents[i] = new DocumentContentEntity();
+            contents[i].documentId = documents[i].id;
+        }
+        beginTransaction();
+        try {
+            for (DocumentEntity document : documents) {
+                documentDao().deleteEdits(document.id);
+            }
+            documentDao().deleteContent(contents);
+            documentDao().delete(documents);
+            setTransactionSuccessful();
+        } finally {
+            endTransaction();
+        }
+    }
+
     // singleton instantiation
-    private static AppDatabase sInstance;
+    // note that the first call opens the database so it has to be done in a background thread
+    private static volatile AppDatabase sInstance;
     private static final Object LOCK = new Object();
-    public synchronized static AppDatabase getInstance(Context context) {
+    public static AppDatabase getInstance(Context context) {
         if (sInstance == null) {
             synchronized (LOCK) {
                 if (sInstance == null) {
-                    sInstance = Room.databaseBuilder(context, AppDatabase.class, DATABASE_NAME).build();
+                    AppDatabase db = Room.databaseBuilder(context.getApplicationContext(),
+                            AppDatabase.class,
+                            DATABASE_NAME)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5,
+                                    MIGRATION_5_6, MIGRATION_6_7)
+                            .build();
+                    // reads of the pool do not wait for the writer thread and its commits are
+                    // cheaper, it has to be enabled before the database is opened
+                    db.getOpenHelper().setWriteAheadLoggingEnabled(true);
+                    createCustomSchema(db.getOpenHelper().getWritableDatabase());
+                    sInstance = db;
                 }
             }
         }
         return sInstance;
     }
 
-}
\ No newline at end of file
+}
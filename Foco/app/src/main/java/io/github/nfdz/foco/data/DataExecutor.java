@@ -0,0 +1,362 @@
+package io.github.nfdz.foco.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.nfdz.foco.model.Callbacks;
+import timber.log.Timber;
+
+/**
+ * This singleton class executes all database operations of the app. Reads are executed by a
+ * pool of threads in priority order. Writes are executed by a single thread in submission order,
+ * and the writes that are queued at the same time are batched in one transaction (so there is
+ * one commit and one invalidation of observers per batch).
+ * Operations return cancellable futures, a cancelled operation is not executed if it has not
+ * started yet. Results are notified through callbacks in the main thread.
+ */
+public class DataExecutor {
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+
+    private static final int READ_THREADS = 2;
+    private static final int MAX_WRITE_BATCH = 32;
+
+    /**
+     * Interface to be implemented by database operations.
+     * @param <T> result type
+     */
+    public interface Task<T> {
+        T run(AppDatabase db) throws Exception;
+    }
+
+    /**
+     * Inner class that defines a queued operation. It keeps the time when it was submitted to
+     * measure its wait and it is ordered by priority and then by submission order.
+     */
+    private class Operation<T> extends FutureTask<T> implements Comparable<Operation<?>> {
+
+        final Task<T> task;
+        final int priority;
+        final long sequence = mSequence.getAndIncrement();
+        final long submitTime = SystemClock.uptimeMillis();
+        @Nullable final Callbacks.FinishCallback<T> callback;
+
+        Operation(final Task<T> task, int priority, @Nullable Callbacks.FinishCallback<T> callback) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run(getDatabase());
+                }
+            });
+            this.task = task;
+            this.priority = priority;
+            this.callback = callback;
+        }
+
+        /** Publishes the result of an execution that has been performed outside run() */
+        @SuppressWarnings("unchecked")
+        void publish(Object result) {
+            set((T) result);
+        }
+
+        void publishError(Throwable error) {
+            setException(error);
+        }
+
+        @Override
+        public int compareTo(@NonNull Operation<?> other) {
+            if (priority != other.priority) return priority < other.priority ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) return;
+            T result = null;
+            try {
+                result = get();
+            } catch (Exception e) {
+                Timber.e(e, "There was an error executing a database operation");
+            }
+            final T finalResult = result;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFinish(finalResult);
+                }
+            });
+        }
+    }
+
+    /**
+     * This class holds the metrics of one of the queues.
+     */
+    public static class QueueMetrics {
+        private final AtomicLong mExecuted = new AtomicLong();
+        private final AtomicLong mTotalWait = new AtomicLong();
+        private final AtomicLong mMaxWait = new AtomicLong();
+
+        void onStart(long submitTime) {
+            long wait = SystemClock.uptimeMillis() - submitTime;
+            mExecuted.incrementAndGet();
+            mTotalWait.addAndGet(wait);
+            long max;
+            do {
+                max = mMaxWait.get();
+            } while (wait > max && !mMaxWait.compareAndSet(max, wait));
+        }
+
+        public long getExecutedCount() {
+            return mExecuted.get();
+        }
+
+        public long getAverageWaitMillis() {
+            long executed = mExecuted.get();
+            return executed > 0 ? mTotalWait.get() / executed : 0;
+        }
+
+        public long getMaxWaitMillis() {
+            return mMaxWait.get();
+        }
+    }
+
+    private final Context mContext;
+    /** Database that replaces the app one, it is null if it has not been set */
+    @Nullable private volatile AppDatabase mDatabase;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mSequence = new AtomicLong();
+    private final ThreadPoolExecutor mReadExecutor;
+    private final BlockingQueue<Operation<?>> mWriteQueue = new LinkedBlockingQueue<>();
+    private final QueueMetrics mReadMetrics = new QueueMetrics();
+    private final QueueMetrics mWriteMetrics = new QueueMetrics();
+    private final AtomicLong mWriteBatches = new AtomicLong();
+
+    private DataExecutor(Context context) {
+        mContext = context.getApplicationContext();
+        mReadExecutor = new ThreadPoolExecutor(READ_THREADS,
+                READ_THREADS,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new NamedThreadFactory("foco-db-read"));
+        Thread writer = new NamedThreadFactory("foco-db-write").newThread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
+        writer.start();
+    }
+
+    private AppDatabase getDatabase() {
+        AppDatabase database = mDatabase;
+        return database != null ? database : AppDatabase.getInstance(mContext);
+    }
+
+    /**
+     * Sets the database of the operations that are executed from now on, so tests can run
+     * the executor over an in-memory database. Null restores the app database.
+     * @param database
+     */
+    void setDatabase(@Nullable AppDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Submits a read operation.
+     * @param priority PRIORITY_HIGH, PRIORITY_NORMAL or PRIORITY_LOW
+     * @param task
+     * @param callback it is called in main thread if the operation is not cancelled
+     * @return future of the result
+     */
+    public <T> Future<T> read(int priority,
+                              final Task<T> task,
+                              @Nullable Callbacks.FinishCallback<T> callback) {
+        final Operation<T> operation = new Operation<>(task, priority, callback);
+        mReadExecutor.execute(new PrioritizedRunnable(operation) {
+            @Override
+            public void run() {
+                if (operation.isCancelled()) return;
+                mReadMetrics.onStart(operation.submitTime);
+                operation.run();
+            }
+        });
+        return operation;
+    }
+
+    /**
+     * Submits a read operation with normal priority.
+     * @param task
+     * @param callback it is called in main thread if the operation is not cancelled
+     * @return future of the result
+     */
+    public <T> Future<T> read(Task<T> task, @Nullable Callbacks.FinishCallback<T> callback) {
+        return read(PRIORITY_NORMAL, task, callback);
+    }
+
+    /**
+     * Submits a write operation. Write operations are executed in submission order.
+     * @param task
+     * @param callback it is called in main thread if the operation is not cancelled
+     * @return future of the result
+     */
+    public <T> Future<T> write(Task<T> task, @Nullable Callbacks.FinishCallback<T> callback) {
+        Operation<T> operation = new Operation<>(task, PRIORITY_NORMAL, callback);
+        mWriteQueue.add(operation);
+        return operation;
+    }
+
+    public int getReadQueueDepth() {
+        return mReadExecutor.getQueue().size();
+    }
+
+    public int getWriteQueueDepth() {
+        return mWriteQueue.size();
+    }
+
+    public QueueMetrics getReadMetrics() {
+        return mReadMetrics;
+    }
+
+    public QueueMetrics getWriteMetrics() {
+        return mWriteMetrics;
+    }
+
+    public long getWriteBatchCount() {
+        return mWriteBatches.get();
+    }
+
+    private void runWriter() {
+        List<Operation<?>> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(mWriteQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mWriteQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+            try {
+                executeWriteBatch(batch);
+            } catch (Throwable e) {
+                // the transaction could not be opened or closed, the loop has to go on anyway
+                Timber.e(e, "Error executing a write batch");
+                for (Operation<?> operation : batch) {
+                    if (!operation.isDone()) operation.publishError(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void executeWriteBatch(List<Operation<?>> batch) {
+        mWriteBatches.incrementAndGet();
+        for (Operation<?> operation : batch) {
+            mWriteMetrics.onStart(operation.submitTime);
+        }
+        AppDatabase db = getDatabase();
+        Object[] results = new Object[batch.size()];
+        boolean failed = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Operation<?> operation = batch.get(i);
+                if (operation.isCancelled()) continue;
+                try {
+                    results[i] = operation.task.run(db);
+                } catch (Throwable e) {
+                    // errors too (out of memory), the writer thread must not die
+                    failed = true;
+                    break;
+                }
+            }
+            if (!failed) db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (!failed) {
+            // results are only published once the batch is committed
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.get(i).isCancelled()) batch.get(i).publish(results[i]);
+            }
+            return;
+        }
+        // an operation has failed so the batch was rolled back, each operation is executed
+        // again in its own transaction so only the failed ones are affected
+        for (Operation<?> operation : batch) {
+            if (operation.isCancelled()) continue;
+            db.beginTransaction();
+            try {
+                Object result = operation.task.run(db);
+                db.setTransactionSuccessful();
+                operation.publish(result);
+            } catch (Throwable e) {
+                Timber.e(e, "Error executing a write operation");
+                operation.publishError(e);
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Runnable wrapper that can be ordered by the priority queue of the read pool.
+     */
+    private static abstract class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+        private final Operation<?> mOperation;
+        PrioritizedRunnable(Operation<?> operation) {
+            mOperation = operation;
+        }
+        @Override
+        public int compareTo(@NonNull PrioritizedRunnable other) {
+            return mOperation.compareTo(other.mOperation);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+
+    // singleton instantiation
+    private static volatile DataExecutor sInstance;
+    private static final Object LOCK = new Object();
+    public static DataExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new DataExecutor(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+}
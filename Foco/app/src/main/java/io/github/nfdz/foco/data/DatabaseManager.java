@@ -3,18 +3,18 @@ package io.github.nfdz.foco.data;
 import android.arch.lifecycle.LiveData;
 import android.arch.lifecycle.MutableLiveData;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.support.annotation.Nullable;
 
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.Callbacks;
 import timber.log.Timber;
 
 public class DatabaseManager {
 
-    private static DatabaseManager sInstance;
+    private static volatile DatabaseManager sInstance;
 
     private final MutableLiveData<Boolean> mIsDatabaseCreated = new MutableLiveData<>();
 
@@ -24,7 +24,7 @@ public class DatabaseManager {
 
     // singleton instantiation
     private static final Object LOCK = new Object();
-    public synchronized static DatabaseManager getInstance(Context context) {
+    public static DatabaseManager getInstance(Context context) {
         if (sInstance == null) {
             synchronized (LOCK) {
                 if (sInstance == null) {
@@ -52,18 +52,17 @@ public class DatabaseManager {
         }
 
         mIsDatabaseCreated.setValue(false);
-        new AsyncTask<Void, Void, Void>() {
+        DataExecutor.getInstance(context).read(DataExecutor.PRIORITY_HIGH, new DataExecutor.Task<Void>() {
             @Override
-            protected Void doInBackground(Void... params) {
-                Context appContext = context.getApplicationContext();
-                mDb = AppDatabase.getInstance(appContext);
+            public Void run(AppDatabase db) {
+                mDb = db;
                 return null;
             }
-
+        }, new Callbacks.FinishCallback<Void>() {
             @Override
-            protected void onPostExecute(Void ignored) {
+            public void onFinish(Void ignored) {
                 mIsDatabaseCreated.setValue(true);
             }
-        }.execute();
+        });
     }
 }
\ No newline at end of file
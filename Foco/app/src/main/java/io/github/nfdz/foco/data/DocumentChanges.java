@@ -0,0 +1,77 @@
+package io.github.nfdz.foco.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class defines the documents changed by a write operation of DocumentRepository.
+ * Write tasks record the IDs of the documents that they insert, update or delete, and the
+ * repository works out which metadata fields of the updated documents have changed.
+ */
+public class DocumentChanges {
+
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_FAVORITE = 1 << 1;
+    public static final int FIELD_EDITION = 1 << 2;
+    public static final int FIELD_WORDS = 1 << 3;
+    public static final int FIELD_COVER = 1 << 4;
+    public static final int FIELD_ALL = FIELD_NAME | FIELD_FAVORITE | FIELD_EDITION | FIELD_WORDS | FIELD_COVER;
+
+    private final List<Long> mInserted = new ArrayList<>();
+    /** Updated documents in order, a document is updated many times by bulk writes */
+    private final Set<Long> mUpdated = new LinkedHashSet<>();
+    private final List<Long> mDeleted = new ArrayList<>();
+    private int mChangedFields = 0;
+
+    public void onInserted(long docId) {
+        mInserted.add(docId);
+    }
+
+    public void onUpdated(long docId) {
+        mUpdated.add(docId);
+    }
+
+    public void onDeleted(long docId) {
+        mDeleted.add(docId);
+    }
+
+    void addChangedFields(int fields) {
+        mChangedFields |= fields;
+    }
+
+    public List<Long> getInserted() {
+        return Collections.unmodifiableList(mInserted);
+    }
+
+    public Set<Long> getUpdated() {
+        return Collections.unmodifiableSet(mUpdated);
+    }
+
+    public List<Long> getDeleted() {
+        return Collections.unmodifiableList(mDeleted);
+    }
+
+    /**
+     * Returns the metadata fields that have changed in updated documents. If the previous
+     * metadata of an updated document was unknown, all fields are considered changed.
+     * @return FIELD_* flags
+     */
+    public int getChangedFields() {
+        return mChangedFields;
+    }
+
+    /**
+     * Returns true if documents have been inserted or deleted.
+     * @return boolean
+     */
+    public boolean hasCountChanged() {
+        return !mInserted.isEmpty() || !mDeleted.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return mInserted.isEmpty() && mUpdated.isEmpty() && mDeleted.isEmpty();
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.nfdz.foco.data;
+
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import io.github.nfdz.foco.data.dao.DocumentDao;
+import io.github.nfdz.foco.model.Callbacks;
+
+/**
+ * This class warms the text cache with the documents that are likely to be opened soon, so the
+ * editor can show them without waiting (see DocumentTextCache). Texts are loaded by low priority
+ * reads of DataExecutor and they can be cancelled. The texts prefetched and not opened yet can
+ * not exceed a memory budget, a document whose text does not fit is not loaded.
+ * All public methods have to be called in the main thread.
+ */
+public class DocumentPrefetcher {
+
+    /** Fraction of the text cache size that can be taken by prefetched texts */
+    private static final int BUDGET_DIVISOR = 4;
+
+    /** Number of last edited documents that are prefetched when the list is idle */
+    private static final int LAST_EDITED_COUNT = 3;
+
+    private final Context mContext;
+    private final DocumentTextCache mCache;
+    private final int mBudget;
+
+    /** Estimated size of the texts that have been prefetched and not opened, by document ID */
+    private final LongSparseArray<Integer> mPrefetched = new LongSparseArray<>();
+    private final LongSparseArray<Future<Integer>> mLoading = new LongSparseArray<>();
+    private Future<List<Long>> mLastEditedQuery;
+
+    public DocumentPrefetcher(Context context) {
+        mContext = context.getApplicationContext();
+        mCache = DocumentTextCache.getInstance(mContext);
+        mBudget = mCache.getMaxSize() / BUDGET_DIVISOR;
+    }
+
+    /**
+     * Prefetches the text of given document if it is not cached or being loaded.
+     * @param docId
+     */
+    public void prefetch(final long docId) {
+        if (mLoading.get(docId) != null || mCache.contains(docId)) return;
+        final int available = mBudget - getUsedBudget();
+        if (available <= 0) return;
+        Future<Integer> future = DataExecutor.getInstance(mContext).read(DataExecutor.PRIORITY_LOW,
+                new DataExecutor.Task<Integer>() {
+            @Override
+            public Integer run(AppDatabase db) {
+                DocumentDao dao = db.documentDao();
+                // check the size before loading the text
+                long size = dao.getTextLength(docId) * 2L + dao.getEditsSize(docId);
+                if (size > available) return 0;
+                return DocumentTextCache.getSize(mCache.load(db, docId));
+            }
+        }, new Callbacks.FinishCallback<Integer>() {
+            @Override
+            public void onFinish(Integer size) {
+                mLoading.remove(docId);
+                if (size != null && size > 0) mPrefetched.put(docId, size);
+            }
+        });
+        mLoading.put(docId, future);
+    }
+
+    /**
+     * Prefetches the texts of the last edited documents.
+     */
+    public void prefetchLastEdited() {
+        if (mLastEditedQuery != null) return;
+        mLastEditedQuery = DataExecutor.getInstance(mContext).read(DataExecutor.PRIORITY_LOW,
+                new DataExecutor.Task<List<Long>>() {
+            @Override
+            public List<Long> run(AppDatabase db) {
+                return db.documentDao().getLastEditedIds(LAST_EDITED_COUNT);
+            }
+        }, new Callbacks.FinishCallback<List<Long>>() {
+            @Override
+            public void onFinish(List<Long> docIds) {
+                mLastEditedQuery = null;
+                if (docIds == null) return;
+                for (Long docId : docIds) {
+                    prefetch(docId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Notifies that given document is being opened, so its prefetched text is not taken into
+     * account in the budget anymore.
+     * @param docId
+     */
+    public void onOpened(long docId) {
+        mPrefetched.remove(docId);
+    }
+
+    /**
+     * Cancels all prefetches that have not started yet.
+     */
+    public void cancel() {
+        for (int i = 0; i < mLoading.size(); i++) {
+            mLoading.valueAt(i).cancel(false);
+        }
+        mLoading.clear();
+        if (mLastEditedQuery != null) {
+            mLastEditedQuery.cancel(false);
+            mLastEditedQuery = null;
+        }
+    }
+
+    private int getUsedBudget() {
+        // texts that have been evicted (or invalidated) do not take memory anymore
+        List<Long> released = new ArrayList<>();
+        int used = 0;
+        for (int i = 0; i < mPrefetched.size(); i++) {
+            if (mCache.contains(mPrefetched.keyAt(i))) {
+                used += mPrefetched.valueAt(i);
+            } else {
+                released.add(mPrefetched.keyAt(i));
+            }
+        }
+        for (Long docId : released) {
+            mPrefetched.remove(docId);
+        }
+        return used;
+    }
+}
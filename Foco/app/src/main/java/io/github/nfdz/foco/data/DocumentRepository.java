@@ -0,0 +1,264 @@
+package io.github.nfdz.foco.data;
+
+import android.arch.lifecycle.LiveData;
+import android.arch.lifecycle.MutableLiveData;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import io.github.nfdz.foco.data.entity.DocumentMetadata;
+import io.github.nfdz.foco.model.Callbacks;
+
+/**
+ * This singleton class is the entry point of document writes. It keeps an ID-indexed cache of
+ * document metadata that is updated in place after every write, so there is a single instance
+ * of the metadata of each document and it is always up to date. Instead of re-querying the
+ * whole table, observers are notified with the documents that each write has changed.
+ * The cache is bounded, the least recently used documents are evicted. An evicted document that
+ * is written again is notified with all its fields changed, so lists load it again.
+ * Writes are queued in DataExecutor. The rest of public methods have to be called in the main
+ * thread, where the cache lives.
+ */
+public class DocumentRepository {
+
+    /**
+     * Interface to be implemented by write operations. They have to record the documents
+     * that they change.
+     * @param <T> result type
+     */
+    public interface WriteTask<T> {
+        T run(AppDatabase db, DocumentChanges changes) throws Exception;
+    }
+
+    /**
+     * Interface to be implemented to observe document changes. It is called in the main thread
+     * once the cache is updated.
+     */
+    public interface ChangeListener {
+        void onDocumentsChanged(DocumentChanges changes);
+    }
+
+    /** Maximum number of cached documents, they are small but the library could be big */
+    private static final int MAX_CACHED_DOCUMENTS = 500;
+
+    /** Maximum number of IDs of a metadata query (SQLite limits the number of arguments) */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private final Context mContext;
+    private final LruCache<Long, DocumentMetadata> mCache = new LruCache<>(MAX_CACHED_DOCUMENTS);
+    private final List<ChangeListener> mListeners = new ArrayList<>();
+    private final MutableLiveData<Integer> mDocumentsCount = new MutableLiveData<>();
+
+    /** Number of applied writes that have changed the number of documents */
+    private int mCountVersion = 0;
+    private boolean mCountRequested = false;
+
+    private DocumentRepository(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Submits a write operation. Once it is committed, the metadata of the documents that it
+     * has inserted or updated is loaded (in the same transaction), the cache is updated and
+     * listeners are notified, in this order, before the callback is called.
+     * @param task
+     * @param callback it is called in main thread if the operation is not cancelled
+     * @return future of the result
+     */
+    public <T> Future<T> write(WriteTask<T> task, @Nullable Callbacks.FinishCallback<T> callback) {
+        RepositoryWrite<T> write = new RepositoryWrite<>(task, callback);
+        return DataExecutor.getInstance(mContext).write(write, write);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        if (!mListeners.contains(listener)) mListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns a live data with the number of documents. It is loaded the first time and then it
+     * is updated by the writes that insert or delete documents.
+     * @return LiveData<Integer>
+     */
+    public LiveData<Integer> getDocumentsCount() {
+        if (!mCountRequested) {
+            mCountRequested = true;
+            final int version = mCountVersion;
+            DataExecutor.getInstance(mContext).read(DataExecutor.PRIORITY_HIGH, new DataExecutor.Task<Integer>() {
+                @Override
+                public Integer run(AppDatabase db) {
+                    return db.documentDao().countDocuments();
+                }
+            }, new Callbacks.FinishCallback<Integer>() {
+                @Override
+                public void onFinish(Integer count) {
+                    // a write applied meanwhile has already set a newer value
+                    if (version == mCountVersion) mDocumentsCount.setValue(count);
+                }
+            });
+        }
+        return mDocumentsCount;
+    }
+
+    /**
+     * Returns the cached metadata of given document.
+     * @param docId
+     * @return metadata or null if it is not cached
+     */
+    @Nullable
+    public DocumentMetadata getCachedDocument(long docId) {
+        return mCache.get(docId);
+    }
+
+    /**
+     * Puts loaded metadata in the cache. Documents that are already cached are replaced in the
+     * list with the cached instance, that is kept because writes keep it up to date.
+     * @param docs loaded metadata, it is modified
+     * @return given list
+     */
+    public List<DocumentMetadata> cacheDocuments(List<DocumentMetadata> docs) {
+        for (int i = 0; i < docs.size(); i++) {
+            DocumentMetadata doc = docs.get(i);
+            DocumentMetadata cached = mCache.get(doc.id);
+            if (cached == null) {
+                mCache.put(doc.id, doc);
+            } else {
+                docs.set(i, cached);
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Releases memory according to given level (see ComponentCallbacks2).
+     * @param level
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    private void applyChanges(DocumentChanges changes, List<DocumentMetadata> loadedDocs, int count) {
+        for (DocumentMetadata loaded : loadedDocs) {
+            DocumentMetadata cached = mCache.get(loaded.id);
+            if (cached == null) {
+                mCache.put(loaded.id, loaded);
+                if (changes.getUpdated().contains(loaded.id)) {
+                    changes.addChangedFields(DocumentChanges.FIELD_ALL);
+                }
+            } else {
+                changes.addChangedFields(updateInPlace(cached, loaded));
+            }
+        }
+        for (Long docId : changes.getDeleted()) {
+            mCache.remove(docId);
+        }
+        if (changes.hasCountChanged()) {
+            mCountVersion++;
+            mDocumentsCount.setValue(count);
+        }
+        for (ChangeListener listener : new ArrayList<>(mListeners)) {
+            listener.onDocumentsChanged(changes);
+        }
+    }
+
+    /**
+     * This method copies loaded fields into the cached instance.
+     * @param cached
+     * @param loaded
+     * @return FIELD_* flags of changed fields
+     */
+    private static int updateInPlace(DocumentMetadata cached, DocumentMetadata loaded) {
+        int changed = 0;
+        if (!TextUtils.equals(cached.name, loaded.name)) changed |= DocumentChanges.FIELD_NAME;
+        if (cached.isFavorite != loaded.isFavorite) changed |= DocumentChanges.FIELD_FAVORITE;
+        if (cached.lastEditionTime != loaded.lastEditionTime ||
+                cached.workingTime != loaded.workingTime) {
+            changed |= DocumentChanges.FIELD_EDITION;
+        }
+        if (cached.words != loaded.words) changed |= DocumentChanges.FIELD_WORDS;
+        if (cached.coverColor != loaded.coverColor ||
+                !TextUtils.equals(cached.coverImage, loaded.coverImage)) {
+            changed |= DocumentChanges.FIELD_COVER;
+        }
+        cached.name = loaded.name;
+        cached.isFavorite = loaded.isFavorite;
+        cached.lastEditionTime = loaded.lastEditionTime;
+        cached.workingTime = loaded.workingTime;
+        cached.words = loaded.words;
+        cached.coverColor = loaded.coverColor;
+        cached.coverImage = loaded.coverImage;
+        return changed;
+    }
+
+    /**
+     * Adapts a write task to DataExecutor. Its fields are written by the writer thread and
+     * read in the callback, that is posted to the main thread after the commit.
+     */
+    private class RepositoryWrite<T> implements DataExecutor.Task<T>, Callbacks.FinishCallback<T> {
+
+        private final WriteTask<T> mTask;
+        @Nullable private final Callbacks.FinishCallback<T> mCallback;
+        private DocumentChanges mChanges;
+        private List<DocumentMetadata> mLoadedDocs;
+        private int mCount;
+
+        RepositoryWrite(WriteTask<T> task, @Nullable Callbacks.FinishCallback<T> callback) {
+            mTask = task;
+            mCallback = callback;
+        }
+
+        @Override
+        public T run(AppDatabase db) throws Exception {
+            // it could be executed again if its batch is rolled back
+            mChanges = null;
+            DocumentChanges changes = new DocumentChanges();
+            T result = mTask.run(db, changes);
+            List<Long> loadIds = new ArrayList<>(changes.getInserted());
+            loadIds.addAll(changes.getUpdated());
+            mLoadedDocs = new ArrayList<>(loadIds.size());
+            for (int i = 0; i < loadIds.size(); i += MAX_IDS_PER_QUERY) {
+                List<Long> chunk = loadIds.subList(i, Math.min(loadIds.size(), i + MAX_IDS_PER_QUERY));
+                mLoadedDocs.addAll(db.documentDao().getDocumentsMetadata(chunk));
+            }
+            mCount = changes.hasCountChanged() ? db.documentDao().countDocuments() : 0;
+            mChanges = changes;
+            return result;
+        }
+
+        @Override
+        public void onFinish(T result) {
+            if (mChanges != null && !mChanges.isEmpty()) {
+                applyChanges(mChanges, mLoadedDocs, mCount);
+            }
+            if (mCallback != null) mCallback.onFinish(result);
+        }
+    }
+
+    // singleton instantiation
+    // instance field is volatile so the lock is only taken until it is created
+    private static volatile DocumentRepository sInstance;
+    private static final Object LOCK = new Object();
+    public static DocumentRepository getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new DocumentRepository(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.nfdz.foco.data;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.nfdz.foco.utils.EditJournalUtils;
+
+/**
+ * This singleton class keeps the text of recently opened documents, so they can be reopened
+ * without querying the database. It is a LRU cache bounded by the size in bytes of the texts.
+ * Cached text is the stored text of the document (with its journal applied). Writes that
+ * change it invalidate the entry in the writer thread and put the new text once committed.
+ * Every invalidation increases a version and loads can only put an entry if the version has not
+ * changed since they started, so an entry is never replaced by an older text.
+ * It can be used from any thread.
+ */
+public class DocumentTextCache {
+
+    /** Fraction of the memory class of the app that can be used by the cache */
+    private static final int MEMORY_CLASS_DIVISOR = 16;
+
+    /** Estimated bytes of an entry besides its characters */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Inner class that defines a cached text.
+     */
+    public static class Entry {
+        public final String text;
+        /** Hash of the text (see EditJournalUtils.hashText) */
+        public final long hash;
+        /** True if the text has got draft edits (autosave) that are not saved yet */
+        public final boolean hasDraft;
+        public Entry(String text, long hash, boolean hasDraft) {
+            this.text = text;
+            this.hash = hash;
+            this.hasDraft = hasDraft;
+        }
+    }
+
+    private final LruCache<Long, Entry> mCache;
+    /** Keys of the cache, so they can be checked without affecting LRU order */
+    private final Set<Long> mKeys = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private long mVersion = 0;
+
+    private DocumentTextCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+        mCache = new LruCache<Long, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Long docId, Entry entry) {
+                return getSize(entry);
+            }
+            @Override
+            protected void entryRemoved(boolean evicted, Long docId, Entry oldEntry, Entry newEntry) {
+                // it is called by put, remove and trim, that are synchronized by this class
+                if (newEntry == null) mKeys.remove(docId);
+            }
+        };
+    }
+
+    /**
+     * Returns the size in bytes of given entry.
+     * @param entry
+     * @return bytes
+     */
+    public static int getSize(Entry entry) {
+        return entry.text.length() * 2 + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Loads the text of given document from database and puts it in the cache. It has to be
+     * called in a background thread.
+     * @param db
+     * @param docId
+     * @return loaded entry
+     */
+    public Entry load(AppDatabase db, long docId) {
+        long version = getVersion();
+        // draft edits (autosave) are part of the journal so they are recovered here
+        boolean hasDraft = db.documentDao().countDraftEdits(docId) > 0;
+        String text = db.loadDocumentText(docId);
+        if (text == null) text = "";
+        Entry entry = new Entry(text, EditJournalUtils.hashText(text), hasDraft);
+        put(docId, entry, version);
+        return entry;
+    }
+
+    @Nullable
+    public Entry get(long docId) {
+        return mCache.get(docId);
+    }
+
+    /**
+     * Returns true if the text of the document is cached. It does not affect hit and miss
+     * counts neither LRU order.
+     * @param docId
+     * @return boolean
+     */
+    public boolean contains(long docId) {
+        return mKeys.contains(docId);
+    }
+
+    /**
+     * Returns the current version. It has to be taken before loading a text from database.
+     * @return version
+     */
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Puts the text of the document if there has not been any invalidation since given version.
+     * @param docId
+     * @param entry
+     * @param version
+     * @return true if it was put
+     */
+    public synchronized boolean put(long docId, Entry entry, long version) {
+        if (version != mVersion) return false;
+        // the key is added before, an entry that is too big is evicted by put itself
+        mKeys.add(docId);
+        mCache.put(docId, entry);
+        return true;
+    }
+
+    /**
+     * Removes the text of the document because it is being changed.
+     * @param docId
+     * @return new version, the changed text can be put with it once it is committed
+     */
+    public synchronized long invalidate(long docId) {
+        mVersion++;
+        mCache.remove(docId);
+        return mVersion;
+    }
+
+    /**
+     * Releases memory according to given level (see ComponentCallbacks2).
+     * @param level
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    public int getSize() {
+        return mCache.size();
+    }
+
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    // singleton instantiation
+    private static volatile DocumentTextCache sInstance;
+    private static final Object LOCK = new Object();
+    public static DocumentTextCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new DocumentTextCache(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+}
@@ -52,9 +52,9 @@ public class MusicCatalog {
     };
 
     // singleton instantiation
-    private static MusicCatalog sInstance;
+    private static volatile MusicCatalog sInstance;
     private static final Object LOCK = new Object();
-    public synchronized static MusicCatalog getInstance(@NonNull Context context) {
+    public static MusicCatalog getInstance(@NonNull Context context) {
         if (sInstance == null) {
             synchronized (LOCK) {
                 if (sInstance == null) {
@@ -0,0 +1,268 @@
+package io.github.nfdz.foco.data;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import io.github.nfdz.foco.data.dao.DocumentDao;
+import io.github.nfdz.foco.model.Callbacks;
+
+/**
+ * This singleton class buffers metadata mutations of documents (name, favorite and cover) for
+ * a short window. Pending mutations of the same document are merged, so they are written with
+ * a single UPDATE, and all buffered documents are written in one write operation of
+ * DocumentRepository (one transaction and one change notification). Documents that only change
+ * favorite (a toggle of a multi-selection) are written with one set-based UPDATE per value.
+ * The buffer is flushed before any other write operation of TasksUtils, so the order of
+ * operations is preserved. Reads of a buffered document have to be submitted with
+ * readAfterFlush.
+ * All public methods have to be called in the main thread.
+ */
+public class MutationBuffer {
+
+    /** Time that mutations are buffered waiting for other mutations */
+    private static final long WINDOW_MILLIS = 250;
+
+    /** Maximum number of IDs of a set-based update (SQLite limits the number of arguments) */
+    private static final int MAX_IDS_PER_UPDATE = 500;
+
+    /**
+     * Inner class that defines the merged mutations of a document.
+     */
+    private static class PendingUpdate {
+        final long docId;
+        boolean setName;
+        String name;
+        boolean setFavorite;
+        boolean favorite;
+        boolean setCover;
+        int coverColor;
+        String coverImage;
+        /** Cover images that were set by buffered mutations and have been replaced */
+        final List<String> replacedImages = new ArrayList<>();
+        final List<Callbacks.FinishCallback<Void>> callbacks = new ArrayList<>();
+        PendingUpdate(long docId) {
+            this.docId = docId;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private LinkedHashMap<Long, PendingUpdate> mPending = new LinkedHashMap<>();
+    /** Flushed updates that change favorite until their write is finished, by document ID */
+    private final HashMap<Long, PendingUpdate> mWritingFavorites = new HashMap<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private MutationBuffer(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public void setName(long docId, String name, @Nullable Callbacks.FinishCallback<Void> callback) {
+        PendingUpdate update = getPendingUpdate(docId, callback);
+        update.setName = true;
+        update.name = name;
+    }
+
+    public void setFavorite(long docId, boolean favorite, @Nullable Callbacks.FinishCallback<Void> callback) {
+        PendingUpdate update = getPendingUpdate(docId, callback);
+        update.setFavorite = true;
+        update.favorite = favorite;
+    }
+
+    /**
+     * Changes the cover of the document. The previous cover image file is deleted once the
+     * mutation is committed.
+     * @param docId
+     * @param coverColor
+     * @param coverImage
+     * @param callback
+     */
+    public void setCover(long docId,
+                         int coverColor,
+                         String coverImage,
+                         @Nullable Callbacks.FinishCallback<Void> callback) {
+        PendingUpdate update = getPendingUpdate(docId, callback);
+        if (update.setCover && !TextUtils.isEmpty(update.coverImage) &&
+                !update.coverImage.equals(coverImage)) {
+            update.replacedImages.add(update.coverImage);
+        }
+        update.setCover = true;
+        update.coverColor = coverColor;
+        update.coverImage = coverImage;
+    }
+
+    private PendingUpdate getPendingUpdate(long docId, @Nullable Callbacks.FinishCallback<Void> callback) {
+        PendingUpdate update = mPending.get(docId);
+        if (update == null) {
+            update = new PendingUpdate(docId);
+            mPending.put(docId, update);
+        }
+        if (callback != null) update.callbacks.add(callback);
+        if (mPending.size() == 1) {
+            mHandler.postDelayed(mFlushRunnable, WINDOW_MILLIS);
+        }
+        return update;
+    }
+
+    public boolean hasPendingMutations(long docId) {
+        return mPending.containsKey(docId);
+    }
+
+    /**
+     * Returns the favorite value of the document that has been set by a mutation that is
+     * buffered or being written, so it is not yet in DocumentRepository cache.
+     * @param docId
+     * @return favorite value or null if there is not any mutation of it
+     */
+    @Nullable
+    public Boolean getPendingFavorite(long docId) {
+        PendingUpdate update = mPending.get(docId);
+        if (update == null || !update.setFavorite) update = mWritingFavorites.get(docId);
+        return update != null ? update.favorite : null;
+    }
+
+    /**
+     * Writes buffered mutations now. It does nothing if there is not any.
+     * @return future of the write or null if there was nothing to write
+     */
+    @Nullable
+    public Future<Boolean> flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPending.isEmpty()) return null;
+        final List<PendingUpdate> updates = new ArrayList<>(mPending.values());
+        mPending = new LinkedHashMap<>();
+        for (PendingUpdate update : updates) {
+            if (update.setFavorite) mWritingFavorites.put(update.docId, update);
+        }
+        // images are deleted once the write is committed, because the batch could be rolled back
+        final List<String> imagesToDelete = new ArrayList<>();
+        return DocumentRepository.getInstance(mContext).write(new DocumentRepository.WriteTask<Boolean>() {
+            @Override
+            public Boolean run(AppDatabase db, DocumentChanges changes) {
+                DocumentDao dao = db.documentDao();
+                // it could be executed again if its batch is rolled back
+                imagesToDelete.clear();
+                List<Long> toFavorite = new ArrayList<>();
+                List<Long> toNotFavorite = new ArrayList<>();
+                for (PendingUpdate update : updates) {
+                    changes.onUpdated(update.docId);
+                    if (update.setFavorite && !update.setName && !update.setCover) {
+                        if (update.favorite) {
+                            toFavorite.add(update.docId);
+                        } else {
+                            toNotFavorite.add(update.docId);
+                        }
+                        continue;
+                    }
+                    if (update.setCover) {
+                        addImageToDelete(imagesToDelete, dao.getCoverImage(update.docId), update.coverImage);
+                        for (String replacedImage : update.replacedImages) {
+                            addImageToDelete(imagesToDelete, replacedImage, update.coverImage);
+                        }
+                    }
+                    dao.updateMetadata(update.docId,
+                            update.setName,
+                            update.name,
+                            update.setFavorite,
+                            update.favorite,
+                            update.setCover,
+                            update.coverColor,
+                            update.coverImage);
+                }
+                updateFavorite(dao, toFavorite, true);
+                updateFavorite(dao, toNotFavorite, false);
+                return true;
+            }
+        }, new Callbacks.FinishCallback<Boolean>() {
+            @Override
+            public void onFinish(Boolean written) {
+                if (Boolean.TRUE.equals(written) && !imagesToDelete.isEmpty()) {
+                    deleteImagesAsync(new ArrayList<>(imagesToDelete));
+                }
+                for (PendingUpdate update : updates) {
+                    // repository cache has been updated before (or the write has failed)
+                    if (mWritingFavorites.get(update.docId) == update) mWritingFavorites.remove(update.docId);
+                    for (Callbacks.FinishCallback<Void> callback : update.callbacks) {
+                        callback.onFinish(null);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void updateFavorite(DocumentDao dao, List<Long> docIds, boolean favorite) {
+        for (int i = 0; i < docIds.size(); i += MAX_IDS_PER_UPDATE) {
+            dao.updateFavorite(docIds.subList(i, Math.min(docIds.size(), i + MAX_IDS_PER_UPDATE)), favorite);
+        }
+    }
+
+    private static void addImageToDelete(List<String> images, String image, String newImage) {
+        if (!TextUtils.isEmpty(image) && !image.equals(newImage)) {
+            images.add(image);
+        }
+    }
+
+    private static void deleteImagesAsync(final List<String> images) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String image : images) {
+                    new File(image).delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Submits a read operation of given document. If the document has got buffered mutations,
+     * they are written before and the read waits for them.
+     * @param docId
+     * @param priority see DataExecutor priorities
+     * @param task
+     * @param callback
+     * @return future of the result
+     */
+    public <T> Future<T> readAfterFlush(long docId,
+                                        int priority,
+                                        final DataExecutor.Task<T> task,
+                                        @Nullable Callbacks.FinishCallback<T> callback) {
+        final Future<Boolean> flush = hasPendingMutations(docId) ? flush() : null;
+        return DataExecutor.getInstance(mContext).read(priority, new DataExecutor.Task<T>() {
+            @Override
+            public T run(AppDatabase db) throws Exception {
+                if (flush != null) flush.get();
+                return task.run(db);
+            }
+        }, callback);
+    }
+
+    // singleton instantiation
+    private static volatile MutationBuffer sInstance;
+    private static final Object LOCK = new Object();
+    public static MutationBuffer getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new MutationBuffer(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+}
@@ -4,7 +4,12 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import io.github.nfdz.foco.R;
+import io.github.nfdz.foco.model.DocumentSerializer;
 
 /**
  * This class has static methods that ease work with shared preferences.
@@ -14,6 +19,18 @@ public class PreferencesUtils {
     private static final String INSERTED_SAMPLE_DOCUMENT_KEY = "inserted-sample-document";
     private static final boolean INSERTED_SAMPLE_DOCUMENT_DEFAULT = false;
 
+    private static final String EXPORT_FORMAT_KEY = "export-format";
+    private static final int EXPORT_FORMAT_DEFAULT = DocumentSerializer.FORMAT_V2;
+
+    private static final String BACKUP_FOLDER_KEY = "backup-folder";
+    private static final String BACKUP_WATERMARK_KEY = "backup-watermark";
+    private static final long BACKUP_WATERMARK_DEFAULT = Long.MIN_VALUE;
+
+    private static final String WORD_COUNT_VERSION_KEY = "word-count-version";
+    private static final int WORD_COUNT_VERSION_DEFAULT = 1;
+
+    private static final String PENDING_IMPORTS_KEY = "pending-imports";
+
     public static boolean getInsertedSampleFlag(Context context) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
         return sp.getBoolean(INSERTED_SAMPLE_DOCUMENT_KEY, INSERTED_SAMPLE_DOCUMENT_DEFAULT);
@@ -53,5 +70,126 @@ public class PreferencesUtils {
         return editor.commit();
     }
 
+    /**
+     * Retrieves export format preference.
+     * @param context
+     * @return DocumentSerializer format
+     */
+    public static int getPreferredExportFormat(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(EXPORT_FORMAT_KEY, EXPORT_FORMAT_DEFAULT);
+    }
+
+    /**
+     * Set export format preference.
+     * @param context
+     * @param format DocumentSerializer format
+     * @return Returns true if the new value were successfully written
+     * to persistent storage.
+     */
+    public static boolean setPreferredExportFormat(Context context, int format) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putInt(EXPORT_FORMAT_KEY, format);
+        return editor.commit();
+    }
+
+    /**
+     * Retrieves the tree URI of the backup folder.
+     * @param context
+     * @return String URI or null if backup is disabled
+     */
+    public static String getBackupFolder(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getString(BACKUP_FOLDER_KEY, null);
+    }
+
+    /**
+     * Set the tree URI of the backup folder. The watermark is reset because nothing has been
+     * backed up in the new folder.
+     * @param context
+     * @param folder String URI or null to disable backup
+     * @return Returns true if the new value were successfully written
+     * to persistent storage.
+     */
+    public static boolean setBackupFolder(Context context, String folder) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(BACKUP_FOLDER_KEY, folder);
+        editor.remove(BACKUP_WATERMARK_KEY);
+        return editor.commit();
+    }
+
+    /**
+     * Retrieves the modification time of the newest document that has been backed up.
+     * @param context
+     * @return time in millis
+     */
+    public static long getBackupWatermark(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(BACKUP_WATERMARK_KEY, BACKUP_WATERMARK_DEFAULT);
+    }
+
+    public static boolean setBackupWatermark(Context context, long watermark) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putLong(BACKUP_WATERMARK_KEY, watermark);
+        return editor.commit();
+    }
+
+    /**
+     * Retrieves the version of the rules that counted the words of stored documents.
+     * @param context
+     * @return WordCountUtils version
+     */
+    public static int getWordCountVersion(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(WORD_COUNT_VERSION_KEY, WORD_COUNT_VERSION_DEFAULT);
+    }
+
+    public static boolean setWordCountVersion(Context context, int version) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putInt(WORD_COUNT_VERSION_KEY, version);
+        return editor.commit();
+    }
 
+    /**
+     * Retrieves the IDs of the documents whose streaming import has not finished.
+     * @param context
+     * @return set of document IDs as strings
+     */
+    public static Set<String> getPendingImports(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getStringSet(PENDING_IMPORTS_KEY, Collections.<String>emptySet());
+    }
+
+    /**
+     * Adds or removes a document of a streaming import. Returned set cannot be modified, so a
+     * copy is written.
+     * @param context
+     * @param docId
+     * @param pending true while the import has not finished
+     * @return Returns true if the new value were successfully written
+     * to persistent storage.
+     */
+    public static boolean setPendingImport(Context context, long docId, boolean pending) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> docIds = new HashSet<>(getPendingImports(context));
+        if (pending) {
+            docIds.add(String.valueOf(docId));
+        } else {
+            docIds.remove(String.valueOf(docId));
+        }
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putStringSet(PENDING_IMPORTS_KEY, docIds);
+        return editor.commit();
+    }
+
+    public static boolean clearPendingImports(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.remove(PENDING_IMPORTS_KEY);
+        return editor.commit();
+    }
 }
@@ -0,0 +1,96 @@
+package io.github.nfdz.foco.data;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import io.github.nfdz.foco.utils.MarkdownBlockUtils;
+
+/**
+ * This singleton class keeps the rendered HTML of the markdown preview of recently previewed
+ * documents (see MarkdownBlockUtils), so an unchanged text is not rendered again. Every entry
+ * has the hash of the text that was rendered (see EditJournalUtils.hashText) and it is only
+ * returned for that hash. It is a LRU cache bounded by the size in bytes of the HTML.
+ * It can be used from any thread.
+ */
+public class PreviewHtmlCache {
+
+    /** Fraction of the memory class of the app that can be used by the cache */
+    private static final int MEMORY_CLASS_DIVISOR = 16;
+
+    /** Estimated bytes of an entry besides its HTML */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final LruCache<Long, MarkdownBlockUtils.Rendered> mCache;
+
+    private PreviewHtmlCache(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+        mCache = new LruCache<Long, MarkdownBlockUtils.Rendered>(maxBytes) {
+            @Override
+            protected int sizeOf(Long docId, MarkdownBlockUtils.Rendered rendered) {
+                return rendered.getSize() + ENTRY_OVERHEAD;
+            }
+        };
+    }
+
+    /**
+     * Returns the rendered text of given document if its text has got given hash.
+     * @param docId
+     * @param hash
+     * @return rendered text or null
+     */
+    @Nullable
+    public MarkdownBlockUtils.Rendered get(long docId, long hash) {
+        MarkdownBlockUtils.Rendered rendered = mCache.get(docId);
+        return rendered != null && rendered.textHash == hash ? rendered : null;
+    }
+
+    /**
+     * Returns the last rendered text of given document, whatever its text is. Its blocks can be
+     * reused to render a new text.
+     * @param docId
+     * @return rendered text or null
+     */
+    @Nullable
+    public MarkdownBlockUtils.Rendered getLast(long docId) {
+        return mCache.get(docId);
+    }
+
+    /**
+     * Puts the rendered text of given document, it replaces the previous one.
+     * @param docId
+     * @param rendered
+     */
+    public void put(long docId, MarkdownBlockUtils.Rendered rendered) {
+        mCache.put(docId, rendered);
+    }
+
+    /**
+     * Releases memory according to given level (see ComponentCallbacks2).
+     * @param level
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    // singleton instantiation
+    private static volatile PreviewHtmlCache sInstance;
+    private static final Object LOCK = new Object();
+    public static PreviewHtmlCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null) {
+                    sInstance = new PreviewHtmlCache(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+}
@@ -1,23 +1,28 @@
 package io.github.nfdz.foco.data.dao;
 
-import android.arch.lifecycle.LiveData;
 import android.arch.persistence.room.Dao;
 import android.arch.persistence.room.Delete;
 import android.arch.persistence.room.Insert;
 import android.arch.persistence.room.OnConflictStrategy;
 import android.arch.persistence.room.Query;
 import android.arch.persistence.room.Update;
+import android.database.Cursor;
 
 import java.util.List;
 
+import io.github.nfdz.foco.data.entity.DocumentContentEntity;
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
 import io.github.nfdz.foco.data.entity.DocumentEntity;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 
+import static io.github.nfdz.foco.data.entity.DocumentContentEntity.COLUMN_DOCUMENT_ID;
+import static io.github.nfdz.foco.data.entity.DocumentContentEntity.COLUMN_TEXT;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_COVER_COLOR;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_COVER_IMAGE;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_FAVORITE;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_ID;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_LAST_EDITION_TIME;
+import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_MODIFICATION_TIME;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_NAME;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_WORDS;
 import static io.github.nfdz.foco.data.entity.DocumentEntity.COLUMN_WORKING_TIME;
@@ -29,26 +34,303 @@ import static io.github.nfdz.foco.data.entity.DocumentEntity.TABLE_NAME;
 @Dao
 public interface DocumentDao {
 
-    @Query("SELECT " + COLUMN_ID + ", " +COLUMN_NAME + ", " + COLUMN_WORKING_TIME +
+    String METADATA_COLUMNS = COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_WORKING_TIME +
             ", " + COLUMN_LAST_EDITION_TIME + ", " + COLUMN_WORDS + ", " + COLUMN_FAVORITE +
-            ", " + COLUMN_COVER_COLOR +  ", " + COLUMN_COVER_IMAGE + " FROM " + TABLE_NAME)
-    LiveData<List<DocumentMetadata>> loadAllDocumentsMetadata();
+            ", " + COLUMN_COVER_COLOR +  ", " + COLUMN_COVER_IMAGE;
+
+    // Sort criteria. All of them have favorite documents first, name as tie-break and ID
+    // as the last criteria so every row has an unique position (needed by keyset pagination).
+    // Reverse orders are used to load the page before a known row. Each sort has got an index
+    // with the same columns and directions (see AppDatabase), so sqlite reads rows in order
+    // from the index (backwards for reverse orders) instead of sorting them.
+    //
+    // Keyset predicates only look for rows of the group (favorite or not) of the known row,
+    // the other group is read from its edge. So the first column is compared by equality and
+    // the second one has got a range bound, and sqlite can seek the index to the known row
+    // (row value comparisons would do it but they need sqlite 3.15). Names are never NULL
+    // (see AppDatabase) because comparisons with NULL are never true.
+
+    String LOCALIZED_NAME = COLUMN_NAME + " COLLATE LOCALIZED";
+
+    String ORDER_BY_TITLE = COLUMN_FAVORITE + " DESC, " + LOCALIZED_NAME + " ASC, " + COLUMN_ID + " ASC";
+    String REVERSE_ORDER_BY_TITLE = COLUMN_FAVORITE + " ASC, " + LOCALIZED_NAME + " DESC, " +
+            COLUMN_ID + " DESC";
+    String AFTER_TITLE = COLUMN_FAVORITE + " = :favorite AND " + LOCALIZED_NAME + " >= :name AND (" +
+            LOCALIZED_NAME + " > :name OR " + COLUMN_ID + " > :docId)";
+    String BEFORE_TITLE = COLUMN_FAVORITE + " = :favorite AND " + LOCALIZED_NAME + " <= :name AND (" +
+            LOCALIZED_NAME + " < :name OR " + COLUMN_ID + " < :docId)";
+
+    String ORDER_BY_EDITION = COLUMN_FAVORITE + " DESC, " + COLUMN_LAST_EDITION_TIME + " DESC, " +
+            LOCALIZED_NAME + " ASC, " + COLUMN_ID + " ASC";
+    String REVERSE_ORDER_BY_EDITION = COLUMN_FAVORITE + " ASC, " + COLUMN_LAST_EDITION_TIME + " ASC, " +
+            LOCALIZED_NAME + " DESC, " + COLUMN_ID + " DESC";
+    String AFTER_EDITION = COLUMN_FAVORITE + " = :favorite AND " + COLUMN_LAST_EDITION_TIME +
+            " <= :lastEditionTime AND (" + COLUMN_LAST_EDITION_TIME + " < :lastEditionTime OR " +
+            LOCALIZED_NAME + " > :name OR (" + LOCALIZED_NAME + " = :name AND " + COLUMN_ID + " > :docId))";
+    String BEFORE_EDITION = COLUMN_FAVORITE + " = :favorite AND " + COLUMN_LAST_EDITION_TIME +
+            " >= :lastEditionTime AND (" + COLUMN_LAST_EDITION_TIME + " > :lastEditionTime OR " +
+            LOCALIZED_NAME + " < :name OR (" + LOCALIZED_NAME + " = :name AND " + COLUMN_ID + " < :docId))";
+
+    String ORDER_BY_WORDS = COLUMN_FAVORITE + " DESC, " + COLUMN_WORDS + " DESC, " +
+            LOCALIZED_NAME + " ASC, " + COLUMN_ID + " ASC";
+    String REVERSE_ORDER_BY_WORDS = COLUMN_FAVORITE + " ASC, " + COLUMN_WORDS + " ASC, " +
+            LOCALIZED_NAME + " DESC, " + COLUMN_ID + " DESC";
+    String AFTER_WORDS = COLUMN_FAVORITE + " = :favorite AND " + COLUMN_WORDS + " <= :words AND (" +
+            COLUMN_WORDS + " < :words OR " + LOCALIZED_NAME + " > :name OR (" + LOCALIZED_NAME +
+            " = :name AND " + COLUMN_ID + " > :docId))";
+    String BEFORE_WORDS = COLUMN_FAVORITE + " = :favorite AND " + COLUMN_WORDS + " >= :words AND (" +
+            COLUMN_WORDS + " > :words OR " + LOCALIZED_NAME + " < :name OR (" + LOCALIZED_NAME +
+            " = :name AND " + COLUMN_ID + " < :docId))";
+
+    String IN_GROUP = COLUMN_FAVORITE + " = :favorite";
+
+    /**
+     * Returns the number of documents. DocumentRepository keeps it up to date after writes.
+     */
+    @Query("SELECT COUNT(*) FROM " + TABLE_NAME)
+    int countDocuments();
+
+    // title sort pages
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " ORDER BY " + ORDER_BY_TITLE +
+            " LIMIT :limit OFFSET :offset")
+    List<DocumentMetadata> loadPageByTitle(int offset, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + AFTER_TITLE +
+            " ORDER BY " + ORDER_BY_TITLE + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByTitleAfter(boolean favorite, String name, long docId, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + BEFORE_TITLE +
+            " ORDER BY " + REVERSE_ORDER_BY_TITLE + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByTitleBefore(boolean favorite, String name, long docId, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + ORDER_BY_TITLE + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupStartByTitle(boolean favorite, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + REVERSE_ORDER_BY_TITLE + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupEndByTitle(boolean favorite, int limit);
+
+    // last edition time sort pages
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " ORDER BY " + ORDER_BY_EDITION +
+            " LIMIT :limit OFFSET :offset")
+    List<DocumentMetadata> loadPageByEdition(int offset, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + AFTER_EDITION +
+            " ORDER BY " + ORDER_BY_EDITION + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByEditionAfter(boolean favorite,
+                                                  long lastEditionTime,
+                                                  String name,
+                                                  long docId,
+                                                  int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + BEFORE_EDITION +
+            " ORDER BY " + REVERSE_ORDER_BY_EDITION + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByEditionBefore(boolean favorite,
+                                                   long lastEditionTime,
+                                                   String name,
+                                                   long docId,
+                                                   int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + ORDER_BY_EDITION + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupStartByEdition(boolean favorite, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + REVERSE_ORDER_BY_EDITION + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupEndByEdition(boolean favorite, int limit);
+
+    // number of words sort pages
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " ORDER BY " + ORDER_BY_WORDS +
+            " LIMIT :limit OFFSET :offset")
+    List<DocumentMetadata> loadPageByWords(int offset, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + AFTER_WORDS +
+            " ORDER BY " + ORDER_BY_WORDS + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByWordsAfter(boolean favorite, int words, String name, long docId, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + BEFORE_WORDS +
+            " ORDER BY " + REVERSE_ORDER_BY_WORDS + " LIMIT :limit")
+    List<DocumentMetadata> loadPageByWordsBefore(boolean favorite, int words, String name, long docId, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + ORDER_BY_WORDS + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupStartByWords(boolean favorite, int limit);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + IN_GROUP +
+            " ORDER BY " + REVERSE_ORDER_BY_WORDS + " LIMIT :limit")
+    List<DocumentMetadata> loadGroupEndByWords(boolean favorite, int limit);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long[] insert(DocumentEntity... document);
 
+    /**
+     * Returns the document row. Note that the text is not stored in this table so the returned
+     * entity does not have it, use getDocumentText to retrieve it.
+     */
     @Query("SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = :docId")
     DocumentEntity getDocument(long docId);
 
-    @Query("SELECT " + COLUMN_ID + ", " +COLUMN_NAME + ", " + COLUMN_WORKING_TIME +
-            ", " + COLUMN_LAST_EDITION_TIME + ", " + COLUMN_WORDS + ", " + COLUMN_FAVORITE +
-            ", " + COLUMN_COVER_COLOR +  ", " + COLUMN_COVER_IMAGE + " FROM " + TABLE_NAME +
-            " WHERE " + COLUMN_ID + " = :docId")
+    @Query("SELECT " + COLUMN_TEXT + " FROM " + DocumentContentEntity.TABLE_NAME +
+            " WHERE " + COLUMN_DOCUMENT_ID + " = :docId")
+    String getDocumentText(long docId);
+
+    /**
+     * Returns the number of characters of the stored text of given document (without its
+     * journal), so its size can be known without loading it.
+     */
+    @Query("SELECT IFNULL(LENGTH(" + COLUMN_TEXT + "), 0) FROM " + DocumentContentEntity.TABLE_NAME +
+            " WHERE " + COLUMN_DOCUMENT_ID + " = :docId")
+    int getTextLength(long docId);
+
+    @Query("SELECT " + COLUMN_ID + " FROM " + TABLE_NAME + " ORDER BY " + COLUMN_LAST_EDITION_TIME +
+            " DESC LIMIT :limit")
+    List<Long> getLastEditedIds(int limit);
+
+    /**
+     * Returns the IDs of the documents edited after given time, in edition order.
+     */
+    @Query("SELECT " + COLUMN_ID + " FROM " + TABLE_NAME + " WHERE " + COLUMN_LAST_EDITION_TIME +
+            " > :time ORDER BY " + COLUMN_LAST_EDITION_TIME)
+    List<Long> getDocumentIdsEditedAfter(long time);
+
+    /**
+     * Returns the IDs of the documents modified (text or metadata) after given time, in
+     * modification order.
+     */
+    @Query("SELECT " + COLUMN_ID + " FROM " + TABLE_NAME + " WHERE " + COLUMN_MODIFICATION_TIME +
+            " > :time ORDER BY " + COLUMN_MODIFICATION_TIME)
+    List<Long> getDocumentIdsModifiedAfter(long time);
+
+    /**
+     * Returns a cursor over the metadata of all documents (METADATA_COLUMNS), so they can be
+     * iterated without loading all of them. It has to be closed.
+     */
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " ORDER BY " + COLUMN_ID)
+    Cursor getAllDocumentsMetadata();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertContent(DocumentContentEntity... contents);
+
+    @Query("UPDATE " + DocumentContentEntity.TABLE_NAME + " SET " + COLUMN_TEXT + " = :text" +
+            " WHERE " + COLUMN_DOCUMENT_ID + " = :docId")
+    void updateText(long docId, String text);
+
+    @Delete
+    void deleteContent(DocumentContentEntity... contents);
+
+    // edit journal, see DocumentEditEntity
+
+    /** Approximated size in bytes of journal row fields that are not the inserted text */
+    int EDIT_ROW_OVERHEAD = 24;
+
+    @Insert
+    void insertEdits(List<DocumentEditEntity> edits);
+
+    @Query("SELECT * FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId ORDER BY " + DocumentEditEntity.COLUMN_ID)
+    List<DocumentEditEntity> getEdits(long docId);
+
+    @Query("SELECT * FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " + DocumentEditEntity.COLUMN_DRAFT +
+            " = 0 ORDER BY " + DocumentEditEntity.COLUMN_ID)
+    List<DocumentEditEntity> getCommittedEdits(long docId);
+
+    @Query("SELECT COUNT(*) FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " + DocumentEditEntity.COLUMN_DRAFT + " = 1")
+    int countDraftEdits(long docId);
+
+    @Query("UPDATE " + DocumentEditEntity.TABLE_NAME + " SET " + DocumentEditEntity.COLUMN_DRAFT + " = 0" +
+            " WHERE " + DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " +
+            DocumentEditEntity.COLUMN_DRAFT + " = 1")
+    void commitDraftEdits(long docId);
+
+    /**
+     * Returns the approximated size in bytes of the journal of given document.
+     */
+    @Query("SELECT IFNULL(SUM(LENGTH(" + DocumentEditEntity.COLUMN_INSERTED + ")), 0) + COUNT(*) * " +
+            EDIT_ROW_OVERHEAD + " FROM " + DocumentEditEntity.TABLE_NAME +
+            " WHERE " + DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId")
+    long getEditsSize(long docId);
+
+    @Query("DELETE FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId")
+    void deleteEdits(long docId);
+
+    /**
+     * Appends the inserted text of the committed edits to the stored text of given document,
+     * in SQL so the text is not loaded in memory. It is only valid for a journal of appended
+     * chunks (a streaming import), committed edits have to be deleted after it.
+     */
+    @Query("UPDATE " + DocumentContentEntity.TABLE_NAME + " SET " + COLUMN_TEXT + " = " +
+            "IFNULL(" + COLUMN_TEXT + ", '') || IFNULL((SELECT GROUP_CONCAT(" + DocumentEditEntity.COLUMN_INSERTED +
+            ", '') FROM (SELECT " + DocumentEditEntity.COLUMN_INSERTED + " FROM " + DocumentEditEntity.TABLE_NAME +
+            " WHERE " + DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " + DocumentEditEntity.COLUMN_DRAFT +
+            " = 0 ORDER BY " + DocumentEditEntity.COLUMN_ID + ")), '') WHERE " + COLUMN_DOCUMENT_ID + " = :docId")
+    void appendCommittedEdits(long docId);
+
+    @Query("DELETE FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " + DocumentEditEntity.COLUMN_DRAFT + " = 0")
+    void deleteCommittedEdits(long docId);
+
+    @Query("DELETE FROM " + DocumentEditEntity.TABLE_NAME + " WHERE " +
+            DocumentEditEntity.COLUMN_DOCUMENT_ID + " = :docId AND " + DocumentEditEntity.COLUMN_DRAFT + " = 1")
+    void deleteDraftEdits(long docId);
+
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = :docId")
     DocumentMetadata getDocumentMetadata(long docId);
 
+    @Query("SELECT " + METADATA_COLUMNS + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " IN (:docIds)")
+    List<DocumentMetadata> getDocumentsMetadata(List<Long> docIds);
+
+    @Query("SELECT " + COLUMN_COVER_IMAGE + " FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = :docId")
+    String getCoverImage(long docId);
+
+    @Query("SELECT DISTINCT " + COLUMN_COVER_IMAGE + " FROM " + TABLE_NAME)
+    List<String> getAllCoverImages();
+
     @Update
     void update(DocumentEntity... documents);
 
+    // targeted updates, they only write given columns
+
+    /**
+     * Updates the metadata fields whose set flag is true and keeps the others (see
+     * MutationBuffer), so merged mutations of a document are written with a single UPDATE.
+     */
+    @Query("UPDATE " + TABLE_NAME + " SET " +
+            COLUMN_NAME + " = CASE WHEN :setName THEN :name ELSE " + COLUMN_NAME + " END, " +
+            COLUMN_FAVORITE + " = CASE WHEN :setFavorite THEN :favorite ELSE " + COLUMN_FAVORITE + " END, " +
+            COLUMN_COVER_COLOR + " = CASE WHEN :setCover THEN :coverColor ELSE " + COLUMN_COVER_COLOR + " END, " +
+            COLUMN_COVER_IMAGE + " = CASE WHEN :setCover THEN :coverImage ELSE " + COLUMN_COVER_IMAGE + " END" +
+            " WHERE " + COLUMN_ID + " = :docId")
+    void updateMetadata(long docId,
+                        boolean setName,
+                        String name,
+                        boolean setFavorite,
+                        boolean favorite,
+                        boolean setCover,
+                        int coverColor,
+                        String coverImage);
+
+    @Query("UPDATE " + TABLE_NAME + " SET " + COLUMN_FAVORITE + " = :favorite" +
+            " WHERE " + COLUMN_ID + " IN (:docIds)")
+    void updateFavorite(List<Long> docIds, boolean favorite);
+
+    /**
+     * Updates edition fields of given document. Working time is added to the stored one.
+     */
+    @Query("UPDATE " + TABLE_NAME + " SET " + COLUMN_WORKING_TIME + " = " + COLUMN_WORKING_TIME +
+            " + :workingTime, " + COLUMN_LAST_EDITION_TIME + " = :lastEditionTime, " +
+            COLUMN_WORDS + " = :words WHERE " + COLUMN_ID + " = :docId")
+    void updateEdition(long docId, long workingTime, long lastEditionTime, int words);
+
+    @Query("UPDATE " + TABLE_NAME + " SET " + COLUMN_WORDS + " = :words WHERE " + COLUMN_ID + " = :docId")
+    void updateWords(long docId, int words);
+
     @Delete
     void delete(DocumentEntity... documents);
 
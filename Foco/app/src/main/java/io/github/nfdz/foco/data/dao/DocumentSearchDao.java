@@ -0,0 +1,185 @@
+package io.github.nfdz.foco.data.dao;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.entity.DocumentMetadata;
+
+/**
+ * This class performs full-text searches over documents name and text. Room cannot verify
+ * queries of virtual tables so it works with raw cursors over the FTS4 index that is created
+ * and kept in sync by AppDatabase (triggers of stored text) and by journal saves (see
+ * updateIndexedText).
+ * All methods have to be called in a background thread.
+ */
+public class DocumentSearchDao {
+
+    /** Snippet highlight marks, they are control characters so they cannot clash with text */
+    public static final char SNIPPET_START = '\u0002';
+    public static final char SNIPPET_END = '\u0003';
+
+    private static final String SNIPPET_ELLIPSIS = "…";
+    private static final int SNIPPET_TOKENS = 12;
+
+    /** Relevance weight of each indexed column (name, text) */
+    private static final double[] COLUMN_WEIGHTS = { 10.0, 1.0 };
+
+    private static final String RANK_QUERY = "SELECT docid, matchinfo(documents_fts, 'pcnx') " +
+            "FROM documents_fts WHERE documents_fts MATCH ?";
+
+    private static final String UPDATE_TEXT = "UPDATE documents_fts SET text = ? WHERE docid = ?";
+
+    private static final String SNIPPET_QUERY = "SELECT docid, snippet(documents_fts, ?, ?, ?, -1, " +
+            SNIPPET_TOKENS + ") FROM documents_fts WHERE documents_fts MATCH ? AND docid IN (%s)";
+
+    /**
+     * Inner class that defines a search match and its relevance.
+     */
+    private static class ScoredMatch {
+        final long docId;
+        final double score;
+        ScoredMatch(long docId, double score) {
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    private final AppDatabase mDb;
+
+    public DocumentSearchDao(AppDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Searches documents that contain all words of given text (as word prefixes) in their name
+     * or text. Results are sorted by relevance and each one has got a snippet of the match.
+     * @param text user input
+     * @param limit maximum number of results
+     * @return ranked documents metadata (never null)
+     */
+    public List<DocumentMetadata> search(String text, int limit) {
+        String match = buildMatchQuery(text);
+        if (match == null) return Collections.emptyList();
+
+        // rank all matches with the index statistics and keep the best ones
+        List<ScoredMatch> ranked = new ArrayList<>();
+        Cursor cursor = mDb.getOpenHelper().getReadableDatabase().query(RANK_QUERY, new Object[] { match });
+        try {
+            while (cursor.moveToNext()) {
+                ranked.add(new ScoredMatch(cursor.getLong(0), computeScore(cursor.getBlob(1))));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (ranked.isEmpty()) return Collections.emptyList();
+        Collections.sort(ranked, new Comparator<ScoredMatch>() {
+            @Override
+            public int compare(ScoredMatch a, ScoredMatch b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+        if (ranked.size() > limit) ranked = ranked.subList(0, limit);
+
+        List<Long> docIds = new ArrayList<>(ranked.size());
+        for (ScoredMatch scoredMatch : ranked) {
+            docIds.add(scoredMatch.docId);
+        }
+        LongSparseArray<DocumentMetadata> docs = new LongSparseArray<>(docIds.size());
+        for (DocumentMetadata doc : mDb.documentDao().getDocumentsMetadata(docIds)) {
+            docs.put(doc.id, doc);
+        }
+        loadSnippets(match, docIds, docs);
+
+        List<DocumentMetadata> result = new ArrayList<>(docIds.size());
+        for (Long docId : docIds) {
+            DocumentMetadata doc = docs.get(docId);
+            if (doc != null) result.add(doc);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the indexed text of given document. Journal saves do not change stored text so
+     * triggers do not update the index, the writer has to call this method with the full text.
+     * @param docId
+     * @param text current text of the document (stored text with its journal applied)
+     */
+    public void updateIndexedText(long docId, String text) {
+        mDb.getOpenHelper().getWritableDatabase().execSQL(UPDATE_TEXT, new Object[] { text, docId });
+    }
+
+    private void loadSnippets(String match, List<Long> docIds, LongSparseArray<DocumentMetadata> docs) {
+        String[] placeholders = new String[docIds.size()];
+        Arrays.fill(placeholders, "?");
+        Object[] args = new Object[4 + docIds.size()];
+        args[0] = String.valueOf(SNIPPET_START);
+        args[1] = String.valueOf(SNIPPET_END);
+        args[2] = SNIPPET_ELLIPSIS;
+        args[3] = match;
+        for (int i = 0; i < docIds.size(); i++) {
+            args[4 + i] = docIds.get(i);
+        }
+        String query = String.format(SNIPPET_QUERY, TextUtils.join(",", placeholders));
+        Cursor cursor = mDb.getOpenHelper().getReadableDatabase().query(query, args);
+        try {
+            while (cursor.moveToNext()) {
+                DocumentMetadata doc = docs.get(cursor.getLong(0));
+                if (doc != null) doc.snippet = cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Computes a tf-idf relevance score with the output of matchinfo 'pcnx'.
+     * @param matchInfo blob of 32 bit unsigned integers in machine byte order
+     * @return score
+     */
+    private static double computeScore(byte[] matchInfo) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        int rows = buffer.getInt(8);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int index = 12 + 12 * (phrase * columns + column);
+                int rowHits = buffer.getInt(index);
+                int docsWithHits = buffer.getInt(index + 8);
+                if (rowHits > 0 && docsWithHits > 0) {
+                    double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * rowHits * Math.log(1.0 + (double) rows / docsWithHits);
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Converts user input into a FTS match expression. Every word is quoted (so operators
+     * and special characters are not interpreted) and it is matched as a prefix.
+     * @param text
+     * @return match expression or null if there is not any word
+     */
+    static String buildMatchQuery(String text) {
+        if (text == null) return null;
+        StringBuilder bld = new StringBuilder();
+        for (String word : text.replace('"', ' ').trim().split("\\s+")) {
+            if (word.isEmpty()) continue;
+            if (bld.length() > 0) bld.append(' ');
+            bld.append('"').append(word).append("*\"");
+        }
+        return bld.length() > 0 ? bld.toString() : null;
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.nfdz.foco.data.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+import io.github.nfdz.foco.model.Document;
+
+import static io.github.nfdz.foco.data.entity.DocumentContentEntity.TABLE_NAME;
+
+/**
+ * This POJO class defines the document body to be stored in database. It lives in its own table
+ * (keyed by document ID) so metadata reads and writes never touch text pages.
+ */
+@Entity(tableName = TABLE_NAME)
+public class DocumentContentEntity {
+
+    public static final String TABLE_NAME = "documents_content";
+
+    public static final String COLUMN_DOCUMENT_ID = "document_id";
+
+    public static final String COLUMN_TEXT = "text";
+
+    @PrimaryKey
+    @ColumnInfo(name = COLUMN_DOCUMENT_ID)
+    public long documentId;
+
+    @ColumnInfo(name = COLUMN_TEXT)
+    public String text = Document.NULL_TEXT;
+
+    /** Default constructor */
+    public DocumentContentEntity() {
+    }
+
+    /**
+     * This constructor sets given document ID and text.
+     * @param docId
+     * @param docText
+     */
+    public DocumentContentEntity(long docId, String docText) {
+        this.documentId = docId;
+        this.text = docText;
+    }
+
+}
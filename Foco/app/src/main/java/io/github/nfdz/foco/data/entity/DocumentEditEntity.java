@@ -0,0 +1,75 @@
+package io.github.nfdz.foco.data.entity;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+import static io.github.nfdz.foco.data.entity.DocumentEditEntity.COLUMN_DOCUMENT_ID;
+import static io.github.nfdz.foco.data.entity.DocumentEditEntity.TABLE_NAME;
+
+/**
+ * This POJO class defines an entry of the append-only edit journal of a document. Each edit
+ * replaces a range of the text with other text, so the current text of a document is its stored
+ * text with all its edits applied in ID order (see EditJournalUtils).
+ * Draft edits are written by autosave, they are committed by the next save or discarded if the
+ * user closes the editor without saving. They always follow committed edits in ID order.
+ */
+@Entity(tableName = TABLE_NAME, indices = { @Index(COLUMN_DOCUMENT_ID) })
+public class DocumentEditEntity {
+
+    public static final String TABLE_NAME = "documents_edits";
+
+    /** Removed length value of an edit that replaces the whole text */
+    public static final int REMOVE_ALL = -1;
+
+    public static final String COLUMN_ID = "_id";
+
+    public static final String COLUMN_DOCUMENT_ID = "document_id";
+
+    public static final String COLUMN_START = "start";
+
+    public static final String COLUMN_REMOVED = "removed";
+
+    public static final String COLUMN_INSERTED = "inserted";
+
+    public static final String COLUMN_DRAFT = "draft";
+
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = COLUMN_ID)
+    public long id;
+
+    @ColumnInfo(name = COLUMN_DOCUMENT_ID)
+    public long documentId;
+
+    @ColumnInfo(name = COLUMN_START)
+    public int start;
+
+    @ColumnInfo(name = COLUMN_REMOVED)
+    public int removed;
+
+    @ColumnInfo(name = COLUMN_INSERTED)
+    public String inserted = "";
+
+    @ColumnInfo(name = COLUMN_DRAFT)
+    public boolean draft;
+
+    /** Default constructor */
+    public DocumentEditEntity() {
+    }
+
+    /**
+     * This constructor sets given edit fields.
+     * @param docId
+     * @param editStart position of the first replaced character
+     * @param removedLength number of replaced characters or REMOVE_ALL
+     * @param insertedText
+     */
+    public DocumentEditEntity(long docId, int editStart, int removedLength, String insertedText) {
+        this.documentId = docId;
+        this.start = editStart;
+        this.removed = removedLength;
+        this.inserted = insertedText;
+    }
+
+}
@@ -2,6 +2,7 @@ package io.github.nfdz.foco.data.entity;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Ignore;
 import android.arch.persistence.room.PrimaryKey;
 import android.provider.BaseColumns;
 
@@ -11,6 +12,9 @@ import static io.github.nfdz.foco.data.entity.DocumentEntity.TABLE_NAME;
 
 /**
  * This Document implementation POJO class defines document fields to be stored in database.
+ * The text is not stored in this table, it is stored in DocumentContentEntity table.
+ * Indexes that match sort criteria of documents grid are created by AppDatabase because Room
+ * cannot declare index collations neither directions.
  */
 @Entity(tableName = TABLE_NAME)
 public class DocumentEntity implements Document {
@@ -25,8 +29,6 @@ public class DocumentEntity implements Document {
 
     public static final String COLUMN_LAST_EDITION_TIME = "last_edition_time";
 
-    public static final String COLUMN_TEXT = "text";
-
     public static final String COLUMN_WORDS = "words";
 
     public static final String COLUMN_FAVORITE = "favorite";
@@ -35,6 +37,8 @@ public class DocumentEntity implements Document {
 
     public static final String COLUMN_COVER_IMAGE = "cover_image";
 
+    public static final String COLUMN_MODIFICATION_TIME = "modification_time";
+
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(index = true, name = COLUMN_ID)
     public long id;
@@ -48,7 +52,8 @@ public class DocumentEntity implements Document {
     @ColumnInfo(name = COLUMN_LAST_EDITION_TIME)
     public long lastEditionTime = Document.NULL_LAST_EDITION_TIME;
 
-    @ColumnInfo(name = COLUMN_TEXT)
+    /** Transient field, the text is stored in DocumentContentEntity table */
+    @Ignore
     public String text = Document.NULL_TEXT;
 
     @ColumnInfo(name = COLUMN_WORDS)
@@ -63,6 +68,13 @@ public class DocumentEntity implements Document {
     @ColumnInfo(name = COLUMN_COVER_IMAGE)
     public String coverImage = Document.NULL_COVER_IMAGE;
 
+    /**
+     * Time of the last change of the document, its text or its metadata. It is set by database
+     * triggers (see AppDatabase), so any written value is replaced.
+     */
+    @ColumnInfo(name = COLUMN_MODIFICATION_TIME)
+    public long modificationTime;
+
     /** Default constructor */
     public DocumentEntity() {
     }
@@ -1,6 +1,7 @@
 package io.github.nfdz.foco.data.entity;
 
 import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Ignore;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -40,6 +41,29 @@ public class DocumentMetadata implements Parcelable, Document {
     @ColumnInfo(name = DocumentEntity.COLUMN_COVER_IMAGE)
     public String coverImage = Document.NULL_COVER_IMAGE;
 
+    /**
+     * Fragment of the document that matches a full-text search (see DocumentSearchDao).
+     * It is only set in search results and it is not parceled.
+     */
+    @Ignore
+    public String snippet;
+
+    /**
+     * Two metadata instances are equal if they have the same ID, so documents are identified
+     * regardless of the page (or query) that loaded them.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return id == ((DocumentMetadata) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+
     @Override
     public int describeContents() {
         return 0;
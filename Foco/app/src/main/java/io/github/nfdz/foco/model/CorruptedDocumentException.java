@@ -0,0 +1,14 @@
+package io.github.nfdz.foco.model;
+
+/**
+ * Serialization exception of a document in a known format that cannot be read (for example a
+ * version 2 document with a corrupted header), so it is not an external text file.
+ */
+public class CorruptedDocumentException extends SerializationException {
+
+    static final long serialVersionUID = 1L;
+
+    public CorruptedDocumentException() {
+        super();
+    }
+}
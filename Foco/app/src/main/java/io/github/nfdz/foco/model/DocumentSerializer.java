@@ -1,18 +1,83 @@
 package io.github.nfdz.foco.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
 import timber.log.Timber;
 
 /**
  * Document String serializer static class.
+ * There are two formats:
+ * - Version 1 is plain text: metadata lines between separators followed by the text.
+ * - Version 2 is a binary container: magic number, version, flags, length-prefixed header with
+ * tagged metadata fields and its CRC, and the UTF-8 text as body (deflate-compressed if flag
+ * is set). The header includes the length and CRC of the text, so the body is verified while
+ * it is read. Metadata can be read without reading the body.
  */
 public class DocumentSerializer {
 
+    public static final int FORMAT_V1 = 1;
+    public static final int FORMAT_V2 = 2;
+
+    /** First bytes of version 2 documents, the first one is not valid text */
+    private static final byte[] MAGIC = { (byte) 0x89, 'F', 'O', 'C' };
+
+    private static final int FLAG_DEFLATE = 1;
+
+    /** Texts with more characters than this are compressed in version 2 documents */
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    /** Maximum length in bytes of a version 2 header, a longer one means that it is corrupted */
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    // version 2 header field tags, unknown tags are skipped
+    private static final int TAG_NAME = 1;
+    private static final int TAG_WORKING_TIME = 2;
+    private static final int TAG_LAST_EDITION_TIME = 3;
+    private static final int TAG_FAVORITE = 4;
+    private static final int TAG_COVER_COLOR = 5;
+    private static final int TAG_COVER_IMAGE = 6;
+    private static final int TAG_WORDS = 7;
+    private static final int TAG_TEXT_BYTES = 8;
+    private static final int TAG_TEXT_CRC = 9;
+
+    private static final String CHARSET = "UTF-8";
+
     /** Readable friendly metadata separator (to be placed before and after metadata) */
     private static final String METADATA_SEPARATOR = "--- DOCUMENT METADATA ---";
 
     /** Number of lines that uses metadata */
     private static final int METADATA_LINES = 9;
 
+    /** Size of the buffers used to read text */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Maximum length of a metadata line, a longer line means that it is not a document */
+    private static final int MAX_METADATA_LINE_LENGTH = 4096;
+
     /**
      * Inner static class Document implementation.
      */
@@ -25,6 +90,7 @@ public class DocumentSerializer {
         public boolean favorite = false;
         public int coverColor = Document.NULL_COVER_COLOR;
         public String coverImage = Document.NULL_COVER_IMAGE;
+        public int words = Document.NULL_WORDS;
 
         @Override
         public String getName() {
@@ -55,12 +121,12 @@ public class DocumentSerializer {
             return coverImage;
         }
         /**
-         * This field is not stored in exported documents (it could be computed with text).
-         * @return Document.NULL_WORDS
+         * This field is only stored in version 2 documents (it could be computed with text).
+         * @return words or Document.NULL_WORDS
          */
         @Override
         public int getWords() {
-            return Document.NULL_WORDS;
+            return words;
         }
         /**
          * This field is not stored in exported documents (it depends of each database).
@@ -73,21 +139,187 @@ public class DocumentSerializer {
     }
 
     /**
-     * Deserializes given document.
+     * Deserializes given document. It is a wrapper of deserialize(Reader).
      * @param serializedDoc
      * @return Document (it is not have words field)
      * @throws SerializationException
      */
     public static Document deserializeDocument(String serializedDoc) throws SerializationException {
+        try {
+            return deserialize(new StringReader(serializedDoc));
+        } catch (IOException e) {
+            // a string reader does not throw it
+            throw new IllegalStateException(e);
+        }
+    }
 
-        DocumentImpl result  = new DocumentImpl();
+    /**
+     * Deserializes the document read from given reader. The text is read in chunks, so the only
+     * memory allocated besides a fixed buffer is the text itself.
+     * @param reader
+     * @return Document (it is not have words field)
+     * @throws IOException
+     * @throws SerializationException
+     */
+    public static Document deserialize(Reader reader) throws IOException, SerializationException {
+        Reader in = reader instanceof BufferedReader ? reader : new BufferedReader(reader, BUFFER_SIZE);
+        DocumentImpl result = deserializeMetadata(in);
+        result.text = readText(new TextReader(in));
+        return result;
+    }
 
-        String[] lines = serializedDoc.split("\\r?\\n", -1);
-        if (lines == null || lines.length < METADATA_LINES) {
-            Timber.e("There is an error with metadata lines in serialized document: " + serializedDoc);
-            throw new SerializationException();
+    /**
+     * Deserializes the document read from given stream in any format (see open).
+     * @param in
+     * @return Document (it has words field if it is a version 2 document)
+     * @throws IOException if it can not be read or its text is corrupted
+     * @throws SerializationException
+     */
+    public static Document deserialize(InputStream in) throws IOException, SerializationException {
+        DocumentInput input = open(in);
+        input.metadata.text = readText(input.text);
+        return input.metadata;
+    }
+
+    private static String readText(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Inner static class that defines an opened serialized document. Its metadata has been
+     * read and its text can be streamed.
+     */
+    public static class DocumentInput {
+        public final int format;
+        public final DocumentImpl metadata;
+        /** Reader of the text. Reading a version 2 text fails if it does not match its CRC. */
+        public final Reader text;
+        DocumentInput(int format, DocumentImpl metadata, Reader text) {
+            this.format = format;
+            this.metadata = metadata;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Opens the document read from given stream. Its format is detected by its first bytes and
+     * only the metadata is read, so the stream is left at the start of the text.
+     * @param in
+     * @return DocumentInput
+     * @throws IOException
+     * @throws SerializationException if it is not a document in a known format
+     * @throws CorruptedDocumentException if it is a version 2 document that cannot be read
+     */
+    public static DocumentInput open(InputStream in) throws IOException, SerializationException {
+        InputStream input = in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        input.mark(MAGIC.length);
+        if (readMagic(input)) return openV2(input);
+        input.reset();
+        Reader reader = new BufferedReader(new InputStreamReader(input, CHARSET), BUFFER_SIZE);
+        DocumentImpl metadata = deserializeMetadata(reader);
+        return new DocumentInput(FORMAT_V1, metadata, new TextReader(reader));
+    }
+
+    private static boolean readMagic(InputStream in) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.read() != (b & 0xff)) return false;
         }
+        return true;
+    }
 
+    private static DocumentInput openV2(InputStream in) throws IOException, SerializationException {
+        DataInputStream data = new DataInputStream(in);
+        int version;
+        int flags;
+        byte[] header;
+        try {
+            version = data.readUnsignedByte();
+            flags = data.readUnsignedByte();
+            int headerLength = data.readInt();
+            if (version != FORMAT_V2 || (flags & ~FLAG_DEFLATE) != 0 ||
+                    headerLength < 0 || headerLength > MAX_HEADER_LENGTH) {
+                Timber.e("Unsupported serialized document version=" + version + " flags=" + flags);
+                throw new CorruptedDocumentException();
+            }
+            header = new byte[headerLength];
+            data.readFully(header);
+            CRC32 crc = new CRC32();
+            crc.update(header, 0, header.length);
+            if ((int) crc.getValue() != data.readInt()) {
+                Timber.e("There is a CRC error in the header of serialized document");
+                throw new CorruptedDocumentException();
+            }
+        } catch (EOFException e) {
+            Timber.e(e, "Serialized document is truncated in its header");
+            throw new CorruptedDocumentException();
+        }
+
+        DocumentImpl metadata = new DocumentImpl();
+        long textBytes = -1;
+        int textCrc = 0;
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(header));
+        try {
+            while (fields.available() > 0) {
+                int tag = fields.readUnsignedByte();
+                int length = fields.readInt();
+                if (length < 0 || length > fields.available()) throw new EOFException();
+                byte[] bytes = new byte[length];
+                fields.readFully(bytes);
+                DataInputStream value = new DataInputStream(new ByteArrayInputStream(bytes));
+                switch (tag) {
+                    case TAG_NAME:
+                        metadata.name = new String(bytes, CHARSET);
+                        break;
+                    case TAG_WORKING_TIME:
+                        metadata.workingTime = value.readLong();
+                        break;
+                    case TAG_LAST_EDITION_TIME:
+                        metadata.lastEditionTime = value.readLong();
+                        break;
+                    case TAG_FAVORITE:
+                        metadata.favorite = value.readBoolean();
+                        break;
+                    case TAG_COVER_COLOR:
+                        metadata.coverColor = value.readInt();
+                        break;
+                    case TAG_COVER_IMAGE:
+                        metadata.coverImage = new String(bytes, CHARSET);
+                        break;
+                    case TAG_WORDS:
+                        metadata.words = value.readInt();
+                        break;
+                    case TAG_TEXT_BYTES:
+                        textBytes = value.readLong();
+                        break;
+                    case TAG_TEXT_CRC:
+                        textCrc = value.readInt();
+                        break;
+                    default:
+                        // field of a newer version
+                        break;
+                }
+            }
+        } catch (EOFException e) {
+            Timber.e(e, "There is an error with metadata fields in serialized document");
+            throw new CorruptedDocumentException();
+        }
+        if (textBytes < 0) {
+            Timber.e("There is not text length in serialized document");
+            throw new CorruptedDocumentException();
+        }
+
+        boolean deflated = (flags & FLAG_DEFLATE) != 0;
+        Reader text = new InputStreamReader(new BodyInputStream(in, deflated, textBytes, textCrc), CHARSET);
+        return new DocumentInput(FORMAT_V2, metadata, text);
+    }
+
+    private static void parseMetadata(String[] lines, DocumentImpl result) throws SerializationException {
         try {
             result.name = lines[1];
             result.workingTime = Long.parseLong(lines[2]);
@@ -95,49 +327,403 @@ public class DocumentSerializer {
             result.favorite = Boolean.parseBoolean(lines[4]);
             result.coverColor = Integer.parseInt(lines[5]);
             result.coverImage = lines[6];
-            result.text = joinLines(lines, METADATA_LINES);
-
-            return result;
         } catch (NumberFormatException ex) {
             Timber.e(ex, "There is an error parsing metadata in serialized document");
             throw new SerializationException();
         }
     }
 
-    private static String joinLines(String[] lines, int start) {
-        StringBuilder bld = new StringBuilder();
-        for (int i = start; i < lines.length; i++) {
-            bld.append(lines[i]);
-            if (i + 1 < lines.length) {
-                bld.append('\n');
+    /**
+     * Deserializes the metadata of a document reading only its metadata lines, so the reader is
+     * left at the start of the text and it can be streamed (see TextReader).
+     * @param reader it should be buffered because it is read char by char
+     * @return Document without text
+     * @throws IOException
+     * @throws SerializationException
+     */
+    public static DocumentImpl deserializeMetadata(Reader reader) throws IOException, SerializationException {
+        DocumentImpl result = new DocumentImpl();
+        String[] lines = new String[METADATA_LINES];
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < METADATA_LINES; i++) {
+            // the last metadata line is blank and it could be the end of a document without text
+            if (!readMetadataLine(reader, line) && i < METADATA_LINES - 1) {
+                Timber.e("There is an error with metadata lines in serialized document");
+                throw new SerializationException();
+            }
+            lines[i] = line.toString();
+        }
+        parseMetadata(lines, result);
+        return result;
+    }
+
+    /**
+     * This method reads a line without its line break.
+     * @param reader
+     * @param line where the line is written
+     * @return true if the line ends with a line break, false if it ends with the input
+     * @throws IOException
+     * @throws SerializationException if it is too long to be a metadata line
+     */
+    private static boolean readMetadataLine(Reader reader, StringBuilder line)
+            throws IOException, SerializationException {
+        line.setLength(0);
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n') {
+                int last = line.length() - 1;
+                if (last >= 0 && line.charAt(last) == '\r') line.setLength(last);
+                return true;
+            }
+            if (line.length() == MAX_METADATA_LINE_LENGTH) {
+                Timber.e("There is a too long metadata line in serialized document");
+                throw new SerializationException();
+            }
+            line.append((char) c);
+        }
+        return false;
+    }
+
+    /**
+     * Reader of the text of a serialized document. It replaces \r\n line breaks with \n as
+     * deserializeDocument does.
+     */
+    public static class TextReader extends FilterReader {
+
+        private final PushbackReader mIn;
+
+        public TextReader(Reader reader) {
+            this(new PushbackReader(reader, 1));
+        }
+
+        private TextReader(PushbackReader reader) {
+            super(reader);
+            mIn = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = mIn.read();
+            if (c == '\r') {
+                int next = mIn.read();
+                if (next == '\n') return next;
+                if (next != -1) mIn.unread(next);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = mIn.read(buffer, offset, length);
+            if (count <= 0) return count;
+            int end = offset + count;
+            int out = offset;
+            for (int i = offset; i < end; i++) {
+                if (buffer[i] == '\r' && i + 1 < end && buffer[i + 1] == '\n') continue;
+                buffer[out++] = buffer[i];
+            }
+            // a carriage return at the end could be followed by a line feed that is not read yet
+            if (buffer[out - 1] == '\r') {
+                int next = mIn.read();
+                if (next == '\n') {
+                    buffer[out - 1] = '\n';
+                } else if (next != -1) {
+                    mIn.unread(next);
+                }
+            }
+            return out - offset;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            char[] buffer = new char[(int) Math.min(n, 1024)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (count == -1) break;
+                skipped += count;
             }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
         }
-        return bld.toString();
     }
 
     /**
-     * Serializes given document.
+     * Serializes given document. It is a wrapper of serialize(Document, Writer).
      * @param document
      * @return String
      */
     public static String serializeDocument(Document document) {
-        StringBuilder bld = new StringBuilder();
+        StringWriter writer = new StringWriter();
+        try {
+            serialize(document, writer);
+        } catch (IOException e) {
+            // a string writer does not throw it
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Serializes given document in given format writing it to given stream. The text is encoded
+     * while it is written, without a serialized copy. The stream is flushed but not closed.
+     * @param document
+     * @param out
+     * @param format FORMAT_V1 or FORMAT_V2
+     * @throws IOException
+     */
+    public static void serialize(Document document, OutputStream out, int format) throws IOException {
+        if (format == FORMAT_V1) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET), BUFFER_SIZE);
+            serialize(document, writer);
+            writer.flush();
+            return;
+        }
+
+        // text is encoded twice (first to know its length and CRC) instead of keeping it encoded
+        String text = String.valueOf(document.getText());
+        DigestOutputStream digest = new DigestOutputStream();
+        writeText(text, digest);
+        boolean compress = text.length() > COMPRESSION_THRESHOLD;
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        if (document.getName() != null) {
+            writeField(header, TAG_NAME, document.getName().getBytes(CHARSET));
+        }
+        header.writeByte(TAG_WORKING_TIME);
+        header.writeInt(8);
+        header.writeLong(document.getWorkingTimeMillis());
+        header.writeByte(TAG_LAST_EDITION_TIME);
+        header.writeInt(8);
+        header.writeLong(document.getLastEditionTimeMillis());
+        header.writeByte(TAG_FAVORITE);
+        header.writeInt(1);
+        header.writeBoolean(document.isFavorite());
+        header.writeByte(TAG_COVER_COLOR);
+        header.writeInt(4);
+        header.writeInt(document.getCoverColor());
+        if (document.getCoverImage() != null) {
+            writeField(header, TAG_COVER_IMAGE, document.getCoverImage().getBytes(CHARSET));
+        }
+        header.writeByte(TAG_WORDS);
+        header.writeInt(4);
+        header.writeInt(document.getWords());
+        header.writeByte(TAG_TEXT_BYTES);
+        header.writeInt(8);
+        header.writeLong(digest.getCount());
+        header.writeByte(TAG_TEXT_CRC);
+        header.writeInt(4);
+        header.writeInt(digest.getCrc());
+        header.flush();
+
+        // everything before the body is written at once
+        byte[] headerArray = headerBytes.toByteArray();
+        CRC32 headerCrc = new CRC32();
+        headerCrc.update(headerArray, 0, headerArray.length);
+        ByteArrayOutputStream prefixBytes = new ByteArrayOutputStream(headerArray.length + 16);
+        DataOutputStream prefix = new DataOutputStream(prefixBytes);
+        prefix.write(MAGIC);
+        prefix.writeByte(FORMAT_V2);
+        prefix.writeByte(compress ? FLAG_DEFLATE : 0);
+        prefix.writeInt(headerArray.length);
+        prefix.write(headerArray);
+        prefix.writeInt((int) headerCrc.getValue());
+        prefix.flush();
+        prefixBytes.writeTo(out);
+
+        if (compress) {
+            Deflater deflater = new Deflater();
+            try {
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                writeText(text, deflaterOut);
+                deflaterOut.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            writeText(text, out);
+        }
+        out.flush();
+    }
 
+    private static void writeField(DataOutputStream header, int tag, byte[] value) throws IOException {
+        header.writeByte(tag);
+        header.writeInt(value.length);
+        header.write(value);
+    }
+
+    private static void writeText(String text, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, CHARSET), BUFFER_SIZE);
+        writer.write(text);
+        writer.flush();
+    }
+
+    /**
+     * Output stream that discards written bytes computing their number and CRC.
+     */
+    private static class DigestOutputStream extends OutputStream {
+
+        private final CRC32 mCrc = new CRC32();
+        private long mCount = 0;
+
+        long getCount() {
+            return mCount;
+        }
+
+        int getCrc() {
+            return (int) mCrc.getValue();
+        }
+
+        @Override
+        public void write(int b) {
+            mCrc.update(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            mCrc.update(buffer, offset, length);
+            mCount += length;
+        }
+    }
+
+    /**
+     * Input stream of the body of a version 2 document. It reads the number of bytes of the text
+     * and it fails if they do not match its CRC. A deflated body is inflated from its first read
+     * (the native memory of the inflater is only allocated if the text is read) and the inflater
+     * is ended when the whole text has been read or the stream is closed.
+     */
+    private static class BodyInputStream extends FilterInputStream {
+
+        private final boolean mDeflated;
+        private final int mExpectedCrc;
+        private final CRC32 mCrc = new CRC32();
+        private long mRemaining;
+        private Inflater mInflater;
+        private InputStream mBody;
+
+        BodyInputStream(InputStream in, boolean deflated, long length, int crc) {
+            super(in);
+            mDeflated = deflated;
+            mRemaining = length;
+            mExpectedCrc = crc;
+        }
+
+        private InputStream getBody() {
+            if (mBody == null) {
+                if (mDeflated) {
+                    mInflater = new Inflater();
+                    mBody = new InflaterInputStream(in, mInflater, BUFFER_SIZE);
+                } else {
+                    mBody = in;
+                }
+            }
+            return mBody;
+        }
+
+        private void endInflater() {
+            if (mInflater != null) {
+                mInflater.end();
+                mInflater = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (mRemaining == 0) {
+                verify();
+                return -1;
+            }
+            int count = getBody().read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (count == -1) throw new EOFException("Document text is truncated");
+            mCrc.update(buffer, offset, count);
+            mRemaining -= count;
+            if (mRemaining == 0) {
+                endInflater();
+                verify();
+            }
+            return count;
+        }
+
+        private void verify() throws IOException {
+            if ((int) mCrc.getValue() != mExpectedCrc) {
+                throw new IOException("Document text does not match its CRC");
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes have to be read to compute the CRC
+            byte[] buffer = new byte[(int) Math.min(n, 1024)];
+            long skipped = 0;
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (count == -1) break;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (mRemaining == 0) return 0;
+            return (int) Math.min(getBody().available(), mRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            endInflater();
+        }
+    }
+
+    /**
+     * Serializes given document writing it directly to given writer, so no intermediate copy is
+     * built. The writer is not flushed neither closed.
+     * @param document
+     * @param writer
+     * @throws IOException
+     */
+    public static void serialize(Document document, Writer writer) throws IOException {
         // metadata
-        bld.append(METADATA_SEPARATOR).append('\n');
+        writer.write(METADATA_SEPARATOR);
+        writer.write('\n');
 
-        bld.append(document.getName()).append('\n');
-        bld.append(Long.toString(document.getWorkingTimeMillis())).append('\n');
-        bld.append(Long.toString(document.getLastEditionTimeMillis())).append('\n');
-        bld.append(Boolean.toString(document.isFavorite())).append('\n');
-        bld.append(Integer.toString(document.getCoverColor())).append('\n');
-        bld.append(document.getCoverImage()).append('\n');
+        writer.write(String.valueOf(document.getName()));
+        writer.write('\n');
+        writer.write(Long.toString(document.getWorkingTimeMillis()));
+        writer.write('\n');
+        writer.write(Long.toString(document.getLastEditionTimeMillis()));
+        writer.write('\n');
+        writer.write(Boolean.toString(document.isFavorite()));
+        writer.write('\n');
+        writer.write(Integer.toString(document.getCoverColor()));
+        writer.write('\n');
+        writer.write(String.valueOf(document.getCoverImage()));
+        writer.write('\n');
 
-        bld.append(METADATA_SEPARATOR).append('\n').append('\n');
+        writer.write(METADATA_SEPARATOR);
+        writer.write('\n');
+        writer.write('\n');
 
         // text
-        bld.append(document.getText());
-
-        return bld.toString();
+        writer.write(String.valueOf(document.getText()));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package io.github.nfdz.foco.services;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.support.annotation.Nullable;
+
+import io.github.nfdz.foco.utils.BackupUtils;
+
+/**
+ * This class is an intent service that backs up the documents edited since the last backup
+ * (see BackupUtils). It is started by the daily alarm or by the user, and backups never run
+ * concurrently because intents are handled one by one.
+ */
+public class BackupService extends IntentService {
+
+    public BackupService() {
+        super("BackupService");
+    }
+
+    @Override
+    protected void onHandleIntent(@Nullable Intent intent) {
+        BackupUtils.backup(this);
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.nfdz.foco.services;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.support.annotation.Nullable;
+
+import io.github.nfdz.foco.data.PreferencesUtils;
+import io.github.nfdz.foco.utils.TasksUtils;
+import io.github.nfdz.foco.utils.WordCountUtils;
+
+/**
+ * This class is an intent service that counts again the words of stored documents when the
+ * counting rules have changed (see WordCountUtils.VERSION). It runs once, if it does not finish
+ * it is started again the next time the app is launched.
+ */
+public class WordCountService extends IntentService {
+
+    public WordCountService() {
+        super("WordCountService");
+    }
+
+    @Override
+    protected void onHandleIntent(@Nullable Intent intent) {
+        if (PreferencesUtils.getWordCountVersion(this) >= WordCountUtils.VERSION) return;
+        if (TasksUtils.recountWords(this)) {
+            PreferencesUtils.setWordCountVersion(this, WordCountUtils.VERSION);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package io.github.nfdz.foco.ui;
+
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import br.tiagohm.markdownview.MarkdownView;
+import io.github.nfdz.foco.utils.MarkdownBlockUtils;
+import timber.log.Timber;
+
+/**
+ * This class is a markdown view that shows texts rendered by blocks (see MarkdownBlockUtils).
+ * When the shown text changes, the blocks that have changed are replaced in the DOM of the page
+ * by JavaScript instead of loading the whole page again. Every block is a div with an unique ID
+ * inside a container div.
+ */
+public class BlockMarkdownView extends MarkdownView {
+
+    private static final String BLOCKS_ID = "foco-blocks";
+    private static final String BLOCK_ID_PREFIX = "foco-block-";
+
+    /**
+     * Functions of the page. One replaces blocks (code of new blocks is highlighted) and the
+     * other one scrolls to a block.
+     */
+    private static final String PATCH_FUNCTION = "function focoPatch(removed, beforeId, ids, htmls) {" +
+            "var parent = document.getElementById('" + BLOCKS_ID + "');" +
+            "for (var i = 0; i < removed.length; i++) {" +
+            "var old = document.getElementById(removed[i]);" +
+            "if (old) parent.removeChild(old);" +
+            "}" +
+            "var before = beforeId ? document.getElementById(beforeId) : null;" +
+            "for (var i = 0; i < ids.length; i++) {" +
+            "var block = document.createElement('div');" +
+            "block.id = ids[i];" +
+            "block.innerHTML = htmls[i];" +
+            "parent.insertBefore(block, before);" +
+            "if (window.hljs) {" +
+            "var codes = block.querySelectorAll('pre code');" +
+            "for (var j = 0; j < codes.length; j++) hljs.highlightBlock(codes[j]);" +
+            "}" +
+            "}" +
+            "}" +
+            "function focoScrollTo(id) {" +
+            "var block = document.getElementById(id);" +
+            "if (block) window.scrollTo(0, block.offsetTop);" +
+            "}";
+
+    /** Last text passed to show */
+    private MarkdownBlockUtils.Rendered mRequested;
+    /** Text that is in the DOM of the page (or it is being loaded) */
+    private MarkdownBlockUtils.Rendered mLoaded;
+    /** IDs of the blocks of the DOM */
+    private final List<String> mBlockIds = new ArrayList<>();
+    private int mNextBlockId = 0;
+    private boolean mPageReady = false;
+    /** ID of the block that the page was scrolled to */
+    private String mScrolledBlockId;
+
+    public BlockMarkdownView(Context context) {
+        super(context);
+        init();
+    }
+
+    public BlockMarkdownView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public BlockMarkdownView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        getSettings().setJavaScriptEnabled(true);
+        setWebViewClient(new WebViewClient() {
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, String url) {
+                // links are opened outside, as without client
+                try {
+                    getContext().startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+                } catch (ActivityNotFoundException e) {
+                    Timber.w("There is not any app to open link " + url);
+                }
+                return true;
+            }
+
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                mPageReady = true;
+                // patches are not applied while the page is loading
+                if (mRequested != mLoaded) show(mRequested);
+            }
+        });
+    }
+
+    /**
+     * Returns the last text passed to show.
+     * @return rendered text or null
+     */
+    @Nullable
+    public MarkdownBlockUtils.Rendered getRendered() {
+        return mRequested;
+    }
+
+    /**
+     * Shows given rendered text. If the page has got the blocks of a previous text, only the
+     * blocks that have changed are replaced. It has to be called in the main thread.
+     * @param rendered
+     */
+    public void show(MarkdownBlockUtils.Rendered rendered) {
+        mRequested = rendered;
+        if (rendered == mLoaded) return;
+        if (mLoaded == null || !mLoaded.hasBlocks() || !rendered.hasBlocks() ||
+                !mLoaded.prefix.equals(rendered.prefix) || !mLoaded.suffix.equals(rendered.suffix)) {
+            load(rendered);
+        } else if (mPageReady) {
+            patch(rendered);
+        }
+    }
+
+    private void load(MarkdownBlockUtils.Rendered rendered) {
+        mBlockIds.clear();
+        String page;
+        if (rendered.hasBlocks()) {
+            StringBuilder builder = new StringBuilder(rendered.prefix);
+            builder.append("<div id='").append(BLOCKS_ID).append("'>");
+            for (String fragment : rendered.fragments) {
+                String id = newBlockId();
+                mBlockIds.add(id);
+                builder.append("<div id='").append(id).append("'>").append(fragment).append("</div>");
+            }
+            builder.append("</div><script>").append(PATCH_FUNCTION).append("</script>");
+            builder.append(rendered.suffix);
+            page = builder.toString();
+        } else {
+            page = rendered.page;
+        }
+        mLoaded = rendered;
+        mPageReady = false;
+        mScrolledBlockId = null;
+        // same as MarkdownView.loadMarkdown
+        loadDataWithBaseURL("", page, "text/html", "UTF-8", "");
+    }
+
+    private void patch(MarkdownBlockUtils.Rendered rendered) {
+        long[] oldHashes = mLoaded.blockHashes;
+        long[] newHashes = rendered.blockHashes;
+        // edits are local, so blocks are only compared from both ends
+        int head = 0;
+        while (head < oldHashes.length && head < newHashes.length && oldHashes[head] == newHashes[head]) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < oldHashes.length - head && tail < newHashes.length - head &&
+                oldHashes[oldHashes.length - 1 - tail] == newHashes[newHashes.length - 1 - tail]) {
+            tail++;
+        }
+        mLoaded = rendered;
+        if (head == oldHashes.length && head == newHashes.length) return;
+
+        List<String> removedIds = mBlockIds.subList(head, oldHashes.length - tail);
+        JSONArray removed = new JSONArray(removedIds);
+        String beforeId = tail > 0 ? mBlockIds.get(oldHashes.length - tail) : null;
+        removedIds.clear();
+        List<String> addedIds = new ArrayList<>();
+        JSONArray added = new JSONArray();
+        JSONArray htmls = new JSONArray();
+        for (int i = head; i < newHashes.length - tail; i++) {
+            String id = newBlockId();
+            addedIds.add(id);
+            added.put(id);
+            htmls.put(rendered.fragments[i]);
+        }
+        mBlockIds.addAll(head, addedIds);
+
+        evaluate("focoPatch(" + removed + "," +
+                (beforeId != null ? JSONObject.quote(beforeId) : "null") + "," +
+                added + "," +
+                htmls + ");");
+    }
+
+    /**
+     * Scrolls the page to the block that contains given offset of the text. Offsets are the
+     * ones of the text of the page, so a text that is being rendered can be slightly out of
+     * sync. It does nothing if the page has not got blocks.
+     * @param offset
+     */
+    public void scrollToTextOffset(int offset) {
+        if (!mPageReady || mLoaded == null || !mLoaded.hasBlocks() || mBlockIds.isEmpty()) return;
+        int index = Arrays.binarySearch(mLoaded.blockStarts, offset);
+        if (index < 0) {
+            // offset is after the start of the previous block (or in the blank lines after it)
+            index = Math.max(0, -index - 2);
+        }
+        String id = mBlockIds.get(Math.min(index, mBlockIds.size() - 1));
+        if (id.equals(mScrolledBlockId)) return;
+        mScrolledBlockId = id;
+        evaluate("focoScrollTo(" + JSONObject.quote(id) + ");");
+    }
+
+    /**
+     * This method evaluates given script in the page. Before KitKat it is loaded as a
+     * javascript URL, that is percent-decoded, so percent signs of the rendered html (for
+     * example, in "100%" or in encoded links) are encoded to reach the page as they are.
+     * @param script
+     */
+    private void evaluate(String script) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            evaluateJavascript(script, null);
+        } else {
+            loadUrl("javascript:" + script.replace("%", "%25"));
+        }
+    }
+
+    private String newBlockId() {
+        return BLOCK_ID_PREFIX + (mNextBlockId++);
+    }
+}
@@ -7,9 +7,11 @@ import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.RecyclerView;
 import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -19,9 +21,6 @@ import com.squareup.picasso.Picasso;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -31,15 +30,21 @@ import java.util.concurrent.TimeUnit;
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import io.github.nfdz.foco.R;
+import io.github.nfdz.foco.data.dao.DocumentSearchDao;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 import io.github.nfdz.foco.model.Document;
 import io.github.nfdz.foco.utils.DocItemUtils;
 import io.github.nfdz.foco.utils.FontChangeCrawler;
+import io.github.nfdz.foco.viewmodel.DocumentPagedList;
 
 /**
  * Recycler view adapter implementation. It uses an inner custom view holder implementation.
+ * Documents are provided by a paged list, so some positions could be bound before their
+ * documents are loaded (an empty placeholder is shown). If there is a filter, it shows
+ * the list of search results instead.
  */
-public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+        implements DocumentPagedList.Callback {
 
     private static final int DOCUMENT_TYPE = 0;
     private static final int ADD_DOCUMENT_TYPE = 1;
@@ -52,6 +57,8 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     public interface DocsClickHandler {
         void onDocumentClick(DocumentMetadata doc);
         void onDocumentLongClick(DocumentMetadata doc);
+        /** Called when a document item is touched, before knowing if it is a click */
+        void onDocumentTouchDown(DocumentMetadata doc);
         void onAddDocumentClick();
     }
 
@@ -61,9 +68,8 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private final FontChangeCrawler mBoldFontChanger;
     private final SimpleDateFormat mTimeFormat = new SimpleDateFormat(EDITION_TIME_PATTERN);
 
-    private Comparator<Document> mComparator;
     private String mFilterText;
-    private List<DocumentMetadata> mDocs;
+    private DocumentPagedList mDocs;
     private List<DocumentMetadata> mFilteredDocs;
     private boolean mShowAddDoc;
     private Set<DocumentMetadata> mSelectedDocuments;
@@ -89,16 +95,27 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     /**
-     * Sets document list data. It performs notifyDataSetChanged.
+     * Sets paged document list. It performs notifyDataSetChanged and it will be notified
+     * about changes of the list.
      * @param docs
      */
-    public void setDocumentList(List<DocumentMetadata> docs) {
+    public void setPagedList(DocumentPagedList docs) {
+        if (mDocs != null) mDocs.setCallback(null);
         mDocs = docs;
-        sort();
-        filter();
+        mDocs.setCallback(this);
         notifyDataSetChanged();
     }
 
+    @Override
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        if (!hasFilter()) notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    @Override
+    public void onDataSetChanged() {
+        if (!hasFilter()) notifyDataSetChanged();
+    }
+
     /**
      * Enables/Disables add document placeholder feature. It performs notifyDataSetChanged.
      * @param showAddDoc
@@ -109,24 +126,14 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     /**
-     * This method updates document comparator. It sorts and filters data and
-     * performs notifyDataSetChanged.
-     * @param comparator
-     */
-    public void setComparator(@Nullable Comparator<Document> comparator) {
-        mComparator = comparator;
-        sort();
-        filter();
-        notifyDataSetChanged();
-    }
-
-    /**
-     * This method updates document filter text. It filter data and performs notifyDataSetChanged.
+     * This method updates document filter text and the documents that match with it.
+     * It performs notifyDataSetChanged.
      * @param filterText
+     * @param filteredDocs search results, it is ignored if filter text is empty
      */
-    public void setFilter(@Nullable String filterText) {
+    public void setFilter(@Nullable String filterText, @Nullable List<DocumentMetadata> filteredDocs) {
         mFilterText = filterText != null ? filterText.toLowerCase() : null;
-        filter();
+        mFilteredDocs = hasFilter() ? filteredDocs : null;
         notifyDataSetChanged();
     }
 
@@ -138,6 +145,11 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         return mFilterText;
     }
 
+    @Nullable
+    public List<DocumentMetadata> getFilteredDocs() {
+        return mFilteredDocs;
+    }
+
     public boolean getShowAddDoc() {
         return mShowAddDoc;
     }
@@ -151,27 +163,26 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     /**
-     * Sorts unfiltered data set.
+     * Returns the document of given position.
+     * @param position
+     * @return document or null if it is not loaded yet
      */
-    private void sort() {
-        if (mComparator != null && mDocs != null && !mDocs.isEmpty()) {
-            Collections.sort(mDocs, mComparator);
+    @Nullable
+    private DocumentMetadata getDocument(int position) {
+        if (position < 0 || position >= getDocumentsCount()) {
+            return null;
+        } else if (hasFilter()) {
+            return mFilteredDocs != null ? mFilteredDocs.get(position) : null;
+        } else {
+            return mDocs != null ? mDocs.get(position) : null;
         }
     }
 
-    /**
-     * Filters unfiltered data set.
-     */
-    private void filter() {
-        if (!TextUtils.isEmpty(mFilterText) && mDocs != null && !mDocs.isEmpty()) {
-            mFilteredDocs = new ArrayList<>();
-            for (DocumentMetadata doc : mDocs) {
-                if (doc.getName().toLowerCase().indexOf(mFilterText) > -1) {
-                    mFilteredDocs.add(doc);
-                }
-            }
+    private int getDocumentsCount() {
+        if (hasFilter()) {
+            return mFilteredDocs != null ? mFilteredDocs.size() : 0;
         } else {
-            mFilteredDocs = mDocs;
+            return mDocs != null ? mDocs.size() : 0;
         }
     }
 
@@ -197,17 +208,22 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         // update view only if its type is DOCUMENT_TYPE
         if (holder.getItemViewType() == DOCUMENT_TYPE) {
             DocViewHolder docHolder = (DocViewHolder) holder;
-            DocumentMetadata doc = mFilteredDocs.get(position);
+            DocumentMetadata doc = getDocument(position);
+            if (doc == null) {
+                bindPlaceholder(docHolder);
+                return;
+            }
 
             // update title label
             DocItemUtils.resolveTitleSize(mContext, doc.getName(), docHolder.title);
-            if (TextUtils.isEmpty(mFilterText)) {
+            int startHighlight = TextUtils.isEmpty(mFilterText) ? -1 :
+                    doc.getName().toLowerCase().indexOf(mFilterText);
+            if (startHighlight < 0) {
                 docHolder.title.setText(doc.getName());
             } else {
                 // highlight text
                 Spannable titleSpan = new SpannableString(doc.getName());
                 int color = ContextCompat.getColor(mContext, R.color.highlightTextColor);
-                int startHighlight = doc.getName().toLowerCase().indexOf(mFilterText);
                 int endHighlight = startHighlight + mFilterText.length();
                 titleSpan.setSpan(new ForegroundColorSpan(color),
                         startHighlight,
@@ -216,6 +232,14 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
                 docHolder.title.setText(titleSpan);
             }
 
+            // update search match snippet label
+            if (hasFilter() && !TextUtils.isEmpty(doc.snippet)) {
+                docHolder.snippet.setText(getSnippetText(doc.snippet));
+                docHolder.snippet.setVisibility(View.VISIBLE);
+            } else {
+                docHolder.snippet.setVisibility(View.GONE);
+            }
+
             // update number of words label
             if (doc.getWords() != Document.NULL_WORDS) {
                 int words = doc.getWords();
@@ -282,6 +306,47 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         }
     }
 
+    /**
+     * Highlights matched words of given snippet and removes its marks.
+     * @param snippet with DocumentSearchDao marks
+     * @return text to be shown
+     */
+    private CharSequence getSnippetText(String snippet) {
+        SpannableStringBuilder bld = new SpannableStringBuilder();
+        int color = ContextCompat.getColor(mContext, R.color.highlightTextColor);
+        int startHighlight = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == DocumentSearchDao.SNIPPET_START) {
+                startHighlight = bld.length();
+            } else if (c == DocumentSearchDao.SNIPPET_END) {
+                if (startHighlight >= 0) {
+                    bld.setSpan(new ForegroundColorSpan(color),
+                            startHighlight,
+                            bld.length(),
+                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+                startHighlight = -1;
+            } else {
+                bld.append(c);
+            }
+        }
+        return bld;
+    }
+
+    private void bindPlaceholder(DocViewHolder docHolder) {
+        docHolder.title.setText(null);
+        docHolder.snippet.setVisibility(View.GONE);
+        docHolder.words.setVisibility(View.GONE);
+        docHolder.workTime.setVisibility(View.GONE);
+        docHolder.editTime.setVisibility(View.GONE);
+        docHolder.fav.setVisibility(View.INVISIBLE);
+        Picasso.with(mContext).cancelRequest(docHolder.bg);
+        docHolder.bg.setImageDrawable(null);
+        docHolder.bg.setBackgroundColor(Document.DEFAULT_COVER_COLOR);
+        docHolder.itemView.setSelected(false);
+    }
+
     private String getWorkingTimeText(long workingTime) {
         long seconds = TimeUnit.MILLISECONDS.toSeconds(workingTime);
         long minutes = TimeUnit.MILLISECONDS.toMinutes(workingTime);
@@ -318,14 +383,12 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     }
 
     private boolean isTheLastOne(int position) {
-        int listSize = mFilteredDocs != null ? mFilteredDocs.size() : 0;
-        return position == listSize;
+        return position == getDocumentsCount();
     }
 
     @Override
     public int getItemCount() {
-        int listSize = mFilteredDocs != null ? mFilteredDocs.size() : 0;
-        return listSize + (mShowAddDoc ? 1 : 0);
+        return getDocumentsCount() + (mShowAddDoc ? 1 : 0);
     }
 
     public class DocViewHolder extends RecyclerView.ViewHolder {
@@ -333,6 +396,7 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
         @BindView(R.id.doc_item_title) TextView title;
         @BindView(R.id.doc_item_work_time) TextView workTime;
         @BindView(R.id.doc_item_words) TextView words;
+        @BindView(R.id.doc_item_snippet) TextView snippet;
         @BindView(R.id.doc_item_edit_time) TextView editTime;
         @BindView(R.id.doc_item_fav) ImageView fav;
         @BindView(R.id.doc_item_bg) ImageView bg;
@@ -345,28 +409,42 @@ public class DocsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
             mBoldFontChanger.replaceFonts(title);
             mRegularFontChanger.replaceFonts(workTime);
             mRegularFontChanger.replaceFonts(words);
+            mRegularFontChanger.replaceFonts(snippet);
             mRegularFontChanger.replaceFonts(editTime);
 
             // set click listeners
             itemView.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (mHandler != null) {
-                        int pos = getAdapterPosition();
-                        mHandler.onDocumentClick(mFilteredDocs.get(pos));
+                    DocumentMetadata doc = getDocument(getAdapterPosition());
+                    if (mHandler != null && doc != null) {
+                        mHandler.onDocumentClick(doc);
                     }
                 }
             });
             itemView.setOnLongClickListener(new View.OnLongClickListener() {
                 @Override
                 public boolean onLongClick(View v) {
-                    if (mHandler != null) {
-                        int pos = getAdapterPosition();
-                        mHandler.onDocumentLongClick(mFilteredDocs.get(pos));
+                    DocumentMetadata doc = getDocument(getAdapterPosition());
+                    if (mHandler != null && doc != null) {
+                        mHandler.onDocumentLongClick(doc);
                     }
                     return true;
                 }
             });
+            itemView.setOnTouchListener(new View.OnTouchListener() {
+                @Override
+                public boolean onTouch(View v, MotionEvent event) {
+                    if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                        DocumentMetadata doc = getDocument(getAdapterPosition());
+                        if (mHandler != null && doc != null) {
+                            mHandler.onDocumentTouchDown(doc);
+                        }
+                    }
+                    // it does not consume the event so clicks are still detected
+                    return false;
+                }
+            });
         }
     }
 
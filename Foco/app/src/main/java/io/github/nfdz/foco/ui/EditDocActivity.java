@@ -5,21 +5,30 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.support.annotation.Nullable;
 import android.support.design.widget.AppBarLayout;
+import android.support.design.widget.CoordinatorLayout;
 import android.support.v4.widget.NestedScrollView;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.app.AppCompatDelegate;
 import android.support.v7.widget.Toolbar;
 import android.text.Editable;
+import android.text.Layout;
 import android.text.TextWatcher;
+import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import br.tiagohm.markdownview.MarkdownView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
 import br.tiagohm.markdownview.css.ExternalStyleSheet;
 import br.tiagohm.markdownview.css.InternalStyleSheet;
 import br.tiagohm.markdownview.css.styles.Github;
@@ -28,18 +37,29 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import io.github.nfdz.foco.R;
 import io.github.nfdz.foco.data.AppDatabase;
-import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.DocumentTextCache;
+import io.github.nfdz.foco.data.PreviewHtmlCache;
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 import io.github.nfdz.foco.model.Callbacks;
 import io.github.nfdz.foco.ui.dialogs.AskSaveDialog;
 import io.github.nfdz.foco.ui.dialogs.MusicDialog;
 import io.github.nfdz.foco.utils.AnimationUtils;
+import io.github.nfdz.foco.utils.AutosaveScheduler;
+import io.github.nfdz.foco.utils.DebouncedRenderQueue;
+import io.github.nfdz.foco.utils.EditJournalUtils;
 import io.github.nfdz.foco.utils.FontChangeCrawler;
+import io.github.nfdz.foco.utils.IncrementalTextCounter;
+import io.github.nfdz.foco.utils.MarkdownBlockUtils;
 import io.github.nfdz.foco.utils.SelectionToolbarUtils;
 import io.github.nfdz.foco.utils.TasksUtils;
+import io.github.nfdz.foco.utils.TextStatistics;
 
 /**
  * Edit document activity implementation. It has edit document text view and preview markdown view.
+ * The preview can replace the text view or be shown with it (split mode), side by side in wide
+ * screens and stacked in the others, and then it is updated while the user writes.
  * It has to provide several shortcuts for common markdown operations (bold, header, image, etc).
  */
 public class EditDocActivity extends AppCompatActivity {
@@ -50,6 +70,8 @@ public class EditDocActivity extends AppCompatActivity {
     private static final String START_TIME_KEY = "start-time";
     private static final String TEXT_EDITED_KEY = "text-edited";
     private static final String PREVIEW_MODE_KEY = "preview";
+    private static final String SPLIT_MODE_KEY = "split";
+    private static final String JOURNAL_VALID_KEY = "journal-valid";
 
     /**
      * This method should be called in order to start this activity because it manages how to
@@ -72,14 +94,41 @@ public class EditDocActivity extends AppCompatActivity {
     @BindView(R.id.edit_toolbar_title) TextView mToolbarTitle;
     @BindView(R.id.edit_loading) ProgressBar mLoading;
     @BindView(R.id.edit_selection_bar) View mSelectionBar;
-    @BindView(R.id.edit_markdown_preview) MarkdownView mPreview;
+    @BindView(R.id.edit_markdown_preview) BlockMarkdownView mPreview;
+    @BindView(R.id.edit_status_line) TextView mStatusLine;
 
     private DocumentMetadata mDocumentMetadata;
     private TextObserver mObserver = new TextObserver();
+    private final IncrementalTextCounter mCounter = new IncrementalTextCounter();
     private boolean mTextLoaded = false;
     private long mStartTime = -1;
     private boolean mTextEdited = false;
     private boolean mPreviewMode = false;
+    private boolean mSplitMode = false;
+    /** Minimum height of the content view out of split mode */
+    private int mContentMinHeight;
+    private List<DocumentEditEntity> mPendingEdits = new ArrayList<>();
+    private boolean mJournalValid = true;
+    private final AtomicReference<Long> mStoredTextHash = new AtomicReference<>();
+    private final AutosaveScheduler mAutosaveScheduler = new AutosaveScheduler(new AutosaveScheduler.Callback() {
+        @Override
+        public void onAutosave() {
+            autosave();
+        }
+    });
+    private final DebouncedRenderQueue<MarkdownBlockUtils.Rendered> mRenderQueue =
+            new DebouncedRenderQueue<>(new DebouncedRenderQueue.Callback<MarkdownBlockUtils.Rendered>() {
+                @Nullable
+                @Override
+                public Callable<MarkdownBlockUtils.Rendered> onCreateRender() {
+                    return createPreviewRender();
+                }
+
+                @Override
+                public void onRendered(MarkdownBlockUtils.Rendered rendered) {
+                    if (mPreviewMode || mSplitMode) showPreviewHtml(rendered);
+                }
+            });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -129,23 +178,43 @@ public class EditDocActivity extends AppCompatActivity {
         css.addRule("*", "color: black", "font-family: 'Libre Baskerville', serif");
         mPreview.addStyleSheet(css);
 
+        mContentMinHeight = mContent.getMinimumHeight();
+        mContent.setOnScrollChangeListener(new NestedScrollView.OnScrollChangeListener() {
+            @Override
+            public void onScrollChange(NestedScrollView view, int scrollX, int scrollY, int oldScrollX, int oldScrollY) {
+                if (mSplitMode) syncPreviewScroll();
+            }
+        });
+
         if (savedInstanceState == null || !savedInstanceState.getBoolean(TEXT_LOADED_KEY, false)) {
-            loadTextAsync();
+            DocumentTextCache.Entry cached = DocumentTextCache.getInstance(this).get(mDocumentMetadata.getId());
+            if (cached != null) {
+                // recently opened document, it is shown without waiting
+                mStoredTextHash.set(cached.hash);
+                onTextLoaded(cached.text, cached.hasDraft);
+            } else {
+                loadTextAsync();
+            }
         } else {
             mAppBar.setExpanded(true, true);
             mStartTime = savedInstanceState.getLong(START_TIME_KEY, -1);
             mTextEdited = savedInstanceState.getBoolean(TEXT_EDITED_KEY, false);
+            // if pending edits were lost with the activity the next save has to write all text
+            mJournalValid = savedInstanceState.getBoolean(JOURNAL_VALID_KEY, !mTextEdited);
             mPreviewMode = savedInstanceState.getBoolean(PREVIEW_MODE_KEY, false);
+            mSplitMode = savedInstanceState.getBoolean(SPLIT_MODE_KEY, false);
             mTextLoaded = true;
             showLoading();
             // post runnable to be executed after edit text restore its content
             mEditTextContent.post(new Runnable() {
                 @Override
                 public void run() {
-                    subscribeObserver();
+                    subscribeObserver(mEditTextContent.getText().toString());
                     showContent();
                     if (mPreviewMode) {
                         showPreviewMode();
+                    } else if (mSplitMode) {
+                        showSplitMode();
                     }
                 }
             });
@@ -155,10 +224,13 @@ public class EditDocActivity extends AppCompatActivity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
+        mAutosaveScheduler.flush();
+        outState.putBoolean(JOURNAL_VALID_KEY, mJournalValid && mPendingEdits.isEmpty());
         outState.putBoolean(TEXT_LOADED_KEY, mTextLoaded);
         outState.putLong(START_TIME_KEY, mStartTime);
         outState.putBoolean(TEXT_EDITED_KEY, mTextEdited);
         outState.putBoolean(PREVIEW_MODE_KEY, mPreviewMode);
+        outState.putBoolean(SPLIT_MODE_KEY, mSplitMode);
     }
 
     @Override
@@ -167,6 +239,24 @@ public class EditDocActivity extends AppCompatActivity {
         if (mStartTime < 0) mStartTime = System.currentTimeMillis();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // the process could be killed from now on so pending edits are written as draft
+        mAutosaveScheduler.flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAutosaveScheduler.cancel();
+        mRenderQueue.release();
+        // apply the journal when the editor is closed so stored text (and search index) is updated
+        if (isFinishing() && mDocumentMetadata != null) {
+            TasksUtils.compactDocumentJournal(getApplicationContext(), mDocumentMetadata);
+        }
+    }
+
     @OnClick(R.id.edit_toolbar_back)
     void onBackClick() {
         // if text was edited ask save before
@@ -174,15 +264,21 @@ public class EditDocActivity extends AppCompatActivity {
             AskSaveDialog.showDialog(this, new AskSaveDialog.Callback() {
                 @Override
                 public void onCloseWithoutSave() {
+                    discardChanges();
                     navigateUp();
                 }
                 @Override
                 public void onSaveAndClose() {
                     showLoading();
-                    saveDocument(new Callbacks.FinishCallback() {
+                    saveDocument(new Callbacks.FinishCallback<Boolean>() {
                         @Override
-                        public void onFinish(Object result) {
-                            navigateUp();
+                        public void onFinish(Boolean saved) {
+                            if (saved) {
+                                navigateUp();
+                            } else {
+                                showContent();
+                                Toast.makeText(EditDocActivity.this, R.string.save_error_msg, Toast.LENGTH_LONG).show();
+                            }
                         }
                     });
                 }
@@ -206,15 +302,21 @@ public class EditDocActivity extends AppCompatActivity {
             AskSaveDialog.showDialog(this, new AskSaveDialog.Callback() {
                 @Override
                 public void onCloseWithoutSave() {
+                    discardChanges();
                     navigateBack();
                 }
                 @Override
                 public void onSaveAndClose() {
                     showLoading();
-                    saveDocument(new Callbacks.FinishCallback() {
+                    saveDocument(new Callbacks.FinishCallback<Boolean>() {
                         @Override
-                        public void onFinish(Object result) {
-                            navigateBack();
+                        public void onFinish(Boolean saved) {
+                            if (saved) {
+                                navigateBack();
+                            } else {
+                                showContent();
+                                Toast.makeText(EditDocActivity.this, R.string.save_error_msg, Toast.LENGTH_LONG).show();
+                            }
                         }
                     });
                 }
@@ -231,24 +333,92 @@ public class EditDocActivity extends AppCompatActivity {
                 R.anim.slide_out_to_right);
     }
 
-    private void saveDocument(final Callbacks.FinishCallback callback) {
+    /**
+     * Saves the document in background. If it fails, the text is kept as edited and the next
+     * save writes the whole text because the journal misses the edits that it took.
+     * @param callback it is notified with true if the document has been saved
+     */
+    private void saveDocument(final Callbacks.FinishCallback<Boolean> callback) {
         final Context context = this;
         long now = System.currentTimeMillis();
         long workingTime = mStartTime > 0 ? now - mStartTime : 0;
-        TasksUtils.saveDocument(context,
+        mAutosaveScheduler.cancel();
+        String text = mEditTextContent.getText().toString();
+        TasksUtils.saveDocumentEdits(context,
                 mDocumentMetadata,
-                mEditTextContent.getText().toString(),
+                text,
+                takePendingEdits(text),
+                mStoredTextHash,
                 workingTime,
-                new Callbacks.FinishCallback<Void>() {
+                new Callbacks.FinishCallback<Boolean>() {
+                    @Override
+                    public void onFinish(Boolean saved) {
+                        if (saved) {
+                            mStartTime = System.currentTimeMillis();
+                            // text could be edited while it was saving
+                            mTextEdited = !mPendingEdits.isEmpty() || !mJournalValid;
+                        } else {
+                            mJournalValid = false;
+                            mTextEdited = true;
+                        }
+                        callback.onFinish(saved);
+                    }
+                });
+    }
+
+    /**
+     * Writes pending edits as draft in background. If it fails, the next save or draft writes
+     * the whole text.
+     */
+    private void autosave() {
+        if (!mTextLoaded) return;
+        String text = mEditTextContent.getText().toString();
+        TasksUtils.saveDocumentDraft(this,
+                mDocumentMetadata,
+                text,
+                takePendingEdits(text),
+                mStoredTextHash,
+                new Callbacks.FinishCallback<Boolean>() {
                     @Override
-                    public void onFinish(Void result) {
-                        mStartTime = System.currentTimeMillis();
-                        mTextEdited = false;
-                        callback.onFinish(result);
+                    public void onFinish(Boolean saved) {
+                        if (!saved) {
+                            // the journal misses the edits that it took
+                            mJournalValid = false;
+                            mTextEdited = true;
+                        }
                     }
                 });
     }
 
+    /**
+     * Returns pending edits and starts a new list. If they are not valid (they were lost),
+     * it returns an edit that replaces the whole text.
+     * @param text current text
+     * @return edits to be written
+     */
+    private List<DocumentEditEntity> takePendingEdits(String text) {
+        List<DocumentEditEntity> edits = mPendingEdits;
+        mPendingEdits = new ArrayList<>();
+        if (!mJournalValid) {
+            mJournalValid = true;
+            edits = new ArrayList<>();
+            edits.add(new DocumentEditEntity(mDocumentMetadata.getId(),
+                    0,
+                    DocumentEditEntity.REMOVE_ALL,
+                    text));
+        }
+        return edits;
+    }
+
+    /**
+     * Discards pending edits and draft edits written by autosave.
+     */
+    private void discardChanges() {
+        mAutosaveScheduler.cancel();
+        mPendingEdits = new ArrayList<>();
+        TasksUtils.discardDocumentDraft(getApplicationContext(), mDocumentMetadata);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_edit, menu);
@@ -258,17 +428,75 @@ public class EditDocActivity extends AppCompatActivity {
             item.setIcon(R.drawable.ic_edit);
             item.setTitle(R.string.action_edit);
         }
+        MenuItem splitItem = menu.findItem(R.id.action_split_preview);
+        splitItem.setVisible(!mPreviewMode);
+        splitItem.setChecked(mSplitMode);
         return true;
     }
 
     private void showPreviewMode() {
+        if (mSplitMode) hideSplitMode();
         mPreviewMode = true;
         mContent.setVisibility(View.GONE);
-        mPreview.setVisibility(View.VISIBLE);
+        mStatusLine.setVisibility(View.INVISIBLE);
         mAppBar.setExpanded(true, true);
         setAppBarExpandEnabled(false);
+        showPreviewWhileRendering();
+        mRenderQueue.renderNow();
+    }
+
+    /**
+     * Shows the last preview while the current text is rendered, only the blocks that have
+     * changed will be replaced. If there is not any, it shows the loading view.
+     */
+    private void showPreviewWhileRendering() {
+        if (mPreview.getRendered() != null) {
+            mPreview.setVisibility(View.VISIBLE);
+        } else {
+            mPreview.setVisibility(View.GONE);
+            mLoading.setVisibility(View.VISIBLE);
+        }
+    }
 
-        mPreview.loadMarkdown(mEditTextContent.getText().toString());
+    /**
+     * Creates the render of the current text. The render is in background, it reuses the blocks
+     * of the last render and it puts the result in the cache (see PreviewHtmlCache).
+     * @return render or null if the shown preview is up to date
+     */
+    @Nullable
+    private Callable<MarkdownBlockUtils.Rendered> createPreviewRender() {
+        final String text = mEditTextContent.getText().toString();
+        final long hash = EditJournalUtils.hashText(text);
+        final long docId = mDocumentMetadata.getId();
+        final MarkdownBlockUtils.Rendered shown = mPreview.getRendered();
+        if (shown != null && shown.textHash == hash) {
+            // the preview has not changed since the last time
+            showPreviewHtml(shown);
+            return null;
+        }
+        final PreviewHtmlCache cache = PreviewHtmlCache.getInstance(this);
+        final MarkdownBlockUtils.Rendered cached = cache.get(docId, hash);
+        if (cached != null) {
+            showPreviewHtml(cached);
+            return null;
+        }
+        return new Callable<MarkdownBlockUtils.Rendered>() {
+            @Override
+            public MarkdownBlockUtils.Rendered call() {
+                MarkdownBlockUtils.Rendered base = shown != null ? shown : cache.getLast(docId);
+                // style sheets of the view are only changed in onCreate
+                MarkdownBlockUtils.Rendered rendered = MarkdownBlockUtils.render(mPreview, text, hash, base);
+                cache.put(docId, rendered);
+                return rendered;
+            }
+        };
+    }
+
+    private void showPreviewHtml(MarkdownBlockUtils.Rendered rendered) {
+        mLoading.setVisibility(View.INVISIBLE);
+        mPreview.setVisibility(View.VISIBLE);
+        // only changed blocks are replaced if the page is loaded
+        mPreview.show(rendered);
         // there is a problem with this view as it does not refresh correctly sometimes
         mPreview.post(new Runnable() {
             @Override
@@ -276,17 +504,104 @@ public class EditDocActivity extends AppCompatActivity {
                 mPreview.refreshDrawableState();
             }
         });
+        if (mSplitMode) syncPreviewScroll();
     }
 
     private void showEditMode() {
         mPreviewMode = false;
+        mRenderQueue.cancel();
+        mLoading.setVisibility(View.INVISIBLE);
         mContent.setVisibility(View.VISIBLE);
+        mStatusLine.setVisibility(View.VISIBLE);
+        // the loaded preview is kept, it is shown again if the text does not change
+        mPreview.setVisibility(View.GONE);
+
+        setAppBarExpandEnabled(true);
+    }
+
+    /**
+     * Shows the preview with the text view. The preview is rendered again when the user stops
+     * writing (see DebouncedRenderQueue) and it follows the scroll of the text.
+     */
+    private void showSplitMode() {
+        mSplitMode = true;
+        mAppBar.setExpanded(true, true);
+        setAppBarExpandEnabled(false);
+        applySplitLayout();
+        showPreviewWhileRendering();
+        mRenderQueue.renderNow();
+    }
+
+    private void hideSplitMode() {
+        mSplitMode = false;
+        mRenderQueue.cancel();
+        mLoading.setVisibility(View.INVISIBLE);
         mPreview.setVisibility(View.GONE);
-        mPreview.loadMarkdown("");
+
+        CoordinatorLayout.LayoutParams contentParams = (CoordinatorLayout.LayoutParams) mContent.getLayoutParams();
+        contentParams.width = ViewGroup.LayoutParams.MATCH_PARENT;
+        contentParams.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+        mContent.setLayoutParams(contentParams);
+        mContent.setMinimumHeight(mContentMinHeight);
+        CoordinatorLayout.LayoutParams previewParams = (CoordinatorLayout.LayoutParams) mPreview.getLayoutParams();
+        previewParams.width = ViewGroup.LayoutParams.MATCH_PARENT;
+        previewParams.height = ViewGroup.LayoutParams.MATCH_PARENT;
+        previewParams.gravity = Gravity.NO_GRAVITY;
+        previewParams.bottomMargin = 0;
+        mPreview.setLayoutParams(previewParams);
 
         setAppBarExpandEnabled(true);
     }
 
+    /**
+     * This method splits the screen between the text view and the preview. The panes are side
+     * by side if the screen is wide enough, otherwise the text is above the preview.
+     */
+    private void applySplitLayout() {
+        final View root = (View) mContent.getParent();
+        if (root.getWidth() == 0 || root.getHeight() == 0) {
+            // it is not measured yet
+            root.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSplitMode) applySplitLayout();
+                }
+            });
+            return;
+        }
+        int appBarHeight = getResources().getDimensionPixelSize(R.dimen.app_bar_collapsed_height);
+        int statusLineHeight = getResources().getDimensionPixelSize(R.dimen.edit_status_line_height);
+        CoordinatorLayout.LayoutParams contentParams = (CoordinatorLayout.LayoutParams) mContent.getLayoutParams();
+        CoordinatorLayout.LayoutParams previewParams = (CoordinatorLayout.LayoutParams) mPreview.getLayoutParams();
+        previewParams.bottomMargin = statusLineHeight;
+        if (getResources().getBoolean(R.bool.split_preview_side_by_side)) {
+            contentParams.width = root.getWidth() / 2;
+            previewParams.width = root.getWidth() - contentParams.width;
+            previewParams.height = ViewGroup.LayoutParams.MATCH_PARENT;
+            previewParams.gravity = Gravity.END;
+        } else {
+            int paneHeight = (root.getHeight() - appBarHeight - statusLineHeight) / 2;
+            contentParams.height = paneHeight;
+            mContent.setMinimumHeight(0);
+            previewParams.width = ViewGroup.LayoutParams.MATCH_PARENT;
+            previewParams.height = paneHeight;
+            previewParams.gravity = Gravity.BOTTOM;
+        }
+        mContent.setLayoutParams(contentParams);
+        mPreview.setLayoutParams(previewParams);
+    }
+
+    /**
+     * This method scrolls the preview to the block of the first visible line of the text.
+     */
+    private void syncPreviewScroll() {
+        Layout layout = mEditTextContent.getLayout();
+        if (layout == null) return;
+        int y = mContent.getScrollY() - mEditTextContent.getTop() - mEditTextContent.getTotalPaddingTop();
+        int line = layout.getLineForVertical(Math.max(0, y));
+        mPreview.scrollToTextOffset(layout.getLineStart(line));
+    }
+
     private void setAppBarExpandEnabled(boolean enabled) {
         mAppBar.setActivated(enabled);
         final AppBarLayout.LayoutParams params = (AppBarLayout.LayoutParams) mToolbar.getLayoutParams();
@@ -310,22 +625,33 @@ public class EditDocActivity extends AppCompatActivity {
                 if (mTextLoaded) {
                     if (!mPreviewMode) {
                         showPreviewMode();
-                        item.setIcon(R.drawable.ic_edit);
-                        item.setTitle(R.string.action_edit);
                     } else {
                         showEditMode();
-                        item.setIcon(R.drawable.ic_preview);
-                        item.setTitle(R.string.action_preview);
                     }
+                    supportInvalidateOptionsMenu();
+                } else {
+                    Toast.makeText(this, R.string.preview_error_msg, Toast.LENGTH_LONG).show();
+                }
+                return true;
+            case R.id.action_split_preview:
+                if (mTextLoaded) {
+                    if (!mSplitMode) {
+                        showSplitMode();
+                    } else {
+                        hideSplitMode();
+                    }
+                    supportInvalidateOptionsMenu();
                 } else {
                     Toast.makeText(this, R.string.preview_error_msg, Toast.LENGTH_LONG).show();
                 }
                 return true;
             case R.id.action_save:
-                saveDocument(new Callbacks.FinishCallback<Void>() {
+                saveDocument(new Callbacks.FinishCallback<Boolean>() {
                     @Override
-                    public void onFinish(Void result) {
-                        Toast.makeText(EditDocActivity.this, R.string.save_success_msg, Toast.LENGTH_LONG).show();
+                    public void onFinish(Boolean saved) {
+                        Toast.makeText(EditDocActivity.this,
+                                saved ? R.string.save_success_msg : R.string.save_error_msg,
+                                Toast.LENGTH_LONG).show();
                     }
                 });
                 return true;
@@ -335,36 +661,76 @@ public class EditDocActivity extends AppCompatActivity {
 
     private void loadTextAsync() {
         showLoading();
-        new AsyncTask<Void,Void,String>() {
+        final long docId = mDocumentMetadata.getId();
+        final DocumentTextCache cache = DocumentTextCache.getInstance(this);
+        // the user is waiting for it so it has high priority
+        DataExecutor.getInstance(this).read(DataExecutor.PRIORITY_HIGH, new DataExecutor.Task<DocumentTextCache.Entry>() {
             @Override
-            protected String doInBackground(Void... params) {
-                DocumentEntity entity = AppDatabase.getInstance(EditDocActivity.this)
-                        .documentDao().getDocument(mDocumentMetadata.getId());
-                return entity.text;
+            public DocumentTextCache.Entry run(AppDatabase db) {
+                DocumentTextCache.Entry entry = cache.load(db, docId);
+                mStoredTextHash.set(entry.hash);
+                return entry;
             }
+        }, new Callbacks.FinishCallback<DocumentTextCache.Entry>() {
             @Override
-            protected void onPostExecute(String text) {
-                mEditTextContent.setText(text);
-                subscribeObserver();
-                showContent();
-                mTextLoaded = true;
+            public void onFinish(DocumentTextCache.Entry entry) {
+                if (entry != null) {
+                    onTextLoaded(entry.text, entry.hasDraft);
+                } else {
+                    onTextLoaded("", false);
+                }
             }
-        }.execute();
+        });
+    }
+
+    private void onTextLoaded(String text, boolean draftRecovered) {
+        mEditTextContent.setText(text);
+        subscribeObserver(text);
+        showContent();
+        mTextLoaded = true;
+        if (draftRecovered) {
+            mTextEdited = true;
+            Toast.makeText(this, R.string.draft_recovered_msg, Toast.LENGTH_LONG).show();
+        }
     }
 
     private void showLoading() {
         mLoading.setVisibility(View.VISIBLE);
         mContent.setVisibility(View.INVISIBLE);
+        mStatusLine.setVisibility(View.INVISIBLE);
     }
 
     private void showContent() {
         mLoading.setVisibility(View.INVISIBLE);
         mContent.setVisibility(View.VISIBLE);
+        mStatusLine.setVisibility(View.VISIBLE);
     }
 
-    private void subscribeObserver() {
+    private void subscribeObserver(final String text) {
+        // this is the only full count, then it is updated with every change. It is done in
+        // background with the loaded text, changes made meanwhile are counted as deltas.
+        mCounter.resetPending(text.length());
         mEditTextContent.setSelectionListener(mObserver);
         mEditTextContent.addTextChangedListener(mObserver);
+        new AsyncTask<Void, Void, TextStatistics>() {
+            @Override
+            protected TextStatistics doInBackground(Void... params) {
+                return TextStatistics.compute(text);
+            }
+            @Override
+            protected void onPostExecute(TextStatistics statistics) {
+                mCounter.applyFullCount(statistics);
+                updateStatusLine();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void updateStatusLine() {
+        if (!mCounter.isCounted()) return;
+        mStatusLine.setText(getString(R.string.edit_status_line,
+                mCounter.getWords(),
+                mCounter.getCharacters(),
+                mCounter.getParagraphs()));
     }
 
     private class TextObserver implements CustomEditText.SelectionListener, TextWatcher {
@@ -380,13 +746,22 @@ public class EditDocActivity extends AppCompatActivity {
 
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-            // nothing to do
+            mCounter.beforeTextChanged(s, start, count);
         }
 
         @Override
         public void onTextChanged(CharSequence s, int start, int before, int count) {
+            mCounter.onTextChanged(s, start, count);
             if (before > 0 || count > 0) {
                 mTextEdited = true;
+                EditJournalUtils.recordEdit(mPendingEdits,
+                        mDocumentMetadata.getId(),
+                        start,
+                        before,
+                        s.subSequence(start, start + count));
+                mAutosaveScheduler.onEdit();
+                updateStatusLine();
+                if (mSplitMode) mRenderQueue.onEdit();
             }
         }
 
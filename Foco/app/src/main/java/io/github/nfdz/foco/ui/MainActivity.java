@@ -37,30 +37,33 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 import io.github.nfdz.foco.R;
+import io.github.nfdz.foco.data.DocumentChanges;
+import io.github.nfdz.foco.data.DocumentPrefetcher;
+import io.github.nfdz.foco.data.DocumentRepository;
 import io.github.nfdz.foco.data.PreferencesUtils;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 import io.github.nfdz.foco.model.Callbacks;
-import io.github.nfdz.foco.model.DocumentLastEditionComparator;
-import io.github.nfdz.foco.model.DocumentNameComparator;
-import io.github.nfdz.foco.model.DocumentWordsComparator;
 import io.github.nfdz.foco.ui.dialogs.ChangeSortDialog;
 import io.github.nfdz.foco.ui.dialogs.CreateDocDialog;
 import io.github.nfdz.foco.ui.dialogs.DeleteDocDialog;
 import io.github.nfdz.foco.ui.dialogs.EditDocCoverDialog;
 import io.github.nfdz.foco.ui.dialogs.EditDocTitleDialog;
+import io.github.nfdz.foco.ui.dialogs.ExportFormatDialog;
 import io.github.nfdz.foco.ui.dialogs.MusicDialog;
 import io.github.nfdz.foco.ui.dialogs.SearchTextDialog;
+import io.github.nfdz.foco.utils.BackupUtils;
 import io.github.nfdz.foco.utils.ImportExportUtils;
 import io.github.nfdz.foco.utils.SelectionToolbarUtils;
 import io.github.nfdz.foco.utils.TasksUtils;
 import io.github.nfdz.foco.viewmodel.DocListViewModel;
+import io.github.nfdz.foco.viewmodel.DocumentPagedList;
 
 /**
  * Main activity implementation. It has recycler grid view and provides several document actions
  * (edit title, cover, mark as favorite, delete, etc).
  */
 public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOffsetChangedListener,
-        DocsAdapter.DocsClickHandler, LifecycleRegistryOwner {
+        DocsAdapter.DocsClickHandler, LifecycleRegistryOwner, DocumentRepository.ChangeListener {
 
     public static final String OPEN_MUSIC_ACTION = "OPEN_MUSIC";
 
@@ -87,6 +90,8 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
 
     private DocsAdapter mAdapter;
     private GridLayoutManager mLayoutManager;
+    private DocListViewModel mViewModel;
+    private DocumentPrefetcher mPrefetcher;
 
     @BindView(R.id.main_toolbar) Toolbar mToolbar;
     @BindView(R.id.main_fab_add) FloatingActionButton mFab;
@@ -133,15 +138,32 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
         mRecyclerView.setHasFixedSize(true);
         mAdapter = new DocsAdapter(this, mSelectedDocuments, this);
         mRecyclerView.setAdapter(mAdapter);
-        updateAdapterComparator();
+        mPrefetcher = new DocumentPrefetcher(this);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    mPrefetcher.prefetchLastEdited();
+                }
+            }
+        });
 
         mAppBar.addOnOffsetChangedListener(this);
         startAlphaAnimation(mToolbarLogo, 0, View.INVISIBLE);
 
         showLoading();
         // subscribe to view model
-        DocListViewModel viewModel = ViewModelProviders.of(this).get(DocListViewModel.class);
-        subscribeUi(viewModel);
+        mViewModel = ViewModelProviders.of(this).get(DocListViewModel.class);
+        mAdapter.setPagedList(mViewModel.getDocuments());
+        updateSort();
+        subscribeUi(mViewModel);
+        DocumentRepository.getInstance(this).addChangeListener(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        DocumentRepository.getInstance(this).removeChangeListener(this);
+        super.onDestroy();
     }
 
     @Override
@@ -169,7 +191,7 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
         if (savedInstanceState.containsKey(SEARCH_TEXT_KEY)) {
             String filterText = savedInstanceState.getString(SEARCH_TEXT_KEY);
             if (!TextUtils.isEmpty(filterText)) {
-                mAdapter.setFilter(filterText);
+                applyFilter(filterText);
             }
         }
     }
@@ -195,6 +217,12 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mPrefetcher.cancel();
+    }
+
     private void openMusicDialog() {
         if (mMusicDialog == null ||
                 mMusicDialog.getDialog() == null ||
@@ -216,6 +244,15 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        // folders (trees) can be opened since Lollipop
+        MenuItem importFolderItem = menu.findItem(R.id.action_import_folder);
+        if (importFolderItem != null) {
+            importFolderItem.setVisible(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        }
+        MenuItem backupItem = menu.findItem(R.id.action_backup);
+        if (backupItem != null) {
+            backupItem.setVisible(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        }
         MenuItem item = menu.findItem(R.id.action_search);
         if (mAdapter.hasFilter()) {
             item.setIcon(R.drawable.ic_search_cancel);
@@ -231,7 +268,7 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
             ChangeSortDialog.showDialog(this, new ChangeSortDialog.Callback() {
                 @Override
                 public void onSortChanged() {
-                    updateAdapterComparator();
+                    updateSort();
                 }
             });
             return true;
@@ -240,14 +277,14 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
             return true;
         } else if (id == R.id.action_search) {
             if (mAdapter.hasFilter()) {
-                mAdapter.setFilter(null);
+                applyFilter(null);
                 item.setIcon(R.drawable.ic_search);
                 item.setTitle(R.string.action_search);
             } else {
                 SearchTextDialog.showDialog(this, new SearchTextDialog.Callback() {
                     @Override
                     public void onSearch(String text) {
-                        mAdapter.setFilter(text);
+                        applyFilter(text);
                     }
                     @Override
                     public void onSearchTextChanged(String text) {
@@ -259,11 +296,11 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
                             item.setIcon(R.drawable.ic_search);
                             item.setTitle(R.string.action_search);
                         }
-                        mAdapter.setFilter(text);
+                        applyFilter(text);
                     }
                     @Override
                     public void onSearchCancel() {
-                        mAdapter.setFilter(null);
+                        applyFilter(null);
                         item.setIcon(R.drawable.ic_search);
                         item.setTitle(R.string.action_search);
                     }
@@ -274,6 +311,20 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
             // assume that this code will be only reached if sdk >= 19
             ImportExportUtils.importBookmarks(this);
             return true;
+        } else if (id == R.id.action_import_folder) {
+            // assume that this code will be only reached if sdk >= 21
+            ImportExportUtils.importFolder(this);
+            return true;
+        } else if (id == R.id.action_import_library) {
+            ImportExportUtils.importLibrary(this);
+            return true;
+        } else if (id == R.id.action_export_library) {
+            ImportExportUtils.exportLibrary(this);
+            return true;
+        } else if (id == R.id.action_backup) {
+            // assume that this code will be only reached if sdk >= 21
+            BackupUtils.showBackupOptions(this);
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -281,6 +332,8 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
         if (ImportExportUtils.onImportActivityResult(requestCode, resultCode, resultData, this)) return;
+        if (ImportExportUtils.onLibraryActivityResult(requestCode, resultCode, resultData, this)) return;
+        if (BackupUtils.onBackupActivityResult(requestCode, resultCode, resultData, this)) return;
         if (mSelectedDocuments.size() == 1) {
             DocumentMetadata doc = mSelectedDocuments.iterator().next();
             if (ImportExportUtils.onExportActivityResult(requestCode, resultCode, resultData, this, doc)) return;
@@ -288,17 +341,38 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
         super.onActivityResult(requestCode, resultCode, resultData);
     }
 
-    private void updateAdapterComparator() {
+    private void updateSort() {
         String sort = PreferencesUtils.getPreferredSort(this);
         if (getString(R.string.pref_sort_words_key).equals(sort)) {
-            mAdapter.setComparator(new DocumentWordsComparator());
+            mViewModel.setSort(DocumentPagedList.SORT_WORDS);
         } else if (getString(R.string.pref_sort_edit_time_key).equals(sort)) {
-            mAdapter.setComparator(new DocumentLastEditionComparator());
+            mViewModel.setSort(DocumentPagedList.SORT_EDIT_TIME);
         } else {
-            mAdapter.setComparator(new DocumentNameComparator());
+            mViewModel.setSort(DocumentPagedList.SORT_TITLE);
         }
     }
 
+    /**
+     * Filters documents with given text. It searches in background and updates adapter with
+     * the results (if filter text has not changed meanwhile).
+     * @param text filter text or null to remove current filter
+     */
+    private void applyFilter(@Nullable final String text) {
+        if (TextUtils.isEmpty(text)) {
+            mAdapter.setFilter(null, null);
+            return;
+        }
+        mAdapter.setFilter(text, mAdapter.hasFilter() ? mAdapter.getFilteredDocs() : null);
+        mViewModel.searchDocuments(text, new Callbacks.FinishCallback<List<DocumentMetadata>>() {
+            @Override
+            public void onFinish(List<DocumentMetadata> docs) {
+                if (text.toLowerCase().equals(mAdapter.getFilterText())) {
+                    mAdapter.setFilter(text, docs);
+                }
+            }
+        });
+    }
+
     private void startAlphaAnimation(View v, long duration, int visibility) {
         AlphaAnimation alphaAnimation = (visibility == View.VISIBLE)
                 ? new AlphaAnimation(0f, 1f)
@@ -384,6 +458,7 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
     }
 
     private void openDocument(DocumentMetadata doc) {
+        mPrefetcher.onOpened(doc.id);
         mSelectedDocuments.clear();
         mAdapter.refreshSelectedDocuments();
         showNoSelectionMode();
@@ -396,11 +471,19 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
             mSelectedDocuments.remove(doc);
         } else {
             mSelectedDocuments.add(doc);
+            // a selected document is likely to be opened or exported
+            mPrefetcher.prefetch(doc.id);
         }
         mAdapter.refreshSelectedDocuments();
         updateSelectionBar();
     }
 
+    @Override
+    public void onDocumentTouchDown(DocumentMetadata doc) {
+        // the text is loaded while the click is being detected
+        mPrefetcher.prefetch(doc.id);
+    }
+
     private void updateSelectionBar() {
         switch (mSelectedDocuments.size()) {
             case 0:
@@ -470,8 +553,13 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
 
     @OnClick(R.id.main_selection_bar_export)
     public void onSelectionExportClick() {
-        DocumentMetadata doc = mSelectedDocuments.iterator().next();
-        ImportExportUtils.exportDocument(this, doc);
+        final DocumentMetadata doc = mSelectedDocuments.iterator().next();
+        ExportFormatDialog.showDialog(this, new ExportFormatDialog.Callback() {
+            @Override
+            public void onFormatSelected(int format) {
+                ImportExportUtils.exportDocument(MainActivity.this, doc, format);
+            }
+        });
     }
 
     @OnClick(R.id.main_selection_bar_favorite)
@@ -547,17 +635,26 @@ public class MainActivity extends AppCompatActivity implements AppBarLayout.OnOf
         return mRegistry;
     }
 
+    @Override
+    public void onDocumentsChanged(DocumentChanges changes) {
+        if (mAdapter.hasFilter()) {
+            // refresh search results
+            applyFilter(mAdapter.getFilterText());
+        }
+    }
+
     /**
      * Subscribes this activity to LiveData view model.
      * @param viewModel
      */
     private void subscribeUi(DocListViewModel viewModel) {
-        viewModel.getDocumentsMetadata().observe(this, new Observer<List<DocumentMetadata>>() {
+        viewModel.getDocumentsCount().observe(this, new Observer<Integer>() {
             @Override
-            public void onChanged(@Nullable List<DocumentMetadata> docs) {
-                if (docs != null) {
+            public void onChanged(@Nullable Integer count) {
+                if (count != null) {
                     showData();
-                    mAdapter.setDocumentList(docs);
+                    mViewModel.getDocuments().invalidate(count);
+                    mPrefetcher.prefetchLastEdited();
                 } else {
                     showLoading();
                 }
@@ -0,0 +1,61 @@
+package io.github.nfdz.foco.ui.dialogs;
+
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.support.v7.app.AlertDialog;
+
+import io.github.nfdz.foco.R;
+import io.github.nfdz.foco.data.PreferencesUtils;
+import io.github.nfdz.foco.model.DocumentSerializer;
+
+/**
+ * This class eases to open a dialog to choose the format of an exported document.
+ */
+public class ExportFormatDialog {
+
+    /**
+     * Callback to be implemented to be notified of the chosen format.
+     */
+    public interface Callback {
+        void onFormatSelected(int format);
+    }
+
+    /**
+     * Opens a AlertDialog with a single choice list with all available formats. The last chosen
+     * format is selected and it is saved as preferred format.
+     * @param context
+     * @param callback
+     */
+    public static void showDialog(final Context context,
+                                  final Callback callback) {
+        String options[] = new String[] {
+                context.getString(R.string.export_format_v2_label),
+                context.getString(R.string.export_format_v1_label) };
+        final int selected = PreferencesUtils.getPreferredExportFormat(context) ==
+                DocumentSerializer.FORMAT_V1 ? 1 : 0;
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(context);
+        builder.setTitle(context.getString(R.string.dialog_export_format_title));
+        builder.setSingleChoiceItems(options, selected, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int selection) {
+                final int format = selection == 1 ? DocumentSerializer.FORMAT_V1 : DocumentSerializer.FORMAT_V2;
+                new AsyncTask<Void, Void, Void>() {
+                    @Override
+                    protected Void doInBackground(Void... v) {
+                        PreferencesUtils.setPreferredExportFormat(context, format);
+                        return null;
+                    }
+                    @Override
+                    protected void onPostExecute(Void aVoid) {
+                        callback.onFormatSelected(format);
+                    }
+                }.execute();
+                dialog.dismiss();
+            }
+        });
+        builder.show();
+    }
+}
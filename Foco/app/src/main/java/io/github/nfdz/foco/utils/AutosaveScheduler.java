@@ -0,0 +1,81 @@
+package io.github.nfdz.foco.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * This class coalesces text edits and decides when they have to be autosaved. It notifies
+ * the callback when the user has stopped typing for an idle window or, if the user keeps
+ * typing, when a maximum interval since the first unsaved edit has passed.
+ * All methods have to be called in the main thread and the callback is called in it too.
+ */
+public class AutosaveScheduler {
+
+    public static final long DEFAULT_IDLE_WINDOW_MILLIS = 2000;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 30000;
+
+    /**
+     * Callback to be implemented to perform the autosave. It should not block the main thread.
+     */
+    public interface Callback {
+        void onAutosave();
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+    private final long mIdleWindow;
+    private final long mMaxInterval;
+
+    /** Time of the first edit that has not been autosaved yet or -1 */
+    private long mFirstEditTime = -1;
+
+    private final Runnable mAutosaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public AutosaveScheduler(Callback callback) {
+        this(callback, DEFAULT_IDLE_WINDOW_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    public AutosaveScheduler(Callback callback, long idleWindowMillis, long maxIntervalMillis) {
+        mCallback = callback;
+        mIdleWindow = idleWindowMillis;
+        mMaxInterval = maxIntervalMillis;
+    }
+
+    /**
+     * Notifies an edit. It postpones the autosave until the idle window passes but never
+     * beyond the maximum interval.
+     */
+    public void onEdit() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstEditTime < 0) mFirstEditTime = now;
+        long deadline = Math.min(now + mIdleWindow, mFirstEditTime + mMaxInterval);
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        mHandler.postAtTime(mAutosaveRunnable, deadline);
+    }
+
+    /**
+     * Performs the autosave now if there are pending edits.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        if (mFirstEditTime >= 0) {
+            mFirstEditTime = -1;
+            mCallback.onAutosave();
+        }
+    }
+
+    /**
+     * Discards pending edits without autosaving them (for example, because they have been
+     * saved by the user).
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mAutosaveRunnable);
+        mFirstEditTime = -1;
+    }
+}
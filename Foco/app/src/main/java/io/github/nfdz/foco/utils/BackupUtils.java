@@ -0,0 +1,414 @@
+package io.github.nfdz.foco.utils;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.v4.provider.DocumentFile;
+import android.support.v7.app.AlertDialog;
+import android.util.LongSparseArray;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import io.github.nfdz.foco.R;
+import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.PreferencesUtils;
+import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.DocumentSerializer;
+import io.github.nfdz.foco.services.BackupService;
+import timber.log.Timber;
+
+/**
+ * This class has static methods to manage the one-way incremental backup of documents to a
+ * folder chosen by the user. A backup runs every day and it only reads the documents modified
+ * (text or metadata) after the newest one of the previous backup (watermark). A manifest kept
+ * in app files stores the content hash and the file of each backed up document, so a document
+ * whose content has not changed is not written again and a changed one overwrites its file.
+ */
+public class BackupUtils {
+
+    private static final int CHOOSE_FOLDER_REQUEST_CODE = 924;
+    private static final int ALARM_REQUEST_CODE = 925;
+
+    private static final String MANIFEST_FILE = "backup-manifest";
+    private static final String MANIFEST_SEPARATOR = "\t";
+
+    /** MIME type of backup files, binary so providers do not change their extension */
+    private static final String FILE_MIME_TYPE = "application/octet-stream";
+    private static final String FILE_NAME_FORMAT = "%s-%d.foco";
+    private static final int MAX_FILE_NAME_LENGTH = 40;
+
+    private static final long BACKUP_INTERVAL_MILLIS = AlarmManager.INTERVAL_DAY;
+
+    /**
+     * Inner static class that defines the result of a backup.
+     */
+    public static class Result {
+        public int written = 0;
+        public int unchanged = 0;
+        public int failed = 0;
+    }
+
+    /**
+     * Inner class that defines a backed up document in the manifest.
+     */
+    private static class ManifestEntry {
+        final long hash;
+        final String uri;
+        ManifestEntry(long hash, String uri) {
+            this.hash = hash;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * This method shows the backup options if it is enabled, if not it starts open document
+     * tree system activity to choose the backup folder.
+     * @param activity
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static void showBackupOptions(final Activity activity) {
+        if (PreferencesUtils.getBackupFolder(activity) == null) {
+            chooseFolder(activity);
+            return;
+        }
+        String options[] = new String[] {
+                activity.getString(R.string.backup_now),
+                activity.getString(R.string.backup_change_folder),
+                activity.getString(R.string.backup_disable) };
+        AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+        builder.setTitle(activity.getString(R.string.dialog_backup_title));
+        builder.setItems(options, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int selection) {
+                if (selection == 0) {
+                    activity.startService(new Intent(activity, BackupService.class));
+                } else if (selection == 1) {
+                    chooseFolder(activity);
+                } else {
+                    setBackupFolder(activity, null);
+                }
+            }
+        });
+        builder.show();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void chooseFolder(Activity activity) {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+        activity.startActivityForResult(intent, CHOOSE_FOLDER_REQUEST_CODE);
+    }
+
+    /**
+     * This methods manage the result of an open document tree activity started by this class.
+     * @param requestCode
+     * @param resultCode
+     * @param resultData
+     * @param context
+     * @return true if activity result was managed by this method, false if not.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static boolean onBackupActivityResult(int requestCode,
+                                                 int resultCode,
+                                                 Intent resultData,
+                                                 Context context) {
+        if (requestCode == CHOOSE_FOLDER_REQUEST_CODE) {
+            if (resultCode == Activity.RESULT_OK && resultData != null && resultData.getData() != null) {
+                Uri treeUri = resultData.getData();
+                // access to the folder has to survive reboots
+                context.getContentResolver().takePersistableUriPermission(treeUri,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+                setBackupFolder(context, treeUri.toString());
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Enables backup in given folder, or disables it, and schedules it accordingly. A new folder
+     * is backed up right away.
+     * @param context
+     * @param folder tree URI or null to disable backup
+     */
+    private static void setBackupFolder(final Context context, @Nullable final String folder) {
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                // backed up files of the manifest belong to the previous folder
+                new File(appContext.getFilesDir(), MANIFEST_FILE).delete();
+                PreferencesUtils.setBackupFolder(appContext, folder);
+                return null;
+            }
+            @Override
+            protected void onPostExecute(Void result) {
+                if (folder != null) {
+                    scheduleBackup(appContext);
+                    appContext.startService(new Intent(appContext, BackupService.class));
+                } else {
+                    cancelBackup(appContext);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Schedules the daily backup if it is enabled and it has not been scheduled (alarms do not
+     * survive reboots, so it is called when the app starts).
+     * @param context
+     */
+    public static void ensureBackupScheduled(Context context) {
+        if (PreferencesUtils.getBackupFolder(context) != null &&
+                getAlarmIntent(context, PendingIntent.FLAG_NO_CREATE) == null) {
+            scheduleBackup(context);
+        }
+    }
+
+    private static void scheduleBackup(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // it does not wake up the device, a backup can wait until it is awake
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + BACKUP_INTERVAL_MILLIS,
+                BACKUP_INTERVAL_MILLIS,
+                getAlarmIntent(context, PendingIntent.FLAG_UPDATE_CURRENT));
+    }
+
+    private static void cancelBackup(Context context) {
+        PendingIntent alarmIntent = getAlarmIntent(context, PendingIntent.FLAG_NO_CREATE);
+        if (alarmIntent != null) {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.cancel(alarmIntent);
+            alarmIntent.cancel();
+        }
+    }
+
+    private static PendingIntent getAlarmIntent(Context context, int flags) {
+        Intent intent = new Intent(context, BackupService.class);
+        return PendingIntent.getService(context, ALARM_REQUEST_CODE, intent, flags);
+    }
+
+    /**
+     * Backs up the documents modified since the last backup. The watermark is kept below the
+     * modification time of the first document that has not been backed up (even if others
+     * with the same time have been), so a failed document is retried the next time.
+     * It has to be called in a background thread (see BackupService).
+     * @param context
+     * @return result or null if backup is disabled or it could not be done
+     */
+    @Nullable
+    public static Result backup(Context context) {
+        String folder = PreferencesUtils.getBackupFolder(context);
+        if (folder == null) return null;
+        DocumentFile tree = DocumentFile.fromTreeUri(context, Uri.parse(folder));
+        if (tree == null || !tree.canWrite()) {
+            Timber.e("Backup folder cannot be written " + folder);
+            return null;
+        }
+
+        Result result = new Result();
+        long watermark = PreferencesUtils.getBackupWatermark(context);
+        LongSparseArray<ManifestEntry> manifest = readManifest(context);
+        DataExecutor executor = DataExecutor.getInstance(context);
+        try {
+            // documents modified while it runs are not in the list, they are newer than this
+            long limit = System.currentTimeMillis() - 1;
+            long newWatermark = watermark;
+            final long lastWatermark = watermark;
+            List<Long> docIds = executor.read(DataExecutor.PRIORITY_LOW, new DataExecutor.Task<List<Long>>() {
+                @Override
+                public List<Long> run(AppDatabase db) {
+                    return db.documentDao().getDocumentIdsModifiedAfter(lastWatermark);
+                }
+            }, null).get();
+            for (final Long docId : docIds) {
+                // documents are read one by one so only one is held in memory
+                DocumentEntity doc = executor.read(DataExecutor.PRIORITY_LOW, new DataExecutor.Task<DocumentEntity>() {
+                    @Override
+                    public DocumentEntity run(AppDatabase db) {
+                        DocumentEntity entity = db.documentDao().getDocument(docId);
+                        if (entity != null) entity.text = db.loadDocumentText(docId);
+                        return entity;
+                    }
+                }, null).get();
+                // it has been deleted meanwhile
+                if (doc == null) continue;
+
+                long hash = hashContent(doc);
+                ManifestEntry entry = manifest.get(docId);
+                if (entry != null && entry.hash == hash) {
+                    result.unchanged++;
+                } else {
+                    String uri = writeDocument(context, tree, doc, entry);
+                    if (uri != null) {
+                        manifest.put(docId, new ManifestEntry(hash, uri));
+                        result.written++;
+                    } else {
+                        result.failed++;
+                        limit = Math.min(limit, doc.modificationTime - 1);
+                    }
+                }
+                newWatermark = Math.max(newWatermark, doc.modificationTime);
+            }
+            watermark = Math.max(watermark, Math.min(newWatermark, limit));
+        } catch (InterruptedException | ExecutionException e) {
+            Timber.e(e, "Error reading documents to back up");
+            // watermark is not advanced, the manifest skips the unchanged documents next time
+        }
+        writeManifest(context, manifest);
+        PreferencesUtils.setBackupWatermark(context, watermark);
+        Timber.d("Backup finished written=" + result.written + " unchanged=" + result.unchanged +
+                " failed=" + result.failed);
+        return result;
+    }
+
+    /**
+     * This method computes the hash of the content of the document. Edition and working times
+     * are not content, so a document saved without changes is not written again. Metadata
+     * is content, its changes set the modification time so the document is read again.
+     * @param doc
+     * @return hash
+     */
+    private static long hashContent(DocumentEntity doc) {
+        String metadata = doc.name + '\n' + doc.favorite + '\n' + doc.coverColor + '\n' + doc.coverImage;
+        return EditJournalUtils.hashText(doc.text) * 31 + EditJournalUtils.hashText(metadata);
+    }
+
+    /**
+     * This method writes the document in its backup file, or in a new one if it has not got
+     * one or it has been deleted.
+     * @param context
+     * @param tree
+     * @param doc
+     * @param entry manifest entry of the document if it has been backed up before
+     * @return URI of the written file or null if there was an error
+     */
+    @Nullable
+    private static String writeDocument(Context context,
+                                        DocumentFile tree,
+                                        DocumentEntity doc,
+                                        @Nullable ManifestEntry entry) {
+        ContentResolver resolver = context.getContentResolver();
+        Uri uri = null;
+        OutputStream out = null;
+        try {
+            if (entry != null) {
+                uri = Uri.parse(entry.uri);
+                try {
+                    out = resolver.openOutputStream(uri, "wt");
+                } catch (FileNotFoundException | SecurityException e) {
+                    Timber.d("Backup file was deleted " + entry.uri);
+                }
+            }
+            if (out == null) {
+                DocumentFile file = tree.createFile(FILE_MIME_TYPE, getFileName(doc));
+                if (file == null) return null;
+                uri = file.getUri();
+                out = resolver.openOutputStream(uri, "wt");
+                if (out == null) return null;
+            }
+            DocumentSerializer.serialize(doc, out, DocumentSerializer.FORMAT_V1);
+            return uri.toString();
+        } catch (IOException e) {
+            Timber.e(e, "Error writing backup file of document " + doc.id);
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // swallow
+                }
+            }
+        }
+    }
+
+    private static String getFileName(DocumentEntity doc) {
+        String name = doc.name == null ? "" : doc.name.replaceAll("[^\\p{L}\\p{N} _-]", "_").trim();
+        if (name.length() > MAX_FILE_NAME_LENGTH) name = name.substring(0, MAX_FILE_NAME_LENGTH);
+        return String.format(FILE_NAME_FORMAT, name, doc.id);
+    }
+
+    private static LongSparseArray<ManifestEntry> readManifest(Context context) {
+        LongSparseArray<ManifestEntry> manifest = new LongSparseArray<>();
+        File file = new File(context.getFilesDir(), MANIFEST_FILE);
+        if (!file.exists()) return manifest;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(MANIFEST_SEPARATOR);
+                if (fields.length != 3) continue;
+                try {
+                    manifest.put(Long.parseLong(fields[0]), new ManifestEntry(Long.parseLong(fields[1]), fields[2]));
+                } catch (NumberFormatException e) {
+                    Timber.w("Invalid backup manifest line " + line);
+                }
+            }
+        } catch (IOException e) {
+            // documents will be written again
+            Timber.e(e, "Error reading backup manifest");
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // swallow
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private static void writeManifest(Context context, LongSparseArray<ManifestEntry> manifest) {
+        // it is written in a temporary file and renamed, so it is never left half written
+        File file = new File(context.getFilesDir(), MANIFEST_FILE);
+        File tmpFile = new File(context.getFilesDir(), MANIFEST_FILE + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            for (int i = 0; i < manifest.size(); i++) {
+                ManifestEntry entry = manifest.valueAt(i);
+                writer.write(manifest.keyAt(i) + MANIFEST_SEPARATOR + entry.hash + MANIFEST_SEPARATOR + entry.uri);
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(file)) Timber.e("Error renaming backup manifest");
+        } catch (IOException e) {
+            Timber.e(e, "Error writing backup manifest");
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // swallow
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package io.github.nfdz.foco.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
+import android.support.v4.provider.DocumentFile;
+import android.text.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.CorruptedDocumentException;
+import io.github.nfdz.foco.model.Document;
+import io.github.nfdz.foco.model.DocumentSerializer;
+import io.github.nfdz.foco.model.SerializationException;
+import timber.log.Timber;
+
+/**
+ * This task imports many files at once (several chosen files or all files of a folder tree).
+ * Files are parsed in parallel by a bounded pool of threads and parsed documents are inserted
+ * in batches, each one in a single write operation (one transaction and one change
+ * notification). There is a bounded number of files being parsed or waiting to be inserted,
+ * so memory does not grow with the number of files. Big files are not read as a whole, their
+ * parser thread imports them in chunks (see TasksUtils.beginImport).
+ * Files that are empty or are not text are skipped, files that can not be read or stored and
+ * corrupted documents are failed. If the task is cancelled, the documents that have been
+ * inserted are kept and the ones that were parsed but not inserted are skipped.
+ */
+public class BulkImportTask extends AsyncTask<Void, Integer, BulkImportTask.Summary> {
+
+    /**
+     * Callback to be implemented to be notified of the progress and the result of the import.
+     * It is called in the main thread.
+     */
+    public interface Callback {
+        void onProgress(int processed, int total);
+        void onFinish(Summary summary, boolean cancelled);
+    }
+
+    /**
+     * Inner static class that defines the result of an import.
+     */
+    public static class Summary {
+        public int imported = 0;
+        public int skipped = 0;
+        public int failed = 0;
+    }
+
+    /** Maximum number of documents inserted in a single transaction */
+    private static final int BATCH_SIZE = 50;
+
+    /** Maximum number of characters of the documents inserted in a single transaction */
+    private static final int BATCH_MAX_CHARS = 2 * 1024 * 1024;
+
+    private static final int MAX_PARSER_THREADS = 4;
+
+    /** Number of files that can be parsed or waiting for each parser thread */
+    private static final int FILES_PER_THREAD = 2;
+
+    /** Files with more bytes than this are imported in chunks instead of being read whole */
+    private static final long STREAMING_MIN_BYTES = 1024 * 1024;
+
+    /** Number of characters of each chunk of a streaming import */
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    /** Maximum number of chunks of a streaming import that are waiting to be written */
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    private static final String TEXT_MIME_TYPE_PREFIX = "text/";
+    private static final String BINARY_MIME_TYPE = "application/octet-stream";
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    private static final int STATUS_PARSED = 0;
+    private static final int STATUS_SKIPPED = 1;
+    private static final int STATUS_FAILED = 2;
+    /** The file has been imported by its parser thread (streaming import) */
+    private static final int STATUS_IMPORTED = 3;
+
+    /**
+     * Inner static class that defines the result of parsing a file.
+     */
+    private static class ParsedFile {
+        final int status;
+        final DocumentEntity document;
+        ParsedFile(int status, @Nullable DocumentEntity document) {
+            this.status = status;
+            this.document = document;
+        }
+    }
+
+    private final Context mContext;
+    @Nullable private final List<Uri> mUris;
+    @Nullable private final Uri mTreeUri;
+    private final Callback mCallback;
+
+    private BulkImportTask(Context context,
+                           @Nullable List<Uri> uris,
+                           @Nullable Uri treeUri,
+                           Callback callback) {
+        mContext = context.getApplicationContext();
+        mUris = uris;
+        mTreeUri = treeUri;
+        mCallback = callback;
+    }
+
+    /**
+     * Creates a task that imports given files.
+     * @param context
+     * @param uris
+     * @param callback
+     * @return task, it has to be executed
+     */
+    public static BulkImportTask fromFiles(Context context, List<Uri> uris, Callback callback) {
+        return new BulkImportTask(context, uris, null, callback);
+    }
+
+    /**
+     * Creates a task that imports all files of given folder tree (see ACTION_OPEN_DOCUMENT_TREE).
+     * @param context
+     * @param treeUri
+     * @param callback
+     * @return task, it has to be executed
+     */
+    public static BulkImportTask fromTree(Context context, Uri treeUri, Callback callback) {
+        return new BulkImportTask(context, null, treeUri, callback);
+    }
+
+    @Override
+    protected Summary doInBackground(Void... params) {
+        Summary summary = new Summary();
+        List<DocumentFile> files = listFiles();
+        int total = files.size();
+        publishProgress(0, total);
+
+        int threads = Math.max(1, Math.min(MAX_PARSER_THREADS, Runtime.getRuntime().availableProcessors()));
+        int window = threads * FILES_PER_THREAD;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<ParsedFile> parser = new ExecutorCompletionService<>(pool);
+        List<DocumentEntity> batch = new ArrayList<>();
+        int batchChars = 0;
+        // a batch is parsed while the previous one is inserted
+        Future<Integer> pendingBatch = null;
+        int pendingBatchSize = 0;
+        int submitted = 0;
+        int processed = 0;
+        try {
+            while (processed < total && !isCancelled()) {
+                while (submitted < total && submitted - processed < window) {
+                    final DocumentFile file = files.get(submitted++);
+                    parser.submit(new Callable<ParsedFile>() {
+                        @Override
+                        public ParsedFile call() {
+                            return parse(file);
+                        }
+                    });
+                }
+                ParsedFile parsed = parser.take().get();
+                processed++;
+                if (parsed.status == STATUS_SKIPPED) {
+                    summary.skipped++;
+                } else if (parsed.status == STATUS_FAILED) {
+                    summary.failed++;
+                } else if (parsed.status == STATUS_IMPORTED) {
+                    summary.imported++;
+                } else {
+                    batch.add(parsed.document);
+                    batchChars += parsed.document.text.length();
+                }
+                boolean isLast = processed == total;
+                if (!batch.isEmpty() && (isLast || batch.size() >= BATCH_SIZE || batchChars >= BATCH_MAX_CHARS)) {
+                    waitBatch(pendingBatch, pendingBatchSize, summary);
+                    pendingBatch = TasksUtils.importDocuments(mContext, batch);
+                    pendingBatchSize = batch.size();
+                    batch = new ArrayList<>();
+                    batchChars = 0;
+                }
+                publishProgress(processed, total);
+            }
+            waitBatch(pendingBatch, pendingBatchSize, summary);
+            // the batch that was being filled when it was cancelled is not inserted
+            summary.skipped += batch.size();
+        } catch (InterruptedException | ExecutionException e) {
+            // parse does not throw so it should not happen
+            Timber.e(e, "Bulk import was interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+        return summary;
+    }
+
+    private static void waitBatch(@Nullable Future<Integer> batch, int size, Summary summary)
+            throws InterruptedException {
+        if (batch == null) return;
+        Integer inserted = null;
+        try {
+            inserted = batch.get();
+        } catch (ExecutionException e) {
+            Timber.e(e, "Error storing imported documents");
+        }
+        int imported = inserted != null ? inserted : 0;
+        summary.imported += imported;
+        summary.failed += size - imported;
+    }
+
+    private List<DocumentFile> listFiles() {
+        List<DocumentFile> files = new ArrayList<>();
+        if (mTreeUri != null) {
+            DocumentFile tree = DocumentFile.fromTreeUri(mContext, mTreeUri);
+            if (tree != null) addFiles(tree, files);
+        } else if (mUris != null) {
+            for (Uri uri : mUris) {
+                files.add(DocumentFile.fromSingleUri(mContext, uri));
+            }
+        }
+        return files;
+    }
+
+    private static void addFiles(DocumentFile dir, List<DocumentFile> files) {
+        for (DocumentFile file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                addFiles(file, files);
+            } else {
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * This method reads a file as a document, if it is not a document it is read as text.
+     * A big file is imported by this method instead (see importStreaming).
+     * It is called in a parser thread.
+     * @param file
+     * @return ParsedFile
+     */
+    private ParsedFile parse(DocumentFile file) {
+        String type = file.getType();
+        long length = file.length();
+        if (length == 0 ||
+                (type != null && !type.startsWith(TEXT_MIME_TYPE_PREFIX) && !BINARY_MIME_TYPE.equals(type))) {
+            return new ParsedFile(STATUS_SKIPPED, null);
+        }
+        try {
+            InputStream in = openInput(file);
+            try {
+                Document metadata;
+                Reader text;
+                boolean isFocoDocument;
+                try {
+                    DocumentSerializer.DocumentInput input = DocumentSerializer.open(in);
+                    metadata = input.metadata;
+                    text = input.text;
+                    isFocoDocument = true;
+                } catch (CorruptedDocumentException e) {
+                    Timber.e("Document is corrupted " + file.getUri());
+                    return new ParsedFile(STATUS_FAILED, null);
+                } catch (SerializationException e) {
+                    // it is imported as an external text file, so it is read again from the start
+                    in.close();
+                    in = openInput(file);
+                    DocumentSerializer.DocumentImpl document = new DocumentSerializer.DocumentImpl();
+                    String name = file.getName();
+                    document.name = TextUtils.isEmpty(name) ? new SimpleDateFormat(DATE_FORMAT).format(new Date()) : name;
+                    metadata = document;
+                    text = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                    isFocoDocument = false;
+                }
+                if (length > STREAMING_MIN_BYTES) return importStreaming(metadata, text);
+                DocumentEntity document = new DocumentEntity(metadata);
+                document.text = readText(text);
+                if (document.text.isEmpty() && !isFocoDocument) return new ParsedFile(STATUS_SKIPPED, null);
+                document.words = TasksUtils.countWords(document.text);
+                return new ParsedFile(STATUS_PARSED, document);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Error reading document " + file.getUri());
+            return new ParsedFile(STATUS_FAILED, null);
+        }
+    }
+
+    /**
+     * This method imports a document streaming its text, so it is never held in memory as a
+     * whole. Its chunks are appended to the new document and there is a bounded number of them
+     * waiting to be written. If it fails or the task is cancelled, the document is deleted.
+     * It is called in a parser thread.
+     * @param metadata
+     * @param text
+     * @return ParsedFile
+     * @throws IOException
+     */
+    private ParsedFile importStreaming(Document metadata, Reader text) throws IOException {
+        long docId = Document.NULL_ID;
+        boolean imported = false;
+        try {
+            docId = TasksUtils.beginImport(mContext, metadata).get();
+            if (docId == Document.NULL_ID) return new ParsedFile(STATUS_FAILED, null);
+            Deque<Future<Void>> pendingChunks = new ArrayDeque<>();
+            WordCountUtils.Counter words = new WordCountUtils.Counter();
+            char[] buffer = new char[CHUNK_SIZE];
+            CharBuffer chunk = CharBuffer.wrap(buffer);
+            int length = 0;
+            int read;
+            while ((read = text.read(buffer, 0, buffer.length)) != -1) {
+                if (isCancelled()) return new ParsedFile(STATUS_SKIPPED, null);
+                words.append(chunk, 0, read);
+                pendingChunks.add(TasksUtils.appendImportedText(mContext, docId, length, new String(buffer, 0, read)));
+                length += read;
+                if (pendingChunks.size() >= MAX_PENDING_CHUNKS) pendingChunks.poll().get();
+            }
+            while (!pendingChunks.isEmpty()) {
+                pendingChunks.poll().get();
+            }
+            imported = TasksUtils.finishImport(mContext, docId, length, words.finish()).get() != null;
+            return new ParsedFile(imported ? STATUS_IMPORTED : STATUS_FAILED, null);
+        } catch (InterruptedException | ExecutionException e) {
+            Timber.e(e, "Error storing imported document");
+            return new ParsedFile(STATUS_FAILED, null);
+        } finally {
+            if (!imported && docId != Document.NULL_ID) TasksUtils.abortImport(mContext, docId);
+        }
+    }
+
+    private InputStream openInput(DocumentFile file) throws IOException {
+        InputStream in = mContext.getContentResolver().openInputStream(file.getUri());
+        if (in == null) throw new IOException("Cannot open " + file.getUri());
+        return in;
+    }
+
+    private static String readText(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8 * 1024];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mCallback.onProgress(values[0], values[1]);
+    }
+
+    @Override
+    protected void onPostExecute(Summary summary) {
+        mCallback.onFinish(summary, false);
+    }
+
+    @Override
+    protected void onCancelled(Summary summary) {
+        mCallback.onFinish(summary != null ? summary : new Summary(), true);
+    }
+}
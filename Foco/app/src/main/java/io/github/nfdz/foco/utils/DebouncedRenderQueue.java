@@ -0,0 +1,169 @@
+package io.github.nfdz.foco.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * This class queues renders of a content that is being edited. A render starts when the user
+ * has stopped editing for an idle window, so there is at most one render per idle window, and
+ * it cancels the previous one. Renders run one by one in a background thread and the result of
+ * a render that has been superseded (stale) is dropped.
+ * All methods have to be called in the main thread and the callback is called in it too.
+ * @param <T> result of a render
+ */
+public class DebouncedRenderQueue<T> {
+
+    public static final long DEFAULT_IDLE_WINDOW_MILLIS = 300;
+
+    /**
+     * Callback to be implemented to render the content.
+     * @param <T>
+     */
+    public interface Callback<T> {
+        /**
+         * Creates the render of the current content. It is called in the main thread, so it
+         * can take a snapshot of the content, and the job is called in a background thread.
+         * @return job or null if there is nothing to render
+         */
+        @Nullable
+        Callable<T> onCreateRender();
+
+        /**
+         * Notifies the result of the last render.
+         * @param result
+         */
+        void onRendered(T result);
+    }
+
+    /**
+     * Interface of the thread where the queue is used. It is replaced in tests by one that is
+     * driven by a controllable clock.
+     */
+    interface MainThread {
+        void post(Runnable runnable);
+        void postDelayed(Runnable runnable, long delayMillis);
+        void removeCallbacks(Runnable runnable);
+    }
+
+    /**
+     * Main thread implementation backed by a handler of the main looper.
+     */
+    private static class HandlerMainThread implements MainThread {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        @Override
+        public void post(Runnable runnable) {
+            mHandler.post(runnable);
+        }
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            mHandler.postDelayed(runnable, delayMillis);
+        }
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            mHandler.removeCallbacks(runnable);
+        }
+    }
+
+    private final MainThread mHandler;
+    private final ExecutorService mExecutor;
+    private final Callback<T> mCallback;
+    private final long mIdleWindow;
+
+    /** Generation of the last render, the results of other generations are stale */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private Future<?> mRunning;
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            renderNow();
+        }
+    };
+
+    public DebouncedRenderQueue(Callback<T> callback) {
+        this(callback, DEFAULT_IDLE_WINDOW_MILLIS);
+    }
+
+    public DebouncedRenderQueue(Callback<T> callback, long idleWindowMillis) {
+        this(callback, idleWindowMillis, new HandlerMainThread(), Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Creates a queue that posts to given main thread and renders in given executor (it is
+     * package-private to be used in tests).
+     */
+    DebouncedRenderQueue(Callback<T> callback, long idleWindowMillis, MainThread mainThread,
+                         ExecutorService executor) {
+        mCallback = callback;
+        mIdleWindow = idleWindowMillis;
+        mHandler = mainThread;
+        mExecutor = executor;
+    }
+
+    /**
+     * Notifies an edit. It postpones the render until the idle window passes.
+     */
+    public void onEdit() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mHandler.postDelayed(mRenderRunnable, mIdleWindow);
+    }
+
+    /**
+     * Renders the current content now, the previous render is cancelled.
+     */
+    public void renderNow() {
+        cancel();
+        final Callable<T> render = mCallback.onCreateRender();
+        if (render == null) return;
+        final int generation = mGeneration.get();
+        mRunning = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get()) return;
+                final T result;
+                try {
+                    result = render.call();
+                } catch (Exception e) {
+                    Timber.e(e, "Error rendering");
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration.get()) mCallback.onRendered(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels the pending render and drops the result of the running one.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mGeneration.incrementAndGet();
+        if (mRunning != null) {
+            // a running render cannot be interrupted, but if it has not started it is not run
+            mRunning.cancel(false);
+            mRunning = null;
+        }
+    }
+
+    /**
+     * Cancels renders and releases the background thread. The queue cannot be used anymore.
+     */
+    public void release() {
+        cancel();
+        mExecutor.shutdown();
+    }
+}
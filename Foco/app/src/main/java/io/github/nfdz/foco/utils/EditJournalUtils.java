@@ -0,0 +1,89 @@
+package io.github.nfdz.foco.utils;
+
+import java.util.List;
+
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
+import timber.log.Timber;
+
+/**
+ * This class has static methods to record text edits and to apply them to document text.
+ */
+public class EditJournalUtils {
+
+    /**
+     * Appends given edit (as notified by TextWatcher.onTextChanged) to the list. If it continues
+     * the last edit (typing or deleting at its end) they are merged, so a typed word is
+     * stored as a single edit.
+     * @param edits pending edits, they are not persisted yet
+     * @param docId
+     * @param start
+     * @param before number of replaced characters
+     * @param inserted text that replaces them
+     */
+    public static void recordEdit(List<DocumentEditEntity> edits,
+                                  long docId,
+                                  int start,
+                                  int before,
+                                  CharSequence inserted) {
+        if (before == 0 && inserted.length() == 0) return;
+        if (!edits.isEmpty()) {
+            DocumentEditEntity last = edits.get(edits.size() - 1);
+            if (last.removed != DocumentEditEntity.REMOVE_ALL) {
+                int lastEnd = last.start + last.inserted.length();
+                if (before == 0 && start == lastEnd) {
+                    // typing after the last edit
+                    last.inserted = last.inserted + inserted;
+                    return;
+                } else if (inserted.length() == 0 && start + before == lastEnd && start >= last.start) {
+                    // deleting text inserted by the last edit
+                    last.inserted = last.inserted.substring(0, start - last.start);
+                    return;
+                }
+            }
+        }
+        edits.add(new DocumentEditEntity(docId, start, before, inserted.toString()));
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of given text. It is used to know cheaply if the text
+     * has changed since the last time that it was stored.
+     * @param text
+     * @return hash
+     */
+    public static long hashText(CharSequence text) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Applies given edits in order to given text. An edit whose range is out of the text (the
+     * edits it was based on were lost) is skipped instead of failing, so the document can
+     * still be loaded and edited.
+     * @param text base text
+     * @param edits
+     * @return edited text
+     */
+    public static String applyEdits(String text, List<DocumentEditEntity> edits) {
+        if (edits.isEmpty()) return text;
+        StringBuilder bld = new StringBuilder(text != null ? text : "");
+        for (DocumentEditEntity edit : edits) {
+            if (edit.removed == DocumentEditEntity.REMOVE_ALL) {
+                bld.setLength(0);
+                bld.append(edit.inserted);
+            } else if (edit.start < 0 || edit.removed < 0 || edit.start + edit.removed > bld.length()) {
+                Timber.w("Skipped journal edit out of range: doc=" + edit.documentId + " start=" + edit.start
+                        + " removed=" + edit.removed + " length=" + bld.length());
+            } else {
+                bld.replace(edit.start, edit.start + edit.removed, edit.inserted);
+            }
+        }
+        return bld.toString();
+    }
+}
@@ -2,27 +2,45 @@ package io.github.nfdz.foco.utils;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.ClipData;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.support.v4.provider.DocumentFile;
+import android.support.v7.app.AlertDialog;
 import android.text.TextUtils;
 import android.widget.Toast;
 
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Scanner;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.github.nfdz.foco.R;
 import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.MutationBuffer;
+import io.github.nfdz.foco.data.PreferencesUtils;
 import io.github.nfdz.foco.data.entity.DocumentEntity;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 import io.github.nfdz.foco.model.Callbacks;
+import io.github.nfdz.foco.model.CorruptedDocumentException;
 import io.github.nfdz.foco.model.Document;
 import io.github.nfdz.foco.model.DocumentSerializer;
 import io.github.nfdz.foco.model.SerializationException;
@@ -34,9 +52,15 @@ import timber.log.Timber;
 public class ImportExportUtils {
 
     private static final int READ_REQUEST_CODE = 921;
+    private static final int READ_TREE_REQUEST_CODE = 922;
     private static final int WRITE_REQUEST_CODE = 886;
+    private static final int READ_LIBRARY_REQUEST_CODE = 923;
+    private static final int WRITE_LIBRARY_REQUEST_CODE = 887;
 
     private static final String MIME_TYPE = "text/*";
+    private static final String BINARY_MIME_TYPE = "application/octet-stream";
+    private static final String ARCHIVE_MIME_TYPE = "application/zip";
+    private static final String SUGGESTED_ARCHIVE_NAME_FORMAT = "foco-library-%s.zip";
     private static final String SUGGESTED_NAME_FORMAT = "%s-%s.foco";
     private static final String DATE_FORMAT = "yyyy-MM-dd";
 
@@ -50,12 +74,25 @@ public class ImportExportUtils {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         // show only results that can be "opened", such as a file
         intent.addCategory(Intent.CATEGORY_OPENABLE);
-        // filter to show only plain text
-        intent.setType(MIME_TYPE);
+        // filter to show only plain text and binary files (version 2 documents)
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] { MIME_TYPE, BINARY_MIME_TYPE });
+        // many files can be imported at once
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
 
         activity.startActivityForResult(intent, READ_REQUEST_CODE);
     }
 
+    /**
+     * This method starts open document tree system activity, to import all files of a folder.
+     * @param activity
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static void importFolder(Activity activity) {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+        activity.startActivityForResult(intent, READ_TREE_REQUEST_CODE);
+    }
+
     /**
      * This methods manage the result of an open document activity.
      * @param requestCode
@@ -69,84 +106,31 @@ public class ImportExportUtils {
                                                  Intent resultData,
                                                  final Context context) {
         if (requestCode == READ_REQUEST_CODE) {
-            // URI to user document is contained in the return intent
-            if (resultCode == Activity.RESULT_OK && resultData != null && resultData.getData() != null) {
-                final Uri uri = resultData.getData();
-                new AsyncTask<Void, Void, Void>(){
-                    private Document document;
-                    private String error;
-                    private String warning;
-                    @Override
-                    protected Void doInBackground(Void... params) {
-                        InputStream in = null;
-                        try {
-                            DocumentFile file = DocumentFile.fromSingleUri(context, uri);
-                            in = context.getContentResolver().openInputStream(file.getUri());
-                            if (in.available() != 0) {
-                                String inputStreamString = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
-                                try {
-                                    document = DocumentSerializer.deserializeDocument(inputStreamString);
-                                } catch (SerializationException e) {
-                                    DocumentSerializer.DocumentImpl documentImpl = new DocumentSerializer.DocumentImpl();
-                                    documentImpl.text = inputStreamString;
-                                    String name = file.getName();
-                                    if (TextUtils.isEmpty(name)) {
-                                        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-                                        String currentDate = sdf.format(new Date());
-                                        documentImpl.name = currentDate;
-                                    } else {
-                                        documentImpl.name = name;
-                                    }
-                                    document = documentImpl;
-                                    warning = context.getString(R.string.import_warning_metadata);
-                                }
-                            } else {
-                                error = context.getString(R.string.import_error_empty);
-                            }
-                        } catch (IOException e) {
-                            Timber.e(e, "Error reading document");
-                            error = context.getString(R.string.import_error_reading);
-                        } finally {
-                            if (in != null) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    // swallow
-                                }
-                            }
-                        }
-                        return null;
-                    }
-                    @Override
-                    protected void onPostExecute(Void v) {
-                        if (document != null) {
-                            TasksUtils.importDocument(context,
-                                    document,
-                                    new Callbacks.FinishCallback<DocumentMetadata>() {
-                                @Override
-                                public void onFinish(DocumentMetadata result) {
-                                    if (result != null) {
-                                        if (warning != null) {
-                                            Toast.makeText(context, warning, Toast.LENGTH_LONG).show();
-                                        } else {
-                                            Toast.makeText(context, R.string.import_success, Toast.LENGTH_LONG).show();
-                                        }
-                                    } else {
-                                        String msg = context.getString(R.string.import_error_format,
-                                                context.getString(R.string.import_error_db));
-                                        Toast.makeText(context,
-                                                msg,
-                                                Toast.LENGTH_LONG).show();
-                                    }
-                                }
-                            });
-                        } else {
-                            Toast.makeText(context,
-                                    context.getString(R.string.import_error_format, error),
-                                    Toast.LENGTH_LONG).show();
-                        }
+            // URIs to user documents are contained in the return intent
+            List<Uri> uris = new ArrayList<>();
+            if (resultCode == Activity.RESULT_OK && resultData != null) {
+                ClipData clipData = resultData.getClipData();
+                if (clipData != null) {
+                    for (int i = 0; i < clipData.getItemCount(); i++) {
+                        uris.add(clipData.getItemAt(i).getUri());
                     }
-                }.execute();
+                } else if (resultData.getData() != null) {
+                    uris.add(resultData.getData());
+                }
+            }
+            if (uris.size() == 1) {
+                new ImportTask(context, uris.get(0)).execute();
+            } else if (uris.size() > 1) {
+                BulkImportProgress progress = new BulkImportProgress(context);
+                progress.start(BulkImportTask.fromFiles(context, uris, progress));
+            } else if (resultCode != Activity.RESULT_CANCELED) {
+                Toast.makeText(context, R.string.file_error, Toast.LENGTH_LONG).show();
+            }
+            return true;
+        } else if (requestCode == READ_TREE_REQUEST_CODE) {
+            if (resultCode == Activity.RESULT_OK && resultData != null && resultData.getData() != null) {
+                BulkImportProgress progress = new BulkImportProgress(context);
+                progress.start(BulkImportTask.fromTree(context, resultData.getData(), progress));
             } else if (resultCode != Activity.RESULT_CANCELED) {
                 Toast.makeText(context, R.string.file_error, Toast.LENGTH_LONG).show();
             }
@@ -160,17 +144,19 @@ public class ImportExportUtils {
      * This method starts create document system activity.
      * @param activity
      * @param doc
+     * @param format DocumentSerializer format, it has to be the preferred export format
      */
     @TargetApi(Build.VERSION_CODES.KITKAT)
     public static void exportDocument(Activity activity,
-                                      DocumentMetadata doc) {
+                                      DocumentMetadata doc,
+                                      int format) {
         Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
 
         // show only results that can be "opened", such as a file
         intent.addCategory(Intent.CATEGORY_OPENABLE);
 
-        // create a file with plain text MIME type
-        intent.setType(MIME_TYPE);
+        // create a file with plain text MIME type (or binary if it is a version 2 document)
+        intent.setType(format == DocumentSerializer.FORMAT_V1 ? MIME_TYPE : BINARY_MIME_TYPE);
         SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         String currentDate = sdf.format(new Date());
         String suggestedName = String.format(SUGGESTED_NAME_FORMAT, doc.getName(), currentDate);
@@ -196,17 +182,22 @@ public class ImportExportUtils {
             // URI to user document is contained in the return intent
             if (resultCode == Activity.RESULT_OK && resultData != null && resultData.getData() != null) {
                 final Uri uri = resultData.getData();
-                new AsyncTask<Void,Void,Boolean>() {
+                final int format = PreferencesUtils.getPreferredExportFormat(context);
+                // it is not urgent so it should not delay reads that the user is waiting for
+                // exported metadata has to include mutations that are still buffered
+                MutationBuffer.getInstance(context).readAfterFlush(docMetadata.getId(),
+                        DataExecutor.PRIORITY_LOW,
+                        new DataExecutor.Task<Boolean>() {
                     @Override
-                    protected Boolean doInBackground(Void... params) {
-                        DocumentEntity entity = AppDatabase.getInstance(context)
-                                .documentDao().getDocument(docMetadata.getId());
-                        String serializedDoc = DocumentSerializer.serializeDocument(entity);
+                    public Boolean run(AppDatabase db) {
+                        DocumentEntity entity = db.documentDao().getDocument(docMetadata.getId());
+                        entity.text = db.loadDocumentText(docMetadata.getId());
                         OutputStream out = null;
                         try {
                             DocumentFile newFile = DocumentFile.fromSingleUri(context, uri);
                             out = context.getContentResolver().openOutputStream(newFile.getUri());
-                            out.write(serializedDoc.getBytes("UTF-8"));
+                            // it is encoded while it is written, without a serialized copy
+                            DocumentSerializer.serialize(entity, out, format);
                             return true;
                         } catch (IOException e) {
                             Timber.d(e, "There was an error writing file where to export document");
@@ -221,15 +212,68 @@ public class ImportExportUtils {
                             }
                         }
                     }
+                }, new Callbacks.FinishCallback<Boolean>() {
                     @Override
-                    protected void onPostExecute(Boolean result) {
+                    public void onFinish(Boolean result) {
                         if (Boolean.TRUE.equals(result)) {
                             Toast.makeText(context, R.string.export_success, Toast.LENGTH_LONG).show();
                         } else {
                             Toast.makeText(context, R.string.export_error, Toast.LENGTH_LONG).show();
                         }
                     }
-                }.execute();
+                });
+            } else if (resultCode != Activity.RESULT_CANCELED) {
+                Toast.makeText(context, R.string.file_error, Toast.LENGTH_LONG).show();
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * This method starts create document system activity to export all documents to an archive.
+     * @param activity
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static void exportLibrary(Activity activity) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ARCHIVE_MIME_TYPE);
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        intent.putExtra(Intent.EXTRA_TITLE, String.format(SUGGESTED_ARCHIVE_NAME_FORMAT, sdf.format(new Date())));
+        activity.startActivityForResult(intent, WRITE_LIBRARY_REQUEST_CODE);
+    }
+
+    /**
+     * This method starts open document system activity to restore an archive of documents.
+     * @param activity
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static void importLibrary(Activity activity) {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(ARCHIVE_MIME_TYPE);
+        activity.startActivityForResult(intent, READ_LIBRARY_REQUEST_CODE);
+    }
+
+    /**
+     * This methods manage the result of the activities of exportLibrary and importLibrary.
+     * @param requestCode
+     * @param resultCode
+     * @param resultData
+     * @param context
+     * @return true if activity result was managed by this method, false if not.
+     */
+    public static boolean onLibraryActivityResult(int requestCode,
+                                                  int resultCode,
+                                                  Intent resultData,
+                                                  Context context) {
+        if (requestCode == WRITE_LIBRARY_REQUEST_CODE || requestCode == READ_LIBRARY_REQUEST_CODE) {
+            if (resultCode == Activity.RESULT_OK && resultData != null && resultData.getData() != null) {
+                new LibraryArchiveTask(context,
+                        resultData.getData(),
+                        requestCode == WRITE_LIBRARY_REQUEST_CODE).execute();
             } else if (resultCode != Activity.RESULT_CANCELED) {
                 Toast.makeText(context, R.string.file_error, Toast.LENGTH_LONG).show();
             }
@@ -238,4 +282,420 @@ public class ImportExportUtils {
             return false;
         }
     }
+
+    /**
+     * Exports all documents to an archive or restores an archive (see LibraryArchiveUtils).
+     * It shows a progress dialog that allows to cancel it, a cancelled export leaves an
+     * incomplete archive and a cancelled restore keeps the documents restored until then.
+     */
+    private static class LibraryArchiveTask extends AsyncTask<Void, Integer, LibraryArchiveUtils.Result>
+            implements LibraryArchiveUtils.Progress {
+
+        private final Context mContext;
+        private final Uri mUri;
+        private final boolean mExport;
+        private ProgressDialog mProgressDialog;
+        private Future<Boolean> mFlush;
+        private CountingInputStream mInput;
+        private long mTotalBytes;
+
+        LibraryArchiveTask(Context context, Uri uri, boolean export) {
+            mContext = context;
+            mUri = uri;
+            mExport = export;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            // exported metadata has to include mutations that are still buffered
+            if (mExport) mFlush = MutationBuffer.getInstance(mContext).flush();
+            mProgressDialog = new ProgressDialog(mContext);
+            mProgressDialog.setMessage(mContext.getString(mExport ?
+                    R.string.export_library_progress : R.string.import_library_progress));
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setMax(100);
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    mContext.getString(android.R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    cancel(false);
+                }
+            });
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected LibraryArchiveUtils.Result doInBackground(Void... params) {
+            try {
+                return mExport ? export() : restore();
+            } catch (IOException | InterruptedException | ExecutionException e) {
+                Timber.e(e, "Error with library archive");
+                return null;
+            }
+        }
+
+        private LibraryArchiveUtils.Result export() throws InterruptedException, ExecutionException {
+            if (mFlush != null) mFlush.get();
+            // documents are read by a single read operation that streams all of them
+            return DataExecutor.getInstance(mContext).read(DataExecutor.PRIORITY_LOW,
+                    new DataExecutor.Task<LibraryArchiveUtils.Result>() {
+                @Override
+                public LibraryArchiveUtils.Result run(AppDatabase db) throws IOException {
+                    OutputStream out = mContext.getContentResolver().openOutputStream(mUri);
+                    if (out == null) throw new IOException("Cannot open " + mUri);
+                    try {
+                        return LibraryArchiveUtils.writeArchive(mContext, db, out, LibraryArchiveTask.this);
+                    } finally {
+                        out.close();
+                    }
+                }
+            }, null).get();
+        }
+
+        private LibraryArchiveUtils.Result restore() throws IOException {
+            mTotalBytes = DocumentFile.fromSingleUri(mContext, mUri).length();
+            InputStream in = mContext.getContentResolver().openInputStream(mUri);
+            if (in == null) throw new IOException("Cannot open " + mUri);
+            mInput = new CountingInputStream(in);
+            try {
+                return LibraryArchiveUtils.readArchive(mContext, mInput, this);
+            } finally {
+                mInput.close();
+            }
+        }
+
+        @Override
+        public void onProgress(int processed, int total) {
+            if (total > 0) {
+                publishProgress(processed * 100 / total);
+            } else if (mTotalBytes > 0) {
+                // a restore is measured by the read bytes of the archive
+                publishProgress((int) (mInput.getCount() * 100 / mTotalBytes));
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setIndeterminate(false);
+            mProgressDialog.setProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(LibraryArchiveUtils.Result result) {
+            mProgressDialog.dismiss();
+            if (result == null) {
+                Toast.makeText(mContext, mExport ? R.string.export_error : R.string.import_library_error,
+                        Toast.LENGTH_LONG).show();
+            } else if (mExport) {
+                Toast.makeText(mContext, mContext.getString(R.string.export_library_success, result.documents),
+                        Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(mContext,
+                        mContext.getString(R.string.import_library_success, result.documents, result.skipped),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+
+        @Override
+        protected void onCancelled(LibraryArchiveUtils.Result result) {
+            mProgressDialog.dismiss();
+            Toast.makeText(mContext,
+                    mExport ? R.string.export_library_cancelled : R.string.import_cancelled,
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Imports a document streaming its content, so the file is never held in memory as a whole.
+     * It reads the metadata of the document (any format version, see DocumentSerializer.open),
+     * if it is not a document the whole file is imported as text.
+     * The text is read in chunks with a bounded buffer and they are appended to the new document
+     * (see TasksUtils.beginImport), there is a bounded number of chunks waiting to be written.
+     * It shows a progress dialog that allows to cancel the import, in that case (or if there is
+     * an error) the document is deleted.
+     */
+    private static class ImportTask extends AsyncTask<Void, Integer, DocumentMetadata> {
+
+        /** Number of characters of each chunk of text */
+        private static final int CHUNK_SIZE = 32 * 1024;
+
+        /** Maximum number of chunks that are waiting to be written */
+        private static final int MAX_PENDING_CHUNKS = 4;
+
+        private final Context mContext;
+        private final Uri mUri;
+        private ProgressDialog mProgressDialog;
+        private CountingInputStream mInput;
+        private long mTotalBytes;
+        private String mError;
+        private String mWarning;
+
+        ImportTask(Context context, Uri uri) {
+            mContext = context;
+            mUri = uri;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog = new ProgressDialog(mContext);
+            mProgressDialog.setMessage(mContext.getString(R.string.import_progress));
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setMax(100);
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    mContext.getString(android.R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    cancel(false);
+                }
+            });
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected DocumentMetadata doInBackground(Void... params) {
+            long docId = Document.NULL_ID;
+            try {
+                DocumentFile file = DocumentFile.fromSingleUri(mContext, mUri);
+                mTotalBytes = file.length();
+                Reader reader;
+                DocumentSerializer.DocumentImpl document;
+                boolean isFocoDocument;
+                try {
+                    // format version is detected by the serializer
+                    DocumentSerializer.DocumentInput input = DocumentSerializer.open(openInput(file));
+                    document = input.metadata;
+                    reader = input.text;
+                    isFocoDocument = true;
+                } catch (CorruptedDocumentException e) {
+                    // it is not imported as text, its content is not what the user expects
+                    mError = mContext.getString(R.string.import_error_reading);
+                    return null;
+                } catch (SerializationException e) {
+                    // it is imported as an external text file, so it is read again from the start
+                    closeInput();
+                    reader = openReader(file);
+                    document = new DocumentSerializer.DocumentImpl();
+                    String name = file.getName();
+                    if (TextUtils.isEmpty(name)) {
+                        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+                        document.name = sdf.format(new Date());
+                    } else {
+                        document.name = name;
+                    }
+                    isFocoDocument = false;
+                }
+
+                char[] buffer = new char[CHUNK_SIZE];
+                int read = readChunk(reader, buffer);
+                if (read == -1 && !isFocoDocument) {
+                    mError = mContext.getString(R.string.import_error_empty);
+                    return null;
+                }
+                if (!isFocoDocument) mWarning = mContext.getString(R.string.import_warning_metadata);
+
+                docId = TasksUtils.beginImport(mContext, document).get();
+                if (docId == Document.NULL_ID) {
+                    mError = mContext.getString(R.string.import_error_db);
+                    return null;
+                }
+                Deque<Future<Void>> pendingChunks = new ArrayDeque<>();
+                int length = 0;
+                WordCountUtils.Counter words = new WordCountUtils.Counter();
+                CharBuffer chunk = CharBuffer.wrap(buffer);
+                while (read > 0) {
+                    if (isCancelled()) {
+                        TasksUtils.abortImport(mContext, docId);
+                        return null;
+                    }
+                    words.append(chunk, 0, read);
+                    pendingChunks.add(TasksUtils.appendImportedText(mContext,
+                            docId,
+                            length,
+                            new String(buffer, 0, read)));
+                    length += read;
+                    if (pendingChunks.size() >= MAX_PENDING_CHUNKS) pendingChunks.poll().get();
+                    if (mTotalBytes > 0) publishProgress((int) (mInput.getCount() * 100 / mTotalBytes));
+                    read = readChunk(reader, buffer);
+                }
+                while (!pendingChunks.isEmpty()) {
+                    pendingChunks.poll().get();
+                }
+                DocumentMetadata result = TasksUtils.finishImport(mContext, docId, length, words.finish()).get();
+                if (result == null) mError = mContext.getString(R.string.import_error_db);
+                return result;
+            } catch (IOException e) {
+                Timber.e(e, "Error reading document");
+                mError = mContext.getString(R.string.import_error_reading);
+            } catch (InterruptedException | ExecutionException e) {
+                Timber.e(e, "Error storing document");
+                mError = mContext.getString(R.string.import_error_db);
+            } finally {
+                closeInput();
+            }
+            if (docId != Document.NULL_ID) TasksUtils.abortImport(mContext, docId);
+            return null;
+        }
+
+        private InputStream openInput(DocumentFile file) throws IOException {
+            InputStream in = mContext.getContentResolver().openInputStream(file.getUri());
+            if (in == null) throw new IOException("Cannot open " + file.getUri());
+            mInput = new CountingInputStream(in);
+            return mInput;
+        }
+
+        private Reader openReader(DocumentFile file) throws IOException {
+            return new BufferedReader(new InputStreamReader(openInput(file), "UTF-8"));
+        }
+
+        private void closeInput() {
+            if (mInput != null) {
+                try {
+                    mInput.close();
+                } catch (IOException e) {
+                    // swallow
+                }
+                mInput = null;
+            }
+        }
+
+        /**
+         * This method fills given buffer unless the end of the input is reached.
+         * @param reader
+         * @param buffer
+         * @return number of read characters or -1 if the end of the input was reached before
+         * @throws IOException
+         */
+        private static int readChunk(Reader reader, char[] buffer) throws IOException {
+            int count = 0;
+            while (count < buffer.length) {
+                int read = reader.read(buffer, count, buffer.length - count);
+                if (read == -1) break;
+                count += read;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setIndeterminate(false);
+            mProgressDialog.setProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(DocumentMetadata result) {
+            mProgressDialog.dismiss();
+            if (result != null) {
+                if (mWarning != null) {
+                    Toast.makeText(mContext, mWarning, Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(mContext, R.string.import_success, Toast.LENGTH_LONG).show();
+                }
+            } else {
+                Toast.makeText(mContext,
+                        mContext.getString(R.string.import_error_format, mError),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+
+        @Override
+        protected void onCancelled(DocumentMetadata result) {
+            mProgressDialog.dismiss();
+            Toast.makeText(mContext, R.string.import_cancelled, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Shows the progress of a bulk import in a dialog that allows to cancel it, and its summary
+     * once it is finished.
+     */
+    private static class BulkImportProgress implements BulkImportTask.Callback {
+
+        private final Context mContext;
+        private ProgressDialog mProgressDialog;
+
+        BulkImportProgress(Context context) {
+            mContext = context;
+        }
+
+        void start(final BulkImportTask task) {
+            mProgressDialog = new ProgressDialog(mContext);
+            mProgressDialog.setMessage(mContext.getString(R.string.import_bulk_progress));
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    mContext.getString(android.R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    task.cancel(false);
+                }
+            });
+            mProgressDialog.show();
+            task.execute();
+        }
+
+        @Override
+        public void onProgress(int processed, int total) {
+            mProgressDialog.setIndeterminate(false);
+            mProgressDialog.setMax(total);
+            mProgressDialog.setProgress(processed);
+        }
+
+        @Override
+        public void onFinish(BulkImportTask.Summary summary, boolean cancelled) {
+            mProgressDialog.dismiss();
+            new AlertDialog.Builder(mContext)
+                    .setTitle(cancelled ? R.string.import_cancelled : R.string.import_bulk_title)
+                    .setMessage(mContext.getString(R.string.import_bulk_summary,
+                            summary.imported,
+                            summary.skipped,
+                            summary.failed))
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+        }
+    }
+
+    /**
+     * Input stream that counts the read bytes.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private volatile long mCount = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) mCount += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package io.github.nfdz.foco.utils;
+
+/**
+ * This class keeps the number of words, characters and paragraphs of a text that is being
+ * edited. After a full count, every change is applied by counting only the changed range
+ * (and the words around it) before and after the change, so the cost of a change does not
+ * depend on the text length.
+ * A paragraph is a line (ended by line feed) with at least one word. Words are counted as
+ * WordCountUtils does, so a change in a CJK run counts the whole run again.
+ * To be used from a TextWatcher: beforeTextChanged and onTextChanged have to be called for
+ * every change with the same range.
+ * The full count can be done in background (see resetPending): changes are counted as deltas
+ * meanwhile and they are added to the full count when it is applied.
+ */
+public class IncrementalTextCounter {
+
+    private int mWords = 0;
+    private int mCharacters = 0;
+    private int mParagraphs = 0;
+    private boolean mCounted = false;
+
+    // counts of the changed range before the change
+    private int mRangeWords = 0;
+    private int mRangeParagraphs = 0;
+
+    /**
+     * Counts given text from scratch.
+     * @param text
+     */
+    public void reset(CharSequence text) {
+        resetPending(text.length());
+        applyFullCount(TextStatistics.compute(text));
+    }
+
+    /**
+     * Starts counting a text whose full count is not known yet. The text of this moment (the
+     * snapshot) has to be counted (see TextStatistics.compute) and applied with applyFullCount.
+     * @param characters length of the snapshot
+     */
+    public void resetPending(int characters) {
+        mWords = 0;
+        mParagraphs = 0;
+        mCharacters = characters;
+        mCounted = false;
+    }
+
+    /**
+     * Adds the full count of the snapshot to the deltas of the changes that have been notified
+     * since resetPending.
+     * @param statistics of the snapshot
+     */
+    public void applyFullCount(TextStatistics statistics) {
+        mWords += statistics.words;
+        mParagraphs += statistics.paragraphs;
+        mCounted = true;
+    }
+
+    /**
+     * Returns true if the full count has been applied, if not words and paragraphs are only the
+     * deltas of the changes.
+     * @return boolean
+     */
+    public boolean isCounted() {
+        return mCounted;
+    }
+
+    /**
+     * Notifies that count characters from start are going to be replaced.
+     * @param text text before the change
+     * @param start
+     * @param count
+     */
+    public void beforeTextChanged(CharSequence text, int start, int count) {
+        countRange(text, start, start + count);
+    }
+
+    /**
+     * Notifies that count characters from start have replaced the previous ones.
+     * @param text text after the change
+     * @param start
+     * @param count
+     */
+    public void onTextChanged(CharSequence text, int start, int count) {
+        int oldWords = mRangeWords;
+        int oldParagraphs = mRangeParagraphs;
+        countRange(text, start, start + count);
+        mWords += mRangeWords - oldWords;
+        mParagraphs += mRangeParagraphs - oldParagraphs;
+        mCharacters = text.length();
+    }
+
+    public int getWords() {
+        return mWords;
+    }
+
+    public int getCharacters() {
+        return mCharacters;
+    }
+
+    public int getParagraphs() {
+        return mParagraphs;
+    }
+
+    /**
+     * This method counts the words and paragraphs that start in given range of the text. It is
+     * extended until the end of the first word after it, because a change can join it to the
+     * range or separate it, and to the CJK runs that it touches, because they are segmented as
+     * a whole.
+     * @param text
+     * @param start
+     * @param end exclusive
+     */
+    private void countRange(CharSequence text, int start, int end) {
+        int length = text.length();
+        while (start > 0 && WordCountUtils.continuesCjkRun(text.charAt(start - 1))) {
+            start--;
+        }
+        // it ends before a separator, so the rest of the text is counted in the same way
+        while (end < length && WordCountUtils.isSeparator(text.charAt(end))) {
+            end++;
+        }
+        while (end < length && !WordCountUtils.isSeparator(text.charAt(end))) {
+            end++;
+        }
+
+        int paragraphs = 0;
+        boolean inWord = start > 0 && !WordCountUtils.isSeparator(text.charAt(start - 1));
+        for (int i = start; i < end; i++) {
+            if (WordCountUtils.isSeparator(text.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                if (startsParagraph(text, i)) paragraphs++;
+            }
+        }
+        boolean afterWord = start > 0 && WordCountUtils.isInWord(text.charAt(start - 1));
+        mRangeWords = WordCountUtils.countWords(text, start, end, afterWord);
+        mRangeParagraphs = paragraphs;
+    }
+
+    /**
+     * This method checks if the word that starts in given position is the first one of its
+     * line. Only the separators before the word are read.
+     * @param text
+     * @param wordStart
+     * @return boolean
+     */
+    private static boolean startsParagraph(CharSequence text, int wordStart) {
+        for (int i = wordStart - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n') return true;
+            if (!WordCountUtils.isSeparator(c)) return false;
+        }
+        return true;
+    }
+}
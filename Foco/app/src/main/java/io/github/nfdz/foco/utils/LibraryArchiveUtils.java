@@ -0,0 +1,306 @@
+package io.github.nfdz.foco.utils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.entity.DocumentEntity;
+import io.github.nfdz.foco.model.Document;
+import io.github.nfdz.foco.model.DocumentSerializer;
+import io.github.nfdz.foco.model.SerializationException;
+import timber.log.Timber;
+
+/**
+ * This class has static methods to export the whole library to a ZIP archive and to restore
+ * it. Documents are streamed one by one, so only one document is held in memory at a time.
+ * Each document is an entry serialized in version 1 format (the archive is already compressed)
+ * and it is preceded by the entry of its cover image, if it has got one. Cover images are
+ * referenced by their entry name in the archive.
+ */
+public class LibraryArchiveUtils {
+
+    /**
+     * Interface to be implemented to follow the progress of an archive operation. It is called
+     * in the thread of the operation.
+     */
+    public interface Progress {
+        /**
+         * Notifies that an entry of the archive has been processed.
+         * @param processed number of processed documents
+         * @param total number of documents or -1 if it is unknown (restores stream the archive)
+         */
+        void onProgress(int processed, int total);
+        boolean isCancelled();
+    }
+
+    /**
+     * Inner static class that defines the result of an archive operation.
+     */
+    public static class Result {
+        public int documents = 0;
+        public int skipped = 0;
+    }
+
+    private static final String DOCUMENTS_ENTRY_PREFIX = "documents/";
+    private static final String MEDIA_ENTRY_PREFIX = "media/";
+    private static final String DOCUMENT_EXTENSION = ".foco";
+
+    /** Internal directory where cover images are stored (see EditDocCoverDialog) */
+    private static final String MEDIA_DIR = "media";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum number of restored documents inserted in a single transaction */
+    private static final int IMPORT_BATCH_SIZE = 50;
+
+    /**
+     * Writes all documents to given stream as a ZIP archive. The stream is not closed.
+     * It has to be called in a background thread of DataExecutor (read operation).
+     * @param context
+     * @param db
+     * @param out
+     * @param progress
+     * @return result with the number of exported documents
+     * @throws IOException
+     */
+    public static Result writeArchive(Context context,
+                                      AppDatabase db,
+                                      OutputStream out,
+                                      Progress progress) throws IOException {
+        Result result = new Result();
+        File mediaDir = context.getDir(MEDIA_DIR, Context.MODE_PRIVATE);
+        int total = db.documentDao().countDocuments();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Set<String> writtenImages = new HashSet<>();
+        Cursor cursor = db.documentDao().getAllDocumentsMetadata();
+        try {
+            while (!progress.isCancelled() && cursor.moveToNext()) {
+                DocumentEntity doc = readMetadata(cursor);
+                doc.coverImage = writeCoverImage(zip, mediaDir, doc.coverImage, writtenImages, buffer);
+                doc.text = db.loadDocumentText(doc.id);
+                zip.putNextEntry(new ZipEntry(DOCUMENTS_ENTRY_PREFIX + doc.id + DOCUMENT_EXTENSION));
+                DocumentSerializer.serialize(doc, zip, DocumentSerializer.FORMAT_V1);
+                zip.closeEntry();
+                result.documents++;
+                progress.onProgress(result.documents, total);
+            }
+        } finally {
+            cursor.close();
+        }
+        zip.finish();
+        zip.flush();
+        return result;
+    }
+
+    private static DocumentEntity readMetadata(Cursor cursor) {
+        DocumentEntity doc = new DocumentEntity();
+        doc.id = cursor.getLong(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_ID));
+        doc.name = cursor.getString(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_NAME));
+        doc.workingTime = cursor.getLong(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_WORKING_TIME));
+        doc.lastEditionTime = cursor.getLong(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_LAST_EDITION_TIME));
+        doc.words = cursor.getInt(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_WORDS));
+        doc.favorite = cursor.getInt(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_FAVORITE)) != 0;
+        doc.coverColor = cursor.getInt(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_COVER_COLOR));
+        doc.coverImage = cursor.getString(cursor.getColumnIndexOrThrow(DocumentEntity.COLUMN_COVER_IMAGE));
+        return doc;
+    }
+
+    /**
+     * This method writes the cover image if it is a file of the media directory. Images are
+     * already compressed so they are stored as they are.
+     * @param zip
+     * @param mediaDir
+     * @param coverImage
+     * @param writtenImages entry names of the images that have been written before
+     * @param buffer
+     * @return entry name of the image or Document.NULL_COVER_IMAGE if it has not been written
+     * @throws IOException
+     */
+    private static String writeCoverImage(ZipOutputStream zip,
+                                          File mediaDir,
+                                          @Nullable String coverImage,
+                                          Set<String> writtenImages,
+                                          byte[] buffer) throws IOException {
+        if (TextUtils.isEmpty(coverImage)) return Document.NULL_COVER_IMAGE;
+        File image = new File(coverImage);
+        if (!image.isFile() || !mediaDir.equals(image.getParentFile())) return Document.NULL_COVER_IMAGE;
+        String entryName = MEDIA_ENTRY_PREFIX + image.getName();
+        if (!writtenImages.add(entryName)) return entryName;
+
+        // stored entries need their CRC before their data
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(image);
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(image.length());
+        entry.setCompressedSize(image.length());
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        in = new FileInputStream(image);
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                zip.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        zip.closeEntry();
+        return entryName;
+    }
+
+    /**
+     * Restores the documents of a ZIP archive read from given stream. They are inserted in
+     * batches (see TasksUtils.importDocuments) and cover images are copied to the media
+     * directory. Images are restored before the documents that reference them, so once it has
+     * finished (or failed) the images that no stored document references are deleted. Entries
+     * that are not documents of the archive are skipped. The stream is not closed.
+     * It has to be called in a background thread.
+     * @param context
+     * @param in
+     * @param progress
+     * @return result with the number of restored and skipped documents
+     * @throws IOException
+     */
+    public static Result readArchive(Context context, InputStream in, Progress progress) throws IOException {
+        Result result = new Result();
+        File mediaDir = context.getDir(MEDIA_DIR, Context.MODE_PRIVATE);
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Map<String, String> restoredImages = new HashMap<>();
+        List<DocumentEntity> batch = new ArrayList<>();
+        Future<Integer> pendingBatch = null;
+        try {
+            ZipEntry entry;
+            while (!progress.isCancelled() && (entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    continue;
+                } else if (name.startsWith(MEDIA_ENTRY_PREFIX)) {
+                    // entry names are never used as paths
+                    File image = new File(mediaDir, UUID.randomUUID().toString());
+                    restoredImages.put(name, image.getAbsolutePath());
+                    OutputStream out = new FileOutputStream(image);
+                    try {
+                        int count;
+                        while ((count = zip.read(buffer)) != -1) {
+                            out.write(buffer, 0, count);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } else if (name.startsWith(DOCUMENTS_ENTRY_PREFIX) && name.endsWith(DOCUMENT_EXTENSION)) {
+                    try {
+                        DocumentEntity doc = new DocumentEntity(DocumentSerializer.deserialize(zip));
+                        String image = restoredImages.get(doc.coverImage);
+                        doc.coverImage = image != null ? image : Document.NULL_COVER_IMAGE;
+                        doc.words = TasksUtils.countWords(doc.text);
+                        batch.add(doc);
+                    } catch (SerializationException e) {
+                        Timber.w("Archive entry is not a valid document " + name);
+                        result.skipped++;
+                    }
+                } else {
+                    result.skipped++;
+                }
+                zip.closeEntry();
+                progress.onProgress(result.documents + batch.size(), -1);
+                if (batch.size() >= IMPORT_BATCH_SIZE) {
+                    result.documents += waitBatch(pendingBatch);
+                    pendingBatch = TasksUtils.importDocuments(context, batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            result.documents += waitBatch(pendingBatch);
+            if (!batch.isEmpty() && !progress.isCancelled()) {
+                pendingBatch = TasksUtils.importDocuments(context, batch);
+                result.documents += waitBatch(pendingBatch);
+            }
+        } finally {
+            // if the restore fails, the batch that is being inserted could reference images
+            try {
+                waitBatch(pendingBatch);
+            } catch (IOException e) {
+                // it has been thrown by the restore too
+            }
+            deleteUnusedImages(context, restoredImages.values());
+        }
+        return result;
+    }
+
+    /**
+     * This method deletes given restored images if they are not the cover image of any stored
+     * document (the restore has been cancelled or has failed, the document has not been
+     * restored or the image is not referenced by any document of the archive).
+     * @param context
+     * @param images paths
+     */
+    private static void deleteUnusedImages(Context context, Collection<String> images) {
+        if (images.isEmpty()) return;
+        List<String> coverImages;
+        try {
+            coverImages = DataExecutor.getInstance(context).read(DataExecutor.PRIORITY_LOW,
+                    new DataExecutor.Task<List<String>>() {
+                        @Override
+                        public List<String> run(AppDatabase db) {
+                            return db.documentDao().getAllCoverImages();
+                        }
+                    }, null).get();
+        } catch (InterruptedException | ExecutionException e) {
+            // it is not known which ones are used so all of them are kept
+            Timber.e(e, "Error reading cover images of restored documents");
+            return;
+        }
+        Set<String> usedImages = new HashSet<>(coverImages);
+        for (String image : images) {
+            if (!usedImages.contains(image) && !new File(image).delete()) {
+                Timber.w("Unused restored image could not be deleted " + image);
+            }
+        }
+    }
+
+    private static int waitBatch(@Nullable Future<Integer> batch) throws IOException {
+        if (batch == null) return 0;
+        try {
+            Integer inserted = batch.get();
+            return inserted != null ? inserted : 0;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Error storing restored documents", e);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package io.github.nfdz.foco.utils;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import br.tiagohm.markdownview.MarkdownView;
+
+/**
+ * This class has static methods to render markdown by top level blocks (paragraphs, headers,
+ * lists, fences, etc), so a text can be rendered again reusing the HTML of the blocks that have
+ * not changed. Blocks are separated by blank lines, but fenced code, raw HTML that can contain
+ * blank lines and the items of a list are never split. If the text has got link reference
+ * definitions, a block can depend on another one so the text is not split.
+ * Blocks are rendered by MarkdownView, all missing blocks in a single parse with a sentinel
+ * paragraph between each other that is used to split the HTML.
+ */
+public class MarkdownBlockUtils {
+
+    /**
+     * Inner class that defines a rendered text. The page is the prefix, the HTML of the blocks
+     * and the suffix. If the text could not be rendered by blocks, it only has got the page.
+     */
+    public static class Rendered {
+        /** Hash of the text (see EditJournalUtils.hashText) */
+        public final long textHash;
+        /** Template of the page (styles and scripts) before the blocks */
+        public final String prefix;
+        /** Template of the page after the blocks */
+        public final String suffix;
+        public final long[] blockHashes;
+        /** Offset of every block in the text */
+        public final int[] blockStarts;
+        public final String[] fragments;
+        /** Whole page if the text was not rendered by blocks */
+        public final String page;
+
+        Rendered(long textHash,
+                 String prefix,
+                 String suffix,
+                 long[] blockHashes,
+                 int[] blockStarts,
+                 String[] fragments) {
+            this.textHash = textHash;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.blockHashes = blockHashes;
+            this.blockStarts = blockStarts;
+            this.fragments = fragments;
+            this.page = null;
+        }
+
+        Rendered(long textHash, String page) {
+            this.textHash = textHash;
+            this.prefix = null;
+            this.suffix = null;
+            this.blockHashes = null;
+            this.blockStarts = null;
+            this.fragments = null;
+            this.page = page;
+        }
+
+        public boolean hasBlocks() {
+            return fragments != null;
+        }
+
+        /**
+         * Returns the estimated size in bytes of the rendered HTML.
+         * @return bytes
+         */
+        public int getSize() {
+            if (!hasBlocks()) return page.length() * 2;
+            long size = (prefix.length() + suffix.length()) * 2L + blockHashes.length * 12L;
+            for (String fragment : fragments) {
+                size += fragment.length() * 2L;
+            }
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+    }
+
+    private static final String SENTINEL = "FocoBlockSentinel7f3a";
+    private static final Pattern SENTINEL_HTML = Pattern.compile("<p>" + SENTINEL + "</p>\\n?");
+
+    /** Beginning of raw HTML blocks that end with a closer instead of a blank line */
+    private static final String[][] RAW_HTML_BLOCKS = {
+            { "<!--", "-->" },
+            { "<pre", "</pre>" },
+            { "<script", "</script>" },
+            { "<style", "</style>" },
+            { "<textarea", "</textarea>" }
+    };
+
+    /**
+     * Renders given text reusing the HTML of the blocks of a previous render.
+     * It has to be called in a background thread, the view is only used to render.
+     * @param view
+     * @param text
+     * @param textHash
+     * @param base previous render or null
+     * @return rendered text
+     */
+    public static Rendered render(MarkdownView view, String text, long textHash, @Nullable Rendered base) {
+        List<Integer> starts = new ArrayList<>();
+        List<String> blocks = splitBlocks(text, starts);
+        int count = blocks.size();
+        long[] hashes = new long[count];
+        int[] blockStarts = new int[count];
+        String[] fragments = new String[count];
+        Map<Long, String> known = new HashMap<>();
+        if (base != null && base.hasBlocks()) {
+            for (int i = 0; i < base.fragments.length; i++) {
+                known.put(base.blockHashes[i], base.fragments[i]);
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hashes[i] = EditJournalUtils.hashText(blocks.get(i));
+            blockStarts[i] = starts.get(i);
+            fragments[i] = known.get(hashes[i]);
+            if (fragments[i] == null) {
+                missing.add(blocks.get(i));
+                missingIndexes.add(i);
+            }
+        }
+
+        if (missing.isEmpty() && base != null && base.hasBlocks()) {
+            return new Rendered(textHash, base.prefix, base.suffix, hashes, blockStarts, fragments);
+        }
+        String[] parts = renderBlocks(view, missing);
+        if (parts == null) {
+            // a block has swallowed a sentinel (an unclosed fence for example)
+            return new Rendered(textHash, view.parseBuildAndRender(text));
+        }
+        for (int i = 0; i < missing.size(); i++) {
+            fragments[missingIndexes.get(i)] = parts[i + 1];
+        }
+        return new Rendered(textHash, parts[0], parts[parts.length - 1], hashes, blockStarts, fragments);
+    }
+
+    /**
+     * This method renders given blocks in a single parse.
+     * @param view
+     * @param blocks
+     * @return prefix of the page, HTML of every block and suffix of the page, or null if the
+     * HTML could not be split
+     */
+    @Nullable
+    private static String[] renderBlocks(MarkdownView view, List<String> blocks) {
+        StringBuilder markdown = new StringBuilder(SENTINEL);
+        for (String block : blocks) {
+            markdown.append("\n\n").append(block).append("\n\n").append(SENTINEL);
+        }
+        String html = view.parseBuildAndRender(markdown.toString());
+        String[] parts = SENTINEL_HTML.split(html, -1);
+        return parts.length == blocks.size() + 2 ? parts : null;
+    }
+
+    /**
+     * Splits given text in top level blocks. Blank lines between blocks are not included.
+     * @param text
+     * @param starts list where the offset of every block is added
+     * @return blocks
+     */
+    public static List<String> splitBlocks(String text, List<Integer> starts) {
+        List<String> blocks = new ArrayList<>();
+        int length = text.length();
+        int blockStart = -1;
+        int blockEnd = -1;
+        boolean blockIsList = false;
+        boolean afterBlank = false;
+        // closer of the fence or raw HTML block that is open
+        String closer = null;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = length;
+            int indent = getIndent(text, lineStart, lineEnd);
+            int contentStart = lineStart + Math.min(indent, lineEnd - lineStart);
+            if (closer != null) {
+                if (isCloser(text, lineStart, contentStart, lineEnd, closer)) closer = null;
+                blockEnd = lineEnd;
+            } else if (contentStart == lineEnd || isBlank(text, contentStart, lineEnd)) {
+                afterBlank = blockStart >= 0;
+            } else {
+                boolean isList = indent < 4 && isListItem(text, contentStart, lineEnd);
+                if (indent < 4 && isReferenceDefinition(text, contentStart, lineEnd)) {
+                    // blocks would depend on each other
+                    blocks.clear();
+                    blocks.add(text);
+                    starts.clear();
+                    starts.add(0);
+                    return blocks;
+                }
+                if (blockStart < 0) {
+                    blockStart = lineStart;
+                    blockIsList = isList;
+                } else if (afterBlank && indent == 0 && !(isList && blockIsList)) {
+                    // indented lines continue the previous block (list items or code)
+                    blocks.add(text.substring(blockStart, blockEnd));
+                    starts.add(blockStart);
+                    blockStart = lineStart;
+                    blockIsList = isList;
+                }
+                afterBlank = false;
+                blockEnd = lineEnd;
+                if (indent < 4) closer = getOpenedCloser(text, contentStart, lineEnd);
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (blockStart >= 0) {
+            blocks.add(text.substring(blockStart, blockEnd));
+            starts.add(blockStart);
+        }
+        return blocks;
+    }
+
+    private static int getIndent(String text, int start, int end) {
+        int indent = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                indent++;
+            } else if (c == '\t') {
+                indent += 4;
+            } else {
+                break;
+            }
+        }
+        return indent;
+    }
+
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isListItem(String text, int start, int end) {
+        char c = text.charAt(start);
+        if (c == '-' || c == '*' || c == '+') {
+            return start + 1 == end || text.charAt(start + 1) == ' ' || text.charAt(start + 1) == '\t';
+        }
+        int i = start;
+        while (i < end && i - start < 10 && Character.isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i == start || i == end || (text.charAt(i) != '.' && text.charAt(i) != ')')) return false;
+        return i + 1 == end || text.charAt(i + 1) == ' ' || text.charAt(i + 1) == '\t';
+    }
+
+    private static boolean isReferenceDefinition(String text, int start, int end) {
+        if (text.charAt(start) != '[') return false;
+        int close = text.indexOf("]:", start);
+        return close > start + 1 && close < end;
+    }
+
+    /**
+     * This method returns the closer of the fence or raw HTML block opened by given line.
+     * @param text
+     * @param start start of the content of the line
+     * @param end
+     * @return closer or null if it does not open any
+     */
+    @Nullable
+    private static String getOpenedCloser(String text, int start, int end) {
+        char c = text.charAt(start);
+        if (c == '`' || c == '~') {
+            int i = start;
+            while (i < end && text.charAt(i) == c) {
+                i++;
+            }
+            if (i - start < 3) return null;
+            // a backtick fence cannot have backticks in its info string
+            if (c == '`' && text.indexOf('`', i) >= 0 && text.indexOf('`', i) < end) return null;
+            return text.substring(start, i);
+        }
+        if (c != '<') return null;
+        for (String[] block : RAW_HTML_BLOCKS) {
+            if (text.regionMatches(true, start, block[0], 0, block[0].length())) {
+                // it can be closed in the same line
+                int close = indexOfIgnoreCase(text, block[1], start + block[0].length(), end);
+                return close < 0 ? block[1] : null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCloser(String text, int lineStart, int contentStart, int end, String closer) {
+        char c = closer.charAt(0);
+        if (c == '`' || c == '~') {
+            if (contentStart - lineStart >= 4) return false;
+            int i = contentStart;
+            while (i < end && text.charAt(i) == c) {
+                i++;
+            }
+            return i - contentStart >= closer.length() && isBlank(text, i, end);
+        }
+        return indexOfIgnoreCase(text, closer, lineStart, end) >= 0;
+    }
+
+    private static int indexOfIgnoreCase(String text, String target, int start, int end) {
+        for (int i = start; i + target.length() <= end; i++) {
+            if (text.regionMatches(true, i, target, 0, target.length())) return i;
+        }
+        return -1;
+    }
+}
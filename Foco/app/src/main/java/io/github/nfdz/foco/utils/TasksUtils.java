@@ -2,207 +2,569 @@ package io.github.nfdz.foco.utils;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.DocumentChanges;
+import io.github.nfdz.foco.data.DocumentRepository;
+import io.github.nfdz.foco.data.DocumentTextCache;
+import io.github.nfdz.foco.data.MutationBuffer;
+import io.github.nfdz.foco.data.PreferencesUtils;
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
 import io.github.nfdz.foco.data.entity.DocumentEntity;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
 import io.github.nfdz.foco.model.Callbacks;
 import io.github.nfdz.foco.model.Document;
+import timber.log.Timber;
 
 /**
  * This class has static methods that ease perform common document operations
- * (create document, edit, delete, etc).
+ * (create document, edit, delete, etc). Metadata mutations (title, favorite and cover) are
+ * buffered and merged by MutationBuffer, the rest of operations are queued as write operations
+ * of DocumentRepository, so they are executed in order and they return a cancellable future.
  */
 public class TasksUtils {
 
-    public static void createDocument(final Context context,
-                                      final String name,
-                                      final Callbacks.FinishCallback<DocumentMetadata> callback) {
-        new AsyncTask<Void, Void, DocumentMetadata>() {
+    public static Future<DocumentMetadata> createDocument(final Context context,
+                                                          final String name,
+                                                          final Callbacks.FinishCallback<DocumentMetadata> callback) {
+        return getWriter(context).write(new DocumentRepository.WriteTask<DocumentMetadata>() {
             @Override
-            protected DocumentMetadata doInBackground(Void[] params) {
+            public DocumentMetadata run(AppDatabase db, DocumentChanges changes) {
                 DocumentEntity doc = new DocumentEntity();
                 doc.name = name;
-                long[] docId = AppDatabase.getInstance(context).documentDao().insert(doc);
-                if (docId.length > 0 && docId[0] > -1) {
-                    return AppDatabase.getInstance(context).documentDao().getDocumentMetadata(docId[0]);
+                long docId = db.insertDocument(doc);
+                if (docId != Document.NULL_ID) {
+                    changes.onInserted(docId);
+                    return db.documentDao().getDocumentMetadata(docId);
                 }
                 return null;
             }
-            @Override
-            protected void onPostExecute(DocumentMetadata doc) {
-                callback.onFinish(doc);
-            }
-        }.execute();
+        }, callback);
     }
 
-    public static void deleteDocument(final Context context,
-                                      final Set<DocumentMetadata> docsToDelete,
-                                      final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
+    public static Future<Boolean> deleteDocument(final Context context,
+                                                 final Set<DocumentMetadata> docsToDelete,
+                                                 final Callbacks.FinishCallback<Void> callback) {
+        return getWriter(context).write(new DocumentRepository.WriteTask<Boolean>() {
             @Override
-            protected Void doInBackground(Void[] params) {
+            public Boolean run(AppDatabase db, DocumentChanges changes) {
                 List<DocumentEntity> documents = new ArrayList<DocumentEntity>();
                 for (DocumentMetadata doc : docsToDelete) {
                     DocumentEntity entity = new DocumentEntity();
                     entity.id = doc.id;
-                    if (!TextUtils.isEmpty(doc.coverImage)) {
-                        File file = new File(doc.coverImage);
-                        file.delete();
-                    }
+                    changes.onDeleted(doc.id);
+                    DocumentTextCache.getInstance(context).invalidate(doc.id);
                     documents.add(entity);
                 }
-                AppDatabase.getInstance(context).documentDao().delete(documents.toArray(new DocumentEntity[]{}));
-                return null;
+                db.deleteDocuments(documents.toArray(new DocumentEntity[]{}));
+                return true;
             }
+        }, new Callbacks.FinishCallback<Boolean>() {
             @Override
-            protected void onPostExecute(Void v) {
+            public void onFinish(Boolean deleted) {
+                // cover images are deleted once the documents are, the batch could be rolled back
+                if (Boolean.TRUE.equals(deleted)) {
+                    for (DocumentMetadata doc : docsToDelete) {
+                        if (!TextUtils.isEmpty(doc.coverImage)) deleteFileAsync(doc.coverImage);
+                    }
+                }
                 callback.onFinish(null);
             }
-        }.execute();
+        });
+    }
+
+    /**
+     * Deletes given file in a background thread.
+     * @param path
+     */
+    public static void deleteFileAsync(final String path) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                new File(path).delete();
+            }
+        });
     }
 
     public static void toggleFavorite(final Context context,
                                       final Set<DocumentMetadata> docs,
                                       final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void[] params) {
-                List<DocumentEntity> documents = new ArrayList<DocumentEntity>();
-                for (DocumentMetadata doc : docs) {
-                    DocumentEntity entity = AppDatabase.getInstance(context).documentDao().getDocument(doc.id);
-                    entity.favorite = !doc.isFavorite;
-                    documents.add(entity);
-                }
-                AppDatabase.getInstance(context).documentDao().update(documents.toArray(new DocumentEntity[]{}));
-                return null;
-            }
-            @Override
-            protected void onPostExecute(Void v) {
-                callback.onFinish(null);
-            }
-        }.execute();
+        // all mutations are written together (one set-based UPDATE per value, see MutationBuffer),
+        // so the callback is only attached to the last one
+        MutationBuffer buffer = MutationBuffer.getInstance(context);
+        DocumentRepository repository = DocumentRepository.getInstance(context);
+        int remaining = docs.size();
+        for (DocumentMetadata doc : docs) {
+            remaining--;
+            // given instance could be a stale copy (restored selection) and the cache does not
+            // know buffered mutations yet
+            Boolean pendingFavorite = buffer.getPendingFavorite(doc.id);
+            DocumentMetadata cached = repository.getCachedDocument(doc.id);
+            boolean favorite = pendingFavorite != null ? pendingFavorite :
+                    cached != null ? cached.isFavorite : doc.isFavorite;
+            buffer.setFavorite(doc.id, !favorite, remaining == 0 ? callback : null);
+        }
     }
 
     public static void setCoverColor(final Context context,
                                      final DocumentMetadata doc,
                                      final int color,
                                      final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void[] params) {
-                DocumentEntity entity = AppDatabase.getInstance(context).documentDao().getDocument(doc.id);
-                entity.coverColor = color;
-                if (!TextUtils.isEmpty(entity.coverImage)) {
-                    File file = new File(entity.coverImage);
-                    file.delete();
-                    entity.coverImage = Document.NULL_COVER_IMAGE;
-                }
-                AppDatabase.getInstance(context).documentDao().update(entity);
-                return null;
-            }
-            @Override
-            protected void onPostExecute(Void v) {
-                callback.onFinish(null);
-            }
-        }.execute();
+        MutationBuffer.getInstance(context).setCover(doc.id, color, Document.NULL_COVER_IMAGE, callback);
     }
 
     public static void setCoverImage(final Context context,
                                      final DocumentMetadata doc,
                                      final String imagePath,
                                      final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void[] params) {
-                DocumentEntity entity = AppDatabase.getInstance(context).documentDao().getDocument(doc.id);
-                if (!TextUtils.isEmpty(entity.coverImage)) {
-                    File file = new File(entity.coverImage);
-                    file.delete();
-                }
-                entity.coverImage = imagePath;
-                entity.coverColor = Document.NULL_COVER_COLOR;
-                AppDatabase.getInstance(context).documentDao().update(entity);
-                return null;
-            }
-            @Override
-            protected void onPostExecute(Void v) {
-                callback.onFinish(null);
-            }
-        }.execute();
+        MutationBuffer.getInstance(context).setCover(doc.id, Document.NULL_COVER_COLOR, imagePath, callback);
     }
 
     public static void setTitle(final Context context,
                                 final DocumentMetadata doc,
                                 final String name,
                                 final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
+        MutationBuffer.getInstance(context).setName(doc.id, name, callback);
+    }
+
+    /**
+     * This method writes buffered metadata mutations before returning the repository, so the
+     * write operations are executed in the same order in which they were requested.
+     * @param context
+     * @return repository
+     */
+    private static DocumentRepository getWriter(Context context) {
+        MutationBuffer.getInstance(context).flush();
+        return DocumentRepository.getInstance(context);
+    }
+
+    /** Journal size (in bytes) that triggers its compaction into document text */
+    private static final long JOURNAL_COMPACTION_THRESHOLD = 256 * 1024;
+
+    /**
+     * Saves the whole text of the document. It replaces stored text and clears its journal.
+     * @param context
+     * @param doc
+     * @param text
+     * @param workingTime
+     * @param callback
+     */
+    public static Future<Boolean> saveDocument(final Context context,
+                                               final DocumentMetadata doc,
+                                               final String text,
+                                               final long workingTime,
+                                               final Callbacks.FinishCallback<Void> callback) {
+        final CacheUpdate cacheUpdate = new CacheUpdate();
+        return getWriter(context).write(new DocumentRepository.WriteTask<Boolean>() {
             @Override
-            protected Void doInBackground(Void[] params) {
-                DocumentEntity entity = AppDatabase.getInstance(context).documentDao().getDocument(doc.id);
-                entity.name = name;
-                AppDatabase.getInstance(context).documentDao().update(entity);
-                return null;
+            public Boolean run(AppDatabase db, DocumentChanges changes) {
+                cacheUpdate.invalidate(context, doc.id);
+                db.documentDao().updateEdition(doc.id,
+                        workingTime,
+                        System.currentTimeMillis(),
+                        countWords(text));
+                db.documentDao().updateText(doc.id, text);
+                db.documentDao().deleteEdits(doc.id);
+                changes.onUpdated(doc.id);
+                cacheUpdate.entry = new DocumentTextCache.Entry(text, EditJournalUtils.hashText(text), false);
+                return true;
             }
+        }, new Callbacks.FinishCallback<Boolean>() {
             @Override
-            protected void onPostExecute(Void v) {
+            public void onFinish(Boolean saved) {
+                if (Boolean.TRUE.equals(saved)) cacheUpdate.commit(context, doc.id);
                 callback.onFinish(null);
             }
-        }.execute();
+        });
     }
 
+    /**
+     * Inner class that holds the text cache entry of a write. It is created in background and
+     * it is only put in the cache once the write is committed (see DocumentTextCache).
+     */
+    private static class CacheUpdate {
+        volatile long version;
+        volatile DocumentTextCache.Entry entry;
 
-    public static void saveDocument(final Context context,
-                                    final DocumentMetadata doc,
-                                    final String text,
-                                    final long workingTime,
-                                    final Callbacks.FinishCallback<Void> callback) {
-        new AsyncTask<Void, Void, Void>() {
+        void invalidate(Context context, long docId) {
+            version = DocumentTextCache.getInstance(context).invalidate(docId);
+        }
+
+        void commit(Context context, long docId) {
+            if (entry != null) DocumentTextCache.getInstance(context).put(docId, entry, version);
+        }
+    }
+
+    /**
+     * Saves the document appending given edits to its journal, so only the edited ranges are
+     * written, and commits the draft edits written by autosave. The full-text index is updated
+     * with the whole text because it does not know the journal. If the journal gets bigger
+     * than a threshold, its compaction is queued after notifying the callback.
+     * @param context
+     * @param doc
+     * @param text current text, it is used to update document statistics
+     * @param edits edits since last save or draft (see EditJournalUtils.recordEdit)
+     * @param storedHash holder of the hash of the stored text (with journal applied), its value
+     *                   is null if it is unknown. If the text has got the same hash, edits are
+     *                   not written. It is read in background and it is only updated once the
+     *                   write is committed, so a write that is executed again (see
+     *                   DataExecutor) does not skip its edits.
+     * @param workingTime
+     * @param callback it is notified with true if the document has been saved. If it has
+     *                 failed, given edits have not been written and the journal misses them.
+     */
+    public static Future<Boolean> saveDocumentEdits(final Context context,
+                                                    final DocumentMetadata doc,
+                                                    final String text,
+                                                    final List<DocumentEditEntity> edits,
+                                                    final AtomicReference<Long> storedHash,
+                                                    final long workingTime,
+                                                    final Callbacks.FinishCallback<Boolean> callback) {
+        final CacheUpdate cacheUpdate = new CacheUpdate();
+        return getWriter(context).write(new DocumentRepository.WriteTask<Boolean>() {
+            @Override
+            public Boolean run(AppDatabase db, DocumentChanges changes) {
+                cacheUpdate.invalidate(context, doc.id);
+                long hash = EditJournalUtils.hashText(text);
+                boolean textChanged = !Long.valueOf(hash).equals(storedHash.get());
+                db.documentDao().updateEdition(doc.id,
+                        workingTime,
+                        System.currentTimeMillis(),
+                        countWords(text));
+                boolean draftCommitted = db.documentDao().countDraftEdits(doc.id) > 0;
+                db.documentDao().commitDraftEdits(doc.id);
+                boolean editsWritten = textChanged && !edits.isEmpty();
+                if (editsWritten) db.documentDao().insertEdits(edits);
+                if (editsWritten || draftCommitted) {
+                    // stored text is not changed so its triggers do not update the search index
+                    db.documentSearchDao().updateIndexedText(doc.id, text);
+                }
+                changes.onUpdated(doc.id);
+                cacheUpdate.entry = new DocumentTextCache.Entry(text, hash, false);
+                return db.documentDao().getEditsSize(doc.id) > JOURNAL_COMPACTION_THRESHOLD;
+            }
+        }, new Callbacks.FinishCallback<Boolean>() {
             @Override
-            protected Void doInBackground(Void[] params) {
-                DocumentEntity entity = AppDatabase.getInstance(context).documentDao().getDocument(doc.id);
-                entity.text = text;
-                entity.workingTime += workingTime;
-                entity.lastEditionTime = System.currentTimeMillis();
-                entity.words = countWords(text);
-                AppDatabase.getInstance(context).documentDao().update(entity);
+            public void onFinish(Boolean compactionNeeded) {
+                // result is null if it has failed
+                if (compactionNeeded != null) {
+                    storedHash.set(cacheUpdate.entry.hash);
+                    cacheUpdate.commit(context, doc.id);
+                }
+                callback.onFinish(compactionNeeded != null);
+                if (Boolean.TRUE.equals(compactionNeeded)) compactDocumentJournal(context, doc);
+            }
+        });
+    }
+
+    /**
+     * Writes given edits to the journal of the document as draft edits, so they can be
+     * recovered if the app is killed before saving. Document metadata is not updated.
+     * @param context
+     * @param doc
+     * @param text current text, it is only used to know if it has changed
+     * @param edits edits since last save or draft (see EditJournalUtils.recordEdit)
+     * @param storedHash holder of the hash of the stored text (with journal applied), its value
+     *                   is null if it is unknown. If the text has got the same hash, edits are
+     *                   not written. It is read in background and it is only updated once the
+     *                   write is committed, so a write that is executed again (see
+     *                   DataExecutor) does not skip its edits.
+     * @param callback it is notified with true if the draft has been saved (or it was not
+     *                 needed). If it has failed, given edits have not been written.
+     */
+    public static Future<Boolean> saveDocumentDraft(final Context context,
+                                                    final DocumentMetadata doc,
+                                                    final String text,
+                                                    final List<DocumentEditEntity> edits,
+                                                    final AtomicReference<Long> storedHash,
+                                                    @Nullable final Callbacks.FinishCallback<Boolean> callback) {
+        final CacheUpdate cacheUpdate = new CacheUpdate();
+        return getWriter(context).write(new DocumentRepository.WriteTask<Boolean>() {
+            @Override
+            public Boolean run(AppDatabase db, DocumentChanges changes) {
+                long hash = EditJournalUtils.hashText(text);
+                if (!Long.valueOf(hash).equals(storedHash.get()) && !edits.isEmpty()) {
+                    cacheUpdate.invalidate(context, doc.id);
+                    for (DocumentEditEntity edit : edits) {
+                        edit.draft = true;
+                    }
+                    db.documentDao().insertEdits(edits);
+                    cacheUpdate.entry = new DocumentTextCache.Entry(text, hash, true);
+                    return true;
+                }
+                return false;
+            }
+        }, new Callbacks.FinishCallback<Boolean>() {
+            @Override
+            public void onFinish(Boolean written) {
+                if (Boolean.TRUE.equals(written)) {
+                    storedHash.set(cacheUpdate.entry.hash);
+                    cacheUpdate.commit(context, doc.id);
+                }
+                // result is null if it has failed
+                if (callback != null) callback.onFinish(written != null);
+            }
+        });
+    }
+
+    /**
+     * Removes the draft edits of the document in background.
+     * @param context
+     * @param doc
+     */
+    public static Future<Void> discardDocumentDraft(final Context context, final DocumentMetadata doc) {
+        return getWriter(context).write(new DocumentRepository.WriteTask<Void>() {
+            @Override
+            public Void run(AppDatabase db, DocumentChanges changes) {
+                // stored text changes but it is unknown here
+                DocumentTextCache.getInstance(context).invalidate(doc.id);
+                db.documentDao().deleteDraftEdits(doc.id);
                 return null;
             }
+        }, null);
+    }
+
+    /**
+     * Applies the edit journal of the document to its stored text in background.
+     * @param context
+     * @param doc
+     */
+    public static Future<Void> compactDocumentJournal(final Context context, final DocumentMetadata doc) {
+        return getWriter(context).write(new DocumentRepository.WriteTask<Void>() {
             @Override
-            protected void onPostExecute(Void v) {
-                callback.onFinish(null);
+            public Void run(AppDatabase db, DocumentChanges changes) {
+                db.compactDocumentJournal(doc.id);
+                return null;
             }
-        }.execute();
+        }, null);
     }
 
     public static int countWords(String text) {
-        return TextUtils.isEmpty(text) ? 0 : text.split("\\s+").length;
+        // big texts are counted in parallel
+        return text == null ? 0 : TextStatistics.compute(text).words;
     }
 
-    public static void importDocument(final Context context,
-                                      final Document document,
-                                      final Callbacks.FinishCallback<DocumentMetadata> callback) {
-        new AsyncTask<Void, Void, DocumentMetadata>() {
+    /**
+     * Counts again the words of all documents and updates the ones that have changed, it is
+     * needed when counting rules change (see WordCountUtils.VERSION). Texts are read one by one
+     * with low priority. A document that is edited meanwhile is not updated because its words
+     * have been counted by the edition. It has to be called in a background thread.
+     * @param context
+     * @return true if all documents have been counted
+     */
+    public static boolean recountWords(Context context) {
+        DataExecutor executor = DataExecutor.getInstance(context);
+        try {
+            List<Long> docIds = executor.read(DataExecutor.PRIORITY_LOW, new DataExecutor.Task<List<Long>>() {
+                @Override
+                public List<Long> run(AppDatabase db) {
+                    return db.documentDao().getDocumentIdsEditedAfter(Long.MIN_VALUE);
+                }
+            }, null).get();
+            for (final Long docId : docIds) {
+                DocumentEntity doc = executor.read(DataExecutor.PRIORITY_LOW, new DataExecutor.Task<DocumentEntity>() {
+                    @Override
+                    public DocumentEntity run(AppDatabase db) {
+                        DocumentEntity entity = db.documentDao().getDocument(docId);
+                        if (entity != null) entity.text = db.loadDocumentText(docId);
+                        return entity;
+                    }
+                }, null).get();
+                // it has been deleted meanwhile
+                if (doc == null) continue;
+                final int words = countWords(doc.text);
+                if (words == doc.words) continue;
+                final long lastEditionTime = doc.lastEditionTime;
+                // buffered mutations are not flushed (it is only allowed in the main thread),
+                // they do not change the count of words so the order does not matter
+                DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Void>() {
+                    @Override
+                    public Void run(AppDatabase db, DocumentChanges changes) {
+                        DocumentMetadata current = db.documentDao().getDocumentMetadata(docId);
+                        if (current != null && current.lastEditionTime == lastEditionTime) {
+                            db.documentDao().updateWords(docId, words);
+                            changes.onUpdated(docId);
+                        }
+                        return null;
+                    }
+                }, null).get();
+            }
+            return true;
+        } catch (InterruptedException | ExecutionException e) {
+            Timber.e(e, "Error counting words of documents");
+            return false;
+        }
+    }
+
+    public static Future<DocumentMetadata> importDocument(final Context context,
+                                                          final Document document,
+                                                          final Callbacks.FinishCallback<DocumentMetadata> callback) {
+        return getWriter(context).write(new DocumentRepository.WriteTask<DocumentMetadata>() {
             @Override
-            protected DocumentMetadata doInBackground(Void[] params) {
+            public DocumentMetadata run(AppDatabase db, DocumentChanges changes) {
                 DocumentEntity doc = new DocumentEntity(document);
                 doc.words = countWords(doc.getText());
-                long[] docId = AppDatabase.getInstance(context).documentDao().insert(doc);
-                if (docId.length > 0 && docId[0] > -1) {
-                    return AppDatabase.getInstance(context).documentDao().getDocumentMetadata(docId[0]);
+                long docId = db.insertDocument(doc);
+                if (docId != Document.NULL_ID) {
+                    changes.onInserted(docId);
+                    return db.documentDao().getDocumentMetadata(docId);
+                }
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Inserts given imported documents in a single write operation, so they are inserted in one
+     * transaction and notified as one change. It can be called in any thread.
+     * @param context
+     * @param documents
+     * @return future of the number of inserted documents
+     */
+    public static Future<Integer> importDocuments(final Context context, final List<DocumentEntity> documents) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Integer>() {
+            @Override
+            public Integer run(AppDatabase db, DocumentChanges changes) {
+                int inserted = 0;
+                for (DocumentEntity doc : documents) {
+                    long docId = db.insertDocument(doc);
+                    if (docId != Document.NULL_ID) {
+                        changes.onInserted(docId);
+                        inserted++;
+                    }
                 }
+                return inserted;
+            }
+        }, null);
+    }
+
+    // streaming import, the text is appended to the journal in chunks so it is never held in
+    // memory as a whole. These methods can be called in any thread because the imported
+    // document is new (so it does not depend on buffered mutations), wait for the returned
+    // future to know the result. Documents of unfinished imports are kept in preferences
+    // (they are written by the writer thread) so they are deleted if the process dies.
+
+    /**
+     * Inserts the document of a streaming import without text.
+     * @param context
+     * @param document metadata of the document, its text is ignored
+     * @return future of the ID of the document or Document.NULL_ID
+     */
+    public static Future<Long> beginImport(final Context context, final Document document) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Long>() {
+            @Override
+            public Long run(AppDatabase db, DocumentChanges changes) {
+                DocumentEntity doc = new DocumentEntity(document);
+                doc.text = Document.NULL_TEXT;
+                // it is notified as inserted when the import is finished
+                long docId = db.insertDocument(doc);
+                if (docId != Document.NULL_ID) PreferencesUtils.setPendingImport(context, docId, true);
+                return docId;
+            }
+        }, null);
+    }
+
+    /**
+     * Appends a chunk of text to the document of a streaming import.
+     * @param context
+     * @param docId
+     * @param offset length of the text that has been appended before
+     * @param chunk
+     */
+    public static Future<Void> appendImportedText(final Context context,
+                                                  final long docId,
+                                                  final int offset,
+                                                  final String chunk) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Void>() {
+            @Override
+            public Void run(AppDatabase db, DocumentChanges changes) {
+                List<DocumentEditEntity> edits = new ArrayList<>(1);
+                edits.add(new DocumentEditEntity(docId, offset, 0, chunk));
+                db.documentDao().insertEdits(edits);
                 return null;
             }
+        }, null);
+    }
+
+    /**
+     * Finishes a streaming import. Its journal only has appended chunks, so it is compacted in
+     * SQL without loading the text and the stored text is indexed for search right away.
+     * @param context
+     * @param docId
+     * @param length length of the text
+     * @param words
+     * @return future of the metadata of the imported document
+     */
+    public static Future<DocumentMetadata> finishImport(final Context context,
+                                                        final long docId,
+                                                        final int length,
+                                                        final int words) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<DocumentMetadata>() {
             @Override
-            protected void onPostExecute(DocumentMetadata doc) {
-                callback.onFinish(doc);
+            public DocumentMetadata run(AppDatabase db, DocumentChanges changes) {
+                db.documentDao().updateWords(docId, words);
+                db.documentDao().appendCommittedEdits(docId);
+                db.documentDao().deleteCommittedEdits(docId);
+                PreferencesUtils.setPendingImport(context, docId, false);
+                changes.onInserted(docId);
+                return db.documentDao().getDocumentMetadata(docId);
+            }
+        }, null);
+    }
+
+    /**
+     * Deletes the document of a streaming import that has been cancelled or has failed.
+     * @param context
+     * @param docId
+     */
+    public static Future<Void> abortImport(final Context context, final long docId) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Void>() {
+            @Override
+            public Void run(AppDatabase db, DocumentChanges changes) {
+                DocumentEntity entity = new DocumentEntity();
+                entity.id = docId;
+                db.deleteDocuments(entity);
+                PreferencesUtils.setPendingImport(context, docId, false);
+                changes.onDeleted(docId);
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * Deletes the documents of streaming imports that were interrupted because the process
+     * died. It has to be called when the app starts, before any import.
+     * @param context
+     */
+    public static Future<Void> deleteInterruptedImports(final Context context) {
+        return DocumentRepository.getInstance(context).write(new DocumentRepository.WriteTask<Void>() {
+            @Override
+            public Void run(AppDatabase db, DocumentChanges changes) {
+                Set<String> docIds = PreferencesUtils.getPendingImports(context);
+                if (docIds.isEmpty()) return null;
+                List<DocumentEntity> documents = new ArrayList<>(docIds.size());
+                for (String docId : docIds) {
+                    DocumentEntity entity = new DocumentEntity();
+                    entity.id = Long.parseLong(docId);
+                    documents.add(entity);
+                    changes.onDeleted(entity.id);
+                }
+                Timber.w("Deleting " + documents.size() + " interrupted imports");
+                db.deleteDocuments(documents.toArray(new DocumentEntity[documents.size()]));
+                PreferencesUtils.clearPendingImports(context);
+                return null;
             }
-        }.execute();
+        }, null);
     }
 }
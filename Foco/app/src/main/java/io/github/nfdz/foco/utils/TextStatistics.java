@@ -0,0 +1,204 @@
+package io.github.nfdz.foco.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * This class defines the statistics of a text and it has static methods to compute them. Words
+ * are counted as WordCountUtils does, lines are separated by line feed and a paragraph is a
+ * line with at least one word (as IncrementalTextCounter does).
+ * Big texts are split in segments that are counted in parallel and then merged. Segments start
+ * in a separator, so no word (neither CJK run) is split and the merged result is the same than
+ * the sequential one.
+ */
+public class TextStatistics {
+
+    /** Minimum length of a text to be counted in parallel */
+    private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+    /** Minimum length of a segment counted in parallel */
+    private static final int MIN_SEGMENT_LENGTH = 256 * 1024;
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    public int words = 0;
+    public int characters = 0;
+    public int lines = 0;
+    public int paragraphs = 0;
+
+    /** Number of line feeds, lines are computed from it once segments are merged */
+    private int mLineFeeds = 0;
+
+    /**
+     * Computes the statistics of given text. It can be called in any thread, but the text must
+     * not change meanwhile.
+     * @param text
+     * @return statistics
+     */
+    public static TextStatistics compute(CharSequence text) {
+        int length = text.length();
+        int segments = length < PARALLEL_THRESHOLD ? 1 : Math.min(CORES, length / MIN_SEGMENT_LENGTH);
+        return compute(text, segments);
+    }
+
+    /**
+     * Computes the statistics of given text split in given number of segments, whatever its
+     * length is. It is package-private to test the parallel count with small texts.
+     * @param text
+     * @param segments if it is lower than 2 the text is counted sequentially
+     * @return statistics
+     */
+    static TextStatistics compute(CharSequence text, int segments) {
+        int length = text.length();
+        TextStatistics result;
+        if (segments < 2) {
+            result = countSegment(text, 0, length);
+        } else {
+            result = computeInParallel(text, segments);
+        }
+        result.characters = length;
+        result.lines = length > 0 ? result.mLineFeeds + 1 : 0;
+        return result;
+    }
+
+    private static TextStatistics computeInParallel(final CharSequence text, int segments) {
+        int length = text.length();
+        List<Future<TextStatistics>> futures = new ArrayList<>(segments);
+        ExecutorService executor = getExecutor();
+        int start = 0;
+        for (int i = 1; i < segments && start < length; i++) {
+            int end = findSegmentEnd(text, Math.max(start, (int) ((long) length * i / segments)));
+            if (end <= start) continue;
+            final int segmentStart = start;
+            final int segmentEnd = end;
+            futures.add(executor.submit(new Callable<TextStatistics>() {
+                @Override
+                public TextStatistics call() {
+                    return countSegment(text, segmentStart, segmentEnd);
+                }
+            }));
+            start = end;
+        }
+        // the last segment is counted by this thread
+        TextStatistics result = countSegment(text, start, length);
+        try {
+            for (Future<TextStatistics> future : futures) {
+                result.merge(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Timber.e(e, "Error computing statistics in parallel");
+            for (Future<TextStatistics> future : futures) {
+                future.cancel(true);
+            }
+            return countSegment(text, 0, length);
+        }
+        return result;
+    }
+
+    /**
+     * This method returns the position of the first separator from given one, or the length of
+     * the text if there is not any.
+     * @param text
+     * @param from
+     * @return position
+     */
+    private static int findSegmentEnd(CharSequence text, int from) {
+        int length = text.length();
+        int i = from;
+        while (i < length && !WordCountUtils.isSeparator(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * This method counts given segment of the text. It must start at the beginning of the text
+     * or in a separator. Characters before the segment are only read to know if the first word
+     * starts a paragraph.
+     * @param text
+     * @param start inclusive
+     * @param end exclusive
+     * @return statistics of the segment (without characters and lines)
+     */
+    private static TextStatistics countSegment(CharSequence text, int start, int end) {
+        TextStatistics result = new TextStatistics();
+        boolean inWord = false;
+        boolean lineStart = true;
+        for (int i = start - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (c == '\n') break;
+            if (!WordCountUtils.isSeparator(c)) {
+                lineStart = false;
+                break;
+            }
+        }
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (WordCountUtils.isSeparator(c)) {
+                if (c == '\n') {
+                    result.mLineFeeds++;
+                    lineStart = true;
+                }
+                inWord = false;
+                i++;
+                continue;
+            }
+            if (lineStart) {
+                result.paragraphs++;
+                lineStart = false;
+            }
+            if (WordCountUtils.isCjk(c)) {
+                int runEnd = i + 1;
+                while (runEnd < end && WordCountUtils.continuesCjkRun(text.charAt(runEnd))) {
+                    runEnd++;
+                }
+                result.words += WordCountUtils.countWords(text, i, runEnd, false);
+                inWord = false;
+                i = runEnd;
+            } else {
+                if (!inWord) {
+                    inWord = true;
+                    result.words++;
+                }
+                i++;
+            }
+        }
+        return result;
+    }
+
+    private void merge(TextStatistics other) {
+        words += other.words;
+        paragraphs += other.paragraphs;
+        mLineFeeds += other.mLineFeeds;
+    }
+
+    // executor instantiation
+    private static volatile ExecutorService sExecutor;
+    private static final Object LOCK = new Object();
+    private static ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            synchronized (LOCK) {
+                if (sExecutor == null) {
+                    sExecutor = Executors.newFixedThreadPool(Math.max(1, CORES - 1), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "TextStatistics");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,265 @@
+package io.github.nfdz.foco.utils;
+
+import java.text.BreakIterator;
+
+/**
+ * This class has static methods to count words. Words are sequences of characters between
+ * whitespace, as split("\\s+") did, but whitespace includes all Unicode space separators
+ * (no-break and ideographic spaces too). Text is walked once without allocating anything.
+ * Chinese and Japanese do not separate words, so runs of CJK characters are counted by a
+ * segmenter (see Segmenter). It is only used for those runs, Latin text keeps the fast path.
+ */
+public class WordCountUtils {
+
+    /**
+     * Version of the counting rules. It has to be increased when they change, so the words of
+     * stored documents are counted again (see WordCountService).
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Interface to be implemented by word segmentation engines of the scripts that do not
+     * separate words.
+     */
+    public interface Segmenter {
+        /**
+         * Counts the words of given run of CJK characters (see isCjk).
+         * @param text
+         * @param start inclusive
+         * @param end exclusive
+         * @return number of words
+         */
+        int countWords(CharSequence text, int start, int end);
+    }
+
+    /**
+     * Default segmenter, it uses the word instance of BreakIterator that has got dictionary
+     * rules for CJK in Android. Segments without letters or digits are punctuation.
+     */
+    private static class BreakIteratorSegmenter implements Segmenter {
+
+        // break iterators are not thread safe and they are expensive to create
+        private final ThreadLocal<BreakIterator> mIterator = new ThreadLocal<BreakIterator>() {
+            @Override
+            protected BreakIterator initialValue() {
+                return BreakIterator.getWordInstance();
+            }
+        };
+
+        @Override
+        public int countWords(CharSequence text, int start, int end) {
+            String run = text.subSequence(start, end).toString();
+            BreakIterator iterator = mIterator.get();
+            iterator.setText(run);
+            int words = 0;
+            int segmentStart = iterator.first();
+            for (int segmentEnd = iterator.next();
+                 segmentEnd != BreakIterator.DONE;
+                 segmentStart = segmentEnd, segmentEnd = iterator.next()) {
+                if (hasLetterOrDigit(run, segmentStart, segmentEnd)) words++;
+            }
+            return words;
+        }
+
+        private static boolean hasLetterOrDigit(String text, int start, int end) {
+            for (int i = start; i < end; ) {
+                int codePoint = text.codePointAt(i);
+                if (Character.isLetterOrDigit(codePoint)) return true;
+                i += Character.charCount(codePoint);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Inner class that counts the words of a text that is read by chunks. A run of CJK
+     * characters at the end of a chunk is kept until the next one, so it is segmented as a
+     * whole (unless it is longer than MAX_PENDING_RUN, then it is segmented in parts but the
+     * rest of the run is still read as a run and surrogate pairs are not split).
+     */
+    public static class Counter {
+
+        private static final int MAX_PENDING_RUN = 16 * 1024;
+
+        private final StringBuilder mPendingRun = new StringBuilder();
+        private int mWords = 0;
+        private boolean mInWord = false;
+        /** True if the text read so far ends in a CJK run (pending run could be flushed) */
+        private boolean mInRun = false;
+
+        /**
+         * Counts the next chunk of the text.
+         * @param text
+         * @param start inclusive
+         * @param end exclusive
+         */
+        public void append(CharSequence text, int start, int end) {
+            int runEnd = start;
+            if (mInRun) {
+                while (runEnd < end && continuesCjkRun(text.charAt(runEnd))) {
+                    runEnd++;
+                }
+                mPendingRun.append(text, start, runEnd);
+                if (runEnd == end) {
+                    flushFullPendingRun();
+                    return;
+                }
+                flushPendingRun();
+                mInRun = false;
+            }
+            int tail = end;
+            while (tail > runEnd && continuesCjkRun(text.charAt(tail - 1))) {
+                tail--;
+            }
+            // a trailing low surrogate can belong to a pair that is not CJK
+            while (tail < end && !isCjk(text.charAt(tail))) {
+                tail++;
+            }
+            mWords += countWords(text, runEnd, tail, mInWord);
+            if (tail > runEnd) mInWord = isInWord(text.charAt(tail - 1));
+            if (tail < end) {
+                mPendingRun.append(text, tail, end);
+                mInRun = true;
+                flushFullPendingRun();
+            }
+        }
+
+        /**
+         * Counts the pending run, if any, and returns the words of the whole text.
+         * @return number of words
+         */
+        public int finish() {
+            flushPendingRun();
+            mInRun = false;
+            return mWords;
+        }
+
+        /**
+         * This method segments the pending run if it is longer than MAX_PENDING_RUN. A trailing
+         * high surrogate is kept pending until its pair is read.
+         */
+        private void flushFullPendingRun() {
+            int length = mPendingRun.length();
+            if (length < MAX_PENDING_RUN) return;
+            int end = Character.isHighSurrogate(mPendingRun.charAt(length - 1)) ? length - 1 : length;
+            mWords += sSegmenter.countWords(mPendingRun, 0, end);
+            mPendingRun.delete(0, end);
+            mInWord = false;
+        }
+
+        private void flushPendingRun() {
+            if (mPendingRun.length() == 0) return;
+            mWords += sSegmenter.countWords(mPendingRun, 0, mPendingRun.length());
+            mPendingRun.setLength(0);
+            mInWord = false;
+        }
+    }
+
+    /** Segmenter that is used if other one is not set */
+    static final Segmenter DEFAULT_SEGMENTER = new BreakIteratorSegmenter();
+
+    private static volatile Segmenter sSegmenter = DEFAULT_SEGMENTER;
+
+    /**
+     * Sets the segmenter of CJK runs.
+     * @param segmenter
+     */
+    public static void setSegmenter(Segmenter segmenter) {
+        sSegmenter = segmenter;
+    }
+
+    /**
+     * Returns true if given character separates words.
+     * @param c
+     * @return boolean
+     */
+    public static boolean isSeparator(char c) {
+        // fast path for ASCII, that is the common case
+        if (c < 0x80) return c == ' ' || (c >= 0x09 && c <= 0x0D) || (c >= 0x1C && c <= 0x1F);
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    /**
+     * Returns true if given character is a Chinese or Japanese character (ideographs, kana,
+     * CJK punctuation and full width forms). Korean is not included because it separates words.
+     * Ideographs out of the BMP are detected by their high surrogate.
+     * @param c
+     * @return boolean
+     */
+    public static boolean isCjk(char c) {
+        // fast path, there is not any CJK character before radicals
+        if (c < 0x2E80) return false;
+        return (c <= 0x2FDF) ||
+                (c >= 0x3001 && c <= 0x312F) ||
+                (c >= 0x3190 && c <= 0x9FFF) ||
+                (c >= 0xF900 && c <= 0xFAFF) ||
+                (c >= 0xFF01 && c <= 0xFFEF) ||
+                (c >= 0xD840 && c <= 0xD87F);
+    }
+
+    /**
+     * Returns true if given character is part of a CJK run that has started before it. Low
+     * surrogates and general punctuation (quotes, dashes, ellipsis) do not break the run.
+     * @param c
+     * @return boolean
+     */
+    public static boolean continuesCjkRun(char c) {
+        return isCjk(c) || Character.isLowSurrogate(c) || (c >= 0x2010 && c <= 0x205E);
+    }
+
+    /**
+     * Returns true if a word that is not CJK continues after given character.
+     * @param c
+     * @return boolean
+     */
+    public static boolean isInWord(char c) {
+        return !isSeparator(c) && !isCjk(c);
+    }
+
+    /**
+     * Counts the words of given text.
+     * @param text
+     * @return number of words
+     */
+    public static int countWords(CharSequence text) {
+        return text == null ? 0 : countWords(text, 0, text.length(), false);
+    }
+
+    /**
+     * Counts the words that start in given range of the text. A word that continues the
+     * previous range is not counted again. CJK runs are counted by the segmenter, so a range
+     * must not start or end in the middle of one of them.
+     * @param text
+     * @param start inclusive
+     * @param end exclusive
+     * @param afterWord true if the character before start is part of a word (see isInWord)
+     * @return number of words
+     */
+    public static int countWords(CharSequence text, int start, int end, boolean afterWord) {
+        int words = 0;
+        boolean inWord = afterWord;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (isSeparator(c)) {
+                inWord = false;
+                i++;
+            } else if (isCjk(c)) {
+                int runEnd = i + 1;
+                while (runEnd < end && continuesCjkRun(text.charAt(runEnd))) {
+                    runEnd++;
+                }
+                words += sSegmenter.countWords(text, i, runEnd);
+                inWord = false;
+                i = runEnd;
+            } else {
+                if (!inWord) {
+                    inWord = true;
+                    words++;
+                }
+                i++;
+            }
+        }
+        return words;
+    }
+}
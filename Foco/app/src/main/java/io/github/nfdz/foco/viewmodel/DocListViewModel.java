@@ -8,9 +8,14 @@ import android.arch.lifecycle.MutableLiveData;
 import android.arch.lifecycle.Transformations;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
+import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
 import io.github.nfdz.foco.data.DatabaseManager;
+import io.github.nfdz.foco.data.DocumentRepository;
 import io.github.nfdz.foco.data.entity.DocumentMetadata;
+import io.github.nfdz.foco.model.Callbacks;
 
 /**
  * Document metadata list view model implementation.
@@ -22,7 +27,11 @@ public class DocListViewModel extends AndroidViewModel {
         ABSENT.setValue(null);
     }
 
-    private final LiveData<List<DocumentMetadata>> mObservableDocuments;
+    private static final int SEARCH_LIMIT = 200;
+
+    private final LiveData<Integer> mObservableDocumentsCount;
+    private final DocumentPagedList mDocuments;
+    private Future<List<DocumentMetadata>> mSearch;
 
     /**
      * Default constructor.
@@ -33,25 +42,75 @@ public class DocListViewModel extends AndroidViewModel {
 
         // transform database created flag to live data.
         // if it is not created, it will return ABSENT field.
-        // if it is created, it will return room live data.
+        // if it is created, it will return repository live data.
         final DatabaseManager databaseManager = DatabaseManager.getInstance(application);
+        final DocumentRepository repository = DocumentRepository.getInstance(application);
         LiveData<Boolean> databaseCreated = databaseManager.isDatabaseCreated();
-        mObservableDocuments = Transformations.switchMap(databaseCreated,
-                new Function<Boolean, LiveData<List<DocumentMetadata>>>() {
+        mObservableDocumentsCount = Transformations.switchMap(databaseCreated,
+                new Function<Boolean, LiveData<Integer>>() {
                     @Override
-                    public LiveData<List<DocumentMetadata>> apply(Boolean isDbCreated) {
+                    public LiveData<Integer> apply(Boolean isDbCreated) {
                         if (!Boolean.TRUE.equals(isDbCreated)) {
                             return ABSENT;
                         } else {
-                            return databaseManager.getDatabase().documentDao().loadAllDocumentsMetadata();
+                            return repository.getDocumentsCount();
                         }
                     }
                 });
+        mDocuments = new DocumentPagedList(application);
+        repository.addChangeListener(mDocuments);
 
         databaseManager.initDbAsync(this.getApplication());
     }
 
-    public LiveData<List<DocumentMetadata>> getDocumentsMetadata() {
-        return mObservableDocuments;
+    @Override
+    protected void onCleared() {
+        DocumentRepository.getInstance(getApplication()).removeChangeListener(mDocuments);
+        if (mSearch != null) mSearch.cancel(false);
+    }
+
+    /**
+     * Returns a live data with the number of documents. It emits a new value every time that
+     * documents are inserted or deleted, so it should be used to invalidate the paged list.
+     * Updated documents are handled by the paged list itself.
+     * @return LiveData<Integer>
+     */
+    public LiveData<Integer> getDocumentsCount() {
+        return mObservableDocumentsCount;
+    }
+
+    /**
+     * Returns the paged list of documents metadata.
+     * @return DocumentPagedList
+     */
+    public DocumentPagedList getDocuments() {
+        return mDocuments;
+    }
+
+    /**
+     * Changes the sort criteria of documents list and search results.
+     * @param sort DocumentPagedList.SORT_TITLE, SORT_EDIT_TIME or SORT_WORDS
+     */
+    public void setSort(int sort) {
+        mDocuments.setSort(sort);
+    }
+
+    /**
+     * Searches documents whose name or text contains the words of given text. Results are
+     * sorted by relevance and they have got a snippet of the match. This is performed in
+     * background and result is notified through given callback in main thread. A previous
+     * search that has not started yet is cancelled.
+     * @param text
+     * @param callback
+     */
+    public void searchDocuments(final String text,
+                                final Callbacks.FinishCallback<List<DocumentMetadata>> callback) {
+        if (mSearch != null) mSearch.cancel(false);
+        mSearch = DataExecutor.getInstance(getApplication()).read(new DataExecutor.Task<List<DocumentMetadata>>() {
+            @Override
+            public List<DocumentMetadata> run(AppDatabase db) {
+                return db.documentSearchDao().search(text, SEARCH_LIMIT);
+            }
+        }, callback);
     }
 }
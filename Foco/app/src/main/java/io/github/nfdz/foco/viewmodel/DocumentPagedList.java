@@ -0,0 +1,385 @@
+package io.github.nfdz.foco.viewmodel;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import io.github.nfdz.foco.data.AppDatabase;
+import io.github.nfdz.foco.data.DataExecutor;
+import io.github.nfdz.foco.data.DocumentChanges;
+import io.github.nfdz.foco.data.DocumentRepository;
+import io.github.nfdz.foco.data.dao.DocumentDao;
+import io.github.nfdz.foco.data.entity.DocumentMetadata;
+import io.github.nfdz.foco.model.Callbacks;
+
+/**
+ * This class provides a lazy, paged view of documents metadata with the given sort criteria.
+ * It only keeps in memory the pages near the last accessed position. Adjacent pages are loaded
+ * with keyset pagination (the query starts after/before a known row), offset queries are only
+ * used when there is not a loaded neighbour page (first load or a fast scroll jump).
+ * Loaded items are the cached instances of DocumentRepository, so updates that do not change
+ * the sort are applied in place and only the affected positions are notified.
+ * All public methods have to be called in the main thread.
+ */
+public class DocumentPagedList implements DocumentRepository.ChangeListener {
+
+    public static final int SORT_TITLE = 0;
+    public static final int SORT_EDIT_TIME = 1;
+    public static final int SORT_WORDS = 2;
+
+    static final int PAGE_SIZE = 40;
+
+    /** Number of pages that are kept at each side of the last accessed page */
+    private static final int KEPT_PAGES_AROUND = 2;
+
+    /** Distance (in items) to page boundaries that triggers the load of the neighbour page */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Callback to be implemented to be notified about data changes.
+     */
+    public interface Callback {
+        void onItemRangeChanged(int positionStart, int itemCount);
+        void onDataSetChanged();
+    }
+
+    /**
+     * Inner class that defines a loaded page. Generation field is used to know if the page was
+     * loaded before or after the last invalidation.
+     */
+    private static class Page {
+        final int generation;
+        final List<DocumentMetadata> items;
+        Page(int generation, List<DocumentMetadata> items) {
+            this.generation = generation;
+            this.items = items;
+        }
+    }
+
+    private final Context mContext;
+    private final DocumentRepository mRepository;
+    private final SparseArray<Page> mPages = new SparseArray<>();
+    private final SparseArray<LoadPageTask> mLoadingPages = new SparseArray<>();
+
+    private int mSort = SORT_TITLE;
+    private int mSize = 0;
+    private int mGeneration = 0;
+    private int mLastAccessedPage = 0;
+    @Nullable private Callback mCallback;
+
+    /**
+     * Default constructor. Database is resolved lazily in background threads.
+     * @param context
+     */
+    public DocumentPagedList(Context context) {
+        mContext = context.getApplicationContext();
+        mRepository = DocumentRepository.getInstance(mContext);
+    }
+
+    public void setCallback(@Nullable Callback callback) {
+        mCallback = callback;
+    }
+
+    public int getSort() {
+        return mSort;
+    }
+
+    /**
+     * Changes the sort criteria. It invalidates all loaded pages.
+     * @param sort SORT_TITLE, SORT_EDIT_TIME or SORT_WORDS
+     */
+    public void setSort(int sort) {
+        if (mSort != sort) {
+            mSort = sort;
+            mLastAccessedPage = 0;
+            mPages.clear();
+            invalidate(mSize);
+        }
+    }
+
+    /**
+     * Invalidates loaded pages because the underlying data has changed. Stale pages are kept
+     * (they will be shown) until fresh ones are loaded.
+     * @param size new number of documents
+     */
+    public void invalidate(int size) {
+        mGeneration++;
+        mSize = size;
+        for (int i = 0; i < mLoadingPages.size(); i++) {
+            mLoadingPages.valueAt(i).cancel();
+        }
+        mLoadingPages.clear();
+        if (mCallback != null) mCallback.onDataSetChanged();
+        loadAround(mLastAccessedPage * PAGE_SIZE);
+    }
+
+    /**
+     * Handles documents updates. Inserted and deleted documents are ignored because they change
+     * the number of documents and the list is invalidated with the new size (see
+     * DocListViewModel.getDocumentsCount).
+     * @param changes
+     */
+    @Override
+    public void onDocumentsChanged(DocumentChanges changes) {
+        if (changes.hasCountChanged() || changes.getUpdated().isEmpty()) return;
+        if ((changes.getChangedFields() & getSortFields(mSort)) != 0) {
+            // positions may have changed
+            invalidate(mSize);
+            return;
+        }
+        Set<Long> updated = changes.getUpdated();
+        for (int i = 0; i < mPages.size(); i++) {
+            int pageStart = mPages.keyAt(i) * PAGE_SIZE;
+            List<DocumentMetadata> items = mPages.valueAt(i).items;
+            for (int j = 0; j < items.size(); j++) {
+                if (updated.contains(items.get(j).id) && mCallback != null) {
+                    mCallback.onItemRangeChanged(pageStart + j, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method returns the metadata fields that define the order with given sort.
+     * @param sort
+     * @return DocumentChanges.FIELD_* flags
+     */
+    private static int getSortFields(int sort) {
+        int fields = DocumentChanges.FIELD_FAVORITE | DocumentChanges.FIELD_NAME;
+        switch (sort) {
+            case SORT_EDIT_TIME:
+                return fields | DocumentChanges.FIELD_EDITION;
+            case SORT_WORDS:
+                return fields | DocumentChanges.FIELD_WORDS;
+            default:
+                return fields;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the document of given position. If it is not loaded yet it returns null and it
+     * will be notified through callback when it is available.
+     * @param position
+     * @return document or null
+     */
+    @Nullable
+    public DocumentMetadata get(int position) {
+        loadAround(position);
+        Page page = mPages.get(position / PAGE_SIZE);
+        int index = position % PAGE_SIZE;
+        if (page == null || index >= page.items.size()) {
+            return null;
+        }
+        return page.items.get(index);
+    }
+
+    private int getPageCount() {
+        return (mSize + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private boolean isFresh(int pageIndex) {
+        Page page = mPages.get(pageIndex);
+        return page != null && page.generation == mGeneration;
+    }
+
+    private void loadAround(int position) {
+        int pageIndex = position / PAGE_SIZE;
+        int index = position % PAGE_SIZE;
+        mLastAccessedPage = pageIndex;
+        loadPageIfNeeded(pageIndex);
+        if (index < PREFETCH_DISTANCE) {
+            loadPageIfNeeded(pageIndex - 1);
+        } else if (index >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            loadPageIfNeeded(pageIndex + 1);
+        }
+        evictFarPages(pageIndex);
+    }
+
+    private void evictFarPages(int pageIndex) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - pageIndex) > KEPT_PAGES_AROUND) {
+                mPages.removeAt(i);
+            }
+        }
+        for (int i = mLoadingPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mLoadingPages.keyAt(i) - pageIndex) > KEPT_PAGES_AROUND) {
+                mLoadingPages.valueAt(i).cancel();
+                mLoadingPages.removeAt(i);
+            }
+        }
+    }
+
+    private void loadPageIfNeeded(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getPageCount() ||
+                isFresh(pageIndex) || mLoadingPages.get(pageIndex) != null) {
+            return;
+        }
+        // use keyset pagination if a fresh neighbour page is loaded
+        DocumentMetadata after = null;
+        DocumentMetadata before = null;
+        if (isFresh(pageIndex - 1)) {
+            List<DocumentMetadata> previous = mPages.get(pageIndex - 1).items;
+            after = previous.get(previous.size() - 1);
+        } else if (isFresh(pageIndex + 1)) {
+            before = mPages.get(pageIndex + 1).items.get(0);
+        }
+        LoadPageTask task = new LoadPageTask(pageIndex, mGeneration, mSort, after, before);
+        mLoadingPages.put(pageIndex, task);
+        task.execute();
+    }
+
+    private void onPageLoaded(LoadPageTask task, int pageIndex, int generation, List<DocumentMetadata> items) {
+        if (mLoadingPages.get(pageIndex) != task) return;
+        mLoadingPages.remove(pageIndex);
+        if (generation != mGeneration || items == null || items.isEmpty()) return;
+        if (Math.abs(pageIndex - mLastAccessedPage) > KEPT_PAGES_AROUND) return;
+        mPages.put(pageIndex, new Page(generation, mRepository.cacheDocuments(items)));
+        if (mCallback != null) mCallback.onItemRangeChanged(pageIndex * PAGE_SIZE, items.size());
+        // chain keyset loads of neighbour pages that are stale after an invalidation
+        loadAround(mLastAccessedPage * PAGE_SIZE);
+    }
+
+    /**
+     * Performs the query of the page in background. The sort and the keys are captured when it
+     * is created so it does not access mutable state of the list.
+     */
+    private class LoadPageTask implements DataExecutor.Task<List<DocumentMetadata>>,
+            Callbacks.FinishCallback<List<DocumentMetadata>> {
+
+        private final int mPageIndex;
+        private final int mTaskGeneration;
+        private final int mTaskSort;
+        @Nullable private final DocumentMetadata mAfter;
+        @Nullable private final DocumentMetadata mBefore;
+        private Future<List<DocumentMetadata>> mFuture;
+
+        LoadPageTask(int pageIndex,
+                     int generation,
+                     int sort,
+                     @Nullable DocumentMetadata after,
+                     @Nullable DocumentMetadata before) {
+            mPageIndex = pageIndex;
+            mTaskGeneration = generation;
+            mTaskSort = sort;
+            mAfter = after;
+            mBefore = before;
+        }
+
+        void execute() {
+            mFuture = DataExecutor.getInstance(mContext).read(this, this);
+        }
+
+        void cancel() {
+            if (mFuture != null) mFuture.cancel(false);
+        }
+
+        @Override
+        public List<DocumentMetadata> run(AppDatabase db) {
+            DocumentDao dao = db.documentDao();
+            if (mAfter != null) {
+                return loadAfter(dao);
+            } else if (mBefore != null) {
+                List<DocumentMetadata> reversed = loadBefore(dao);
+                Collections.reverse(reversed);
+                return reversed;
+            } else {
+                return loadByOffset(dao, mPageIndex * PAGE_SIZE);
+            }
+        }
+
+        /**
+         * This method loads the page after the known row. Keyset queries only return rows of
+         * the group of the known row, so if the group ends the page is completed with the
+         * beginning of the next group (not favorite documents).
+         */
+        private List<DocumentMetadata> loadAfter(DocumentDao dao) {
+            List<DocumentMetadata> items;
+            switch (mTaskSort) {
+                case SORT_EDIT_TIME:
+                    items = dao.loadPageByEditionAfter(mAfter.isFavorite, mAfter.lastEditionTime,
+                            mAfter.name, mAfter.id, PAGE_SIZE);
+                    break;
+                case SORT_WORDS:
+                    items = dao.loadPageByWordsAfter(mAfter.isFavorite, mAfter.words,
+                            mAfter.name, mAfter.id, PAGE_SIZE);
+                    break;
+                default:
+                    items = dao.loadPageByTitleAfter(mAfter.isFavorite, mAfter.name, mAfter.id, PAGE_SIZE);
+            }
+            int missing = PAGE_SIZE - items.size();
+            if (missing > 0 && mAfter.isFavorite) {
+                switch (mTaskSort) {
+                    case SORT_EDIT_TIME:
+                        items.addAll(dao.loadGroupStartByEdition(false, missing));
+                        break;
+                    case SORT_WORDS:
+                        items.addAll(dao.loadGroupStartByWords(false, missing));
+                        break;
+                    default:
+                        items.addAll(dao.loadGroupStartByTitle(false, missing));
+                }
+            }
+            return items;
+        }
+
+        /**
+         * This method loads the page before the known row in reverse order. If the group of
+         * the known row begins, the page is completed with the end of the previous group
+         * (favorite documents).
+         */
+        private List<DocumentMetadata> loadBefore(DocumentDao dao) {
+            List<DocumentMetadata> items;
+            switch (mTaskSort) {
+                case SORT_EDIT_TIME:
+                    items = dao.loadPageByEditionBefore(mBefore.isFavorite, mBefore.lastEditionTime,
+                            mBefore.name, mBefore.id, PAGE_SIZE);
+                    break;
+                case SORT_WORDS:
+                    items = dao.loadPageByWordsBefore(mBefore.isFavorite, mBefore.words,
+                            mBefore.name, mBefore.id, PAGE_SIZE);
+                    break;
+                default:
+                    items = dao.loadPageByTitleBefore(mBefore.isFavorite, mBefore.name, mBefore.id, PAGE_SIZE);
+            }
+            int missing = PAGE_SIZE - items.size();
+            if (missing > 0 && !mBefore.isFavorite) {
+                switch (mTaskSort) {
+                    case SORT_EDIT_TIME:
+                        items.addAll(dao.loadGroupEndByEdition(true, missing));
+                        break;
+                    case SORT_WORDS:
+                        items.addAll(dao.loadGroupEndByWords(true, missing));
+                        break;
+                    default:
+                        items.addAll(dao.loadGroupEndByTitle(true, missing));
+                }
+            }
+            return items;
+        }
+
+        private List<DocumentMetadata> loadByOffset(DocumentDao dao, int offset) {
+            switch (mTaskSort) {
+                case SORT_EDIT_TIME:
+                    return dao.loadPageByEdition(offset, PAGE_SIZE);
+                case SORT_WORDS:
+                    return dao.loadPageByWords(offset, PAGE_SIZE);
+                default:
+                    return dao.loadPageByTitle(offset, PAGE_SIZE);
+            }
+        }
+
+        @Override
+        public void onFinish(List<DocumentMetadata> items) {
+            onPageLoaded(this, mPageIndex, mTaskGeneration, items);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.nfdz.foco.model;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of the memory allocated by DocumentSerializer on the JVM. Allocation is measured
+ * per thread, so it needs a HotSpot compatible JVM and the test is skipped in others.
+ */
+public class DocumentSerializerBenchmarkTest {
+
+    private static final int MB = 1024 * 1024;
+
+    /** Lengths of the benchmarked texts */
+    private static final int[] LENGTHS = { MB, 10 * MB };
+
+    /** Maximum bytes allocated by the streaming methods for any length, besides the text itself */
+    private static final long MAX_STREAMING_BYTES = 256 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ALPHABET = "abcdefghij klmno pqrst uvwxyz \n\nñ中";
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+
+    /**
+     * Interface of a measured operation.
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Measures the bytes allocated by given operation in this thread.
+     * @return bytes, the minimum of some runs after a warm up
+     */
+    private long measure(Operation operation) throws Exception {
+        operation.run();
+        long best = Long.MAX_VALUE;
+        long threadId = Thread.currentThread().getId();
+        for (int run = 0; run < 3; run++) {
+            long start = mThreadBean.getThreadAllocatedBytes(threadId);
+            operation.run();
+            best = Math.min(best, mThreadBean.getThreadAllocatedBytes(threadId) - start);
+        }
+        return best;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder bld = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bld.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return bld.toString();
+    }
+
+    private static DocumentSerializer.DocumentImpl createDocument(String text) {
+        DocumentSerializer.DocumentImpl doc = new DocumentSerializer.DocumentImpl();
+        doc.name = "Benchmark";
+        doc.workingTime = 1234;
+        doc.lastEditionTime = 1500000000000L;
+        doc.text = text;
+        return doc;
+    }
+
+    /**
+     * Serializes the document as the app did before the streaming methods: the whole output in
+     * a StringBuilder that is encoded at once.
+     */
+    private static byte[] serializeWithBuilder(Document document) {
+        StringBuilder bld = new StringBuilder();
+        bld.append("--- DOCUMENT METADATA ---").append('\n');
+        bld.append(document.getName()).append('\n');
+        bld.append(Long.toString(document.getWorkingTimeMillis())).append('\n');
+        bld.append(Long.toString(document.getLastEditionTimeMillis())).append('\n');
+        bld.append(Boolean.toString(document.isFavorite())).append('\n');
+        bld.append(Integer.toString(document.getCoverColor())).append('\n');
+        bld.append(document.getCoverImage()).append('\n');
+        bld.append("--- DOCUMENT METADATA ---").append('\n').append('\n');
+        bld.append(document.getText());
+        return bld.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Deserializes the document as the app did before the streaming methods: the whole input
+     * decoded to a String that is split in lines and joined again.
+     */
+    private static Document deserializeWithSplit(byte[] serialized) {
+        String[] lines = new String(serialized, UTF_8).split("\\r?\\n", -1);
+        DocumentSerializer.DocumentImpl result = new DocumentSerializer.DocumentImpl();
+        result.name = lines[1];
+        result.workingTime = Long.parseLong(lines[2]);
+        result.lastEditionTime = Long.parseLong(lines[3]);
+        result.favorite = Boolean.parseBoolean(lines[4]);
+        result.coverColor = Integer.parseInt(lines[5]);
+        result.coverImage = lines[6];
+        StringBuilder bld = new StringBuilder();
+        for (int i = 9; i < lines.length; i++) {
+            bld.append(lines[i]);
+            if (i + 1 < lines.length) bld.append('\n');
+        }
+        result.text = bld.toString();
+        return result;
+    }
+
+    /**
+     * Output stream that only counts the written bytes, like a file it does not keep them.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            count += length;
+        }
+    }
+
+    private static String perMb(long bytes, int length) {
+        return String.format("%.1f KB", bytes / 1024.0 / ((double) length / MB));
+    }
+
+    @Test
+    public void streamingAllocatesConstantMemory() throws Exception {
+        Random random = new Random(14);
+        System.out.println("Serializer allocation per MB of text: length, operation, before, after");
+        for (final int length : LENGTHS) {
+            final DocumentSerializer.DocumentImpl doc = createDocument(randomText(random, length));
+            final byte[] serialized = serializeWithBuilder(doc);
+            final CountingOutputStream out = new CountingOutputStream();
+
+            long serializeBefore = measure(new Operation() {
+                @Override
+                public void run() {
+                    out.write(serializeWithBuilder(doc), 0, serialized.length);
+                }
+            });
+            long serializeAfter = measure(new Operation() {
+                @Override
+                public void run() throws IOException {
+                    DocumentSerializer.serialize(doc, out, DocumentSerializer.FORMAT_V1);
+                }
+            });
+            System.out.println((length / MB) + " MB, serialize, " + perMb(serializeBefore, length) +
+                    ", " + perMb(serializeAfter, length));
+            assertTrue("serialize " + perMb(serializeAfter, length),
+                    serializeAfter < MAX_STREAMING_BYTES);
+
+            long deserializeBefore = measure(new Operation() {
+                @Override
+                public void run() {
+                    assertEquals(length, deserializeWithSplit(serialized).getText().length());
+                }
+            });
+            long deserializeAfter = measure(new Operation() {
+                @Override
+                public void run() throws IOException, SerializationException {
+                    Document result = DocumentSerializer.deserialize(new ByteArrayInputStream(serialized));
+                    assertEquals(length, result.getText().length());
+                }
+            });
+            System.out.println((length / MB) + " MB, deserialize, " + perMb(deserializeBefore, length) +
+                    ", " + perMb(deserializeAfter, length));
+            assertTrue("deserialize " + perMb(deserializeAfter, length), deserializeAfter < deserializeBefore);
+
+            // imports stream the text without building it
+            long stream = measure(new Operation() {
+                @Override
+                public void run() throws IOException, SerializationException {
+                    Reader text = DocumentSerializer.open(new ByteArrayInputStream(serialized)).text;
+                    char[] buffer = new char[8 * 1024];
+                    long read = 0;
+                    int count;
+                    while ((count = text.read(buffer, 0, buffer.length)) != -1) read += count;
+                    assertEquals(length, read);
+                }
+            });
+            System.out.println((length / MB) + " MB, stream text, -, " + perMb(stream, length));
+            assertTrue("stream text " + perMb(stream, length), stream < MAX_STREAMING_BYTES);
+        }
+    }
+}
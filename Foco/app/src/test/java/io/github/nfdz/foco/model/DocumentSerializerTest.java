@@ -0,0 +1,322 @@
+package io.github.nfdz.foco.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class DocumentSerializerTest {
+
+    /** Size of the buffers of DocumentSerializer */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static DocumentSerializer.DocumentImpl createDocument(String text) {
+        DocumentSerializer.DocumentImpl doc = new DocumentSerializer.DocumentImpl();
+        doc.name = "Name ñ 中";
+        doc.workingTime = 1234;
+        doc.lastEditionTime = 1500000000000L;
+        doc.favorite = true;
+        doc.coverColor = 0xff00ff00;
+        doc.coverImage = "/data/cover.jpg";
+        doc.words = 42;
+        doc.text = text;
+        return doc;
+    }
+
+    private static void assertMetadata(Document expected, Document actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getWorkingTimeMillis(), actual.getWorkingTimeMillis());
+        assertEquals(expected.getLastEditionTimeMillis(), actual.getLastEditionTimeMillis());
+        assertEquals(expected.isFavorite(), actual.isFavorite());
+        assertEquals(expected.getCoverColor(), actual.getCoverColor());
+        assertEquals(expected.getCoverImage(), actual.getCoverImage());
+    }
+
+    private static String randomText(Random random, int length) {
+        String alphabet = "abc \n\tñ中\r";
+        StringBuilder bld = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bld.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return bld.toString();
+    }
+
+    private static String serialize(Document doc) throws IOException {
+        StringWriter writer = new StringWriter();
+        DocumentSerializer.serialize(doc, writer);
+        return writer.toString();
+    }
+
+    private static byte[] serialize(Document doc, int format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocumentSerializer.serialize(doc, out, format);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reader that returns at most a fixed number of chars in each read, so reads end at
+     * known positions.
+     */
+    private static class ChunkedReader extends Reader {
+
+        private final Reader mIn;
+        private final int mChunk;
+
+        ChunkedReader(String text, int chunk) {
+            mIn = new StringReader(text);
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return mIn.read(buffer, offset, Math.min(length, mChunk));
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    // version 1 (Writer and Reader)
+
+    @Test
+    public void writerRoundTrip() throws Exception {
+        Random random = new Random(1);
+        for (int length : new int[] { 0, 1, 100, BUFFER_SIZE - 1, BUFFER_SIZE, BUFFER_SIZE + 1, 3 * BUFFER_SIZE }) {
+            String text = randomText(random, length).replace("\r", "");
+            Document doc = createDocument(text);
+            Document result = DocumentSerializer.deserialize(new StringReader(serialize(doc)));
+            assertMetadata(doc, result);
+            assertEquals("length " + length, text, result.getText());
+        }
+    }
+
+    @Test
+    public void writerMatchesSerializeDocument() throws Exception {
+        Document doc = createDocument("Hello\nworld");
+        assertEquals(DocumentSerializer.serializeDocument(doc), serialize(doc));
+        assertEquals(doc.getText(), DocumentSerializer.deserializeDocument(serialize(doc)).getText());
+    }
+
+    @Test
+    public void carriageReturnLineFeedIsLineFeed() throws Exception {
+        String serialized = serialize(createDocument("")).replace("\n", "\r\n") + "a\r\nb\rc\r\r\nd\r";
+        Document result = DocumentSerializer.deserialize(new StringReader(serialized));
+        assertMetadata(createDocument(""), result);
+        assertEquals("a\nb\rc\r\nd\r", result.getText());
+    }
+
+    @Test
+    public void carriageReturnLineFeedAcrossBufferBoundary() throws Exception {
+        String prefix = serialize(createDocument(""));
+        char[] filler = new char[2 * BUFFER_SIZE];
+        Arrays.fill(filler, 'x');
+        // the line break is moved around every read boundary of the text
+        for (int position = BUFFER_SIZE - 4; position <= BUFFER_SIZE + 4; position++) {
+            for (int shift = 0; shift <= prefix.length(); shift += prefix.length()) {
+                int breakIndex = position - shift;
+                if (breakIndex < 0) continue;
+                String text = new String(filler, 0, breakIndex) + "\r\n" + new String(filler, 0, 100);
+                String expected = new String(filler, 0, breakIndex) + "\n" + new String(filler, 0, 100);
+                Document result = DocumentSerializer.deserialize(new StringReader(prefix + text));
+                assertEquals("line break at " + breakIndex, expected, result.getText());
+            }
+        }
+    }
+
+    @Test
+    public void textReaderJoinsLineBreakSplitByRead() throws Exception {
+        String text = "ab\r\ncd\r\n\r\ne\r\r\nf\r";
+        String expected = "ab\ncd\n\ne\r\nf\r";
+        for (int chunk = 1; chunk <= text.length(); chunk++) {
+            Reader reader = new DocumentSerializer.TextReader(new ChunkedReader(text, chunk));
+            StringBuilder result = new StringBuilder();
+            char[] buffer = new char[chunk];
+            int count;
+            while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+                result.append(buffer, 0, count);
+            }
+            assertEquals("chunk " + chunk, expected, result.toString());
+        }
+    }
+
+    @Test
+    public void textReaderSingleChars() throws Exception {
+        Reader reader = new DocumentSerializer.TextReader(new StringReader("a\r\nb\r"));
+        StringBuilder result = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            result.append((char) c);
+        }
+        assertEquals("a\nb\r", result.toString());
+    }
+
+    @Test
+    public void documentWithoutText() throws Exception {
+        String serialized = serialize(createDocument(""));
+        // the blank line after metadata is optional at the end
+        Document result = DocumentSerializer.deserialize(
+                new StringReader(serialized.substring(0, serialized.length() - 1)));
+        assertMetadata(createDocument(""), result);
+        assertEquals("", result.getText());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void missingMetadataLines() throws Exception {
+        String serialized = serialize(createDocument("text"));
+        DocumentSerializer.deserialize(new StringReader(serialized.substring(0, 40)));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void invalidMetadata() throws Exception {
+        DocumentSerializer.deserialize(new StringReader(serialize(createDocument("text"))
+                .replace("1234", "12x4")));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void tooLongMetadataLine() throws Exception {
+        char[] line = new char[10000];
+        Arrays.fill(line, 'x');
+        DocumentSerializer.deserialize(new StringReader(new String(line)));
+    }
+
+    // version 2 (binary container)
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        Random random = new Random(2);
+        // small texts are stored as they are and big ones are compressed
+        for (int length : new int[] { 0, 10, 1024, 1025, 3 * BUFFER_SIZE }) {
+            String text = randomText(random, length);
+            Document doc = createDocument(text);
+            Document result = DocumentSerializer.deserialize(
+                    new ByteArrayInputStream(serialize(doc, DocumentSerializer.FORMAT_V2)));
+            assertMetadata(doc, result);
+            assertEquals(doc.getWords(), result.getWords());
+            assertEquals("length " + length, text, result.getText());
+        }
+    }
+
+    @Test
+    public void openDetectsFormat() throws Exception {
+        Document doc = createDocument("text");
+        DocumentSerializer.DocumentInput v1 = DocumentSerializer.open(
+                new ByteArrayInputStream(serialize(doc, DocumentSerializer.FORMAT_V1)));
+        assertEquals(DocumentSerializer.FORMAT_V1, v1.format);
+        assertMetadata(doc, v1.metadata);
+        DocumentSerializer.DocumentInput v2 = DocumentSerializer.open(
+                new ByteArrayInputStream(serialize(doc, DocumentSerializer.FORMAT_V2)));
+        assertEquals(DocumentSerializer.FORMAT_V2, v2.format);
+        assertMetadata(doc, v2.metadata);
+    }
+
+    @Test
+    public void compressedTextIsReadAfterOpen() throws Exception {
+        String text = randomText(new Random(5), 3 * BUFFER_SIZE);
+        Document doc = createDocument(text);
+        DocumentSerializer.DocumentInput input = DocumentSerializer.open(
+                new ByteArrayInputStream(serialize(doc, DocumentSerializer.FORMAT_V2)));
+        assertMetadata(doc, input.metadata);
+        // the inflater is created by the first read and ended by the last one
+        StringWriter result = new StringWriter();
+        char[] buffer = new char[100];
+        int count;
+        while ((count = input.text.read(buffer, 0, buffer.length)) != -1) {
+            result.write(buffer, 0, count);
+        }
+        assertEquals(text, result.toString());
+        assertFalse(input.text.ready());
+        input.text.close();
+    }
+
+    @Test
+    public void headerCrcError() throws Exception {
+        byte[] serialized = serialize(createDocument("text"), DocumentSerializer.FORMAT_V2);
+        // first byte of the header (after magic, version, flags and header length)
+        serialized[10] ^= 1;
+        try {
+            DocumentSerializer.open(new ByteArrayInputStream(serialized));
+            fail("Header CRC error is not detected");
+        } catch (CorruptedDocumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void truncatedHeader() throws Exception {
+        byte[] serialized = serialize(createDocument("text"), DocumentSerializer.FORMAT_V2);
+        for (int length = 5; length < serialized.length - 4; length++) {
+            try {
+                DocumentSerializer.open(new ByteArrayInputStream(Arrays.copyOf(serialized, length)));
+                fail("Truncated header is not detected, length " + length);
+            } catch (CorruptedDocumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void textCrcError() throws Exception {
+        for (int length : new int[] { 10, 3 * BUFFER_SIZE }) {
+            String text = randomText(new Random(3), length);
+            byte[] serialized = serialize(createDocument(text), DocumentSerializer.FORMAT_V2);
+            byte[] corrupted = serialize(createDocument(text.substring(0, length - 1) + "#"),
+                    DocumentSerializer.FORMAT_V2);
+            // header of the first document with body of the second one
+            int bodyStart = serialized.length - bodyLength(serialized);
+            byte[] mixed = Arrays.copyOf(serialized, bodyStart + bodyLength(corrupted));
+            System.arraycopy(corrupted, corrupted.length - bodyLength(corrupted), mixed, bodyStart,
+                    bodyLength(corrupted));
+            assertTextFails(mixed);
+        }
+    }
+
+    @Test
+    public void truncatedText() throws Exception {
+        for (int length : new int[] { 10, 3 * BUFFER_SIZE }) {
+            byte[] serialized = serialize(createDocument(randomText(new Random(4), length)),
+                    DocumentSerializer.FORMAT_V2);
+            int bodyStart = serialized.length - bodyLength(serialized);
+            assertTextFails(Arrays.copyOf(serialized, bodyStart));
+            assertTextFails(Arrays.copyOf(serialized, bodyStart + bodyLength(serialized) / 2));
+        }
+        // the last byte of a stored text (a compressed one ends with the zlib checksum, that
+        // is not needed because the text has got its own CRC)
+        byte[] serialized = serialize(createDocument("text"), DocumentSerializer.FORMAT_V2);
+        assertTextFails(Arrays.copyOf(serialized, serialized.length - 1));
+    }
+
+    /**
+     * Returns the length of the body of a version 2 document, it is the rest of bytes after
+     * magic (4), version (1), flags (1), header length (4), header and header CRC (4).
+     */
+    private static int bodyLength(byte[] serialized) {
+        int headerLength = ((serialized[6] & 0xff) << 24) | ((serialized[7] & 0xff) << 16) |
+                ((serialized[8] & 0xff) << 8) | (serialized[9] & 0xff);
+        return serialized.length - 14 - headerLength;
+    }
+
+    private static void assertTextFails(byte[] serialized) throws Exception {
+        DocumentSerializer.DocumentInput input = DocumentSerializer.open(new ByteArrayInputStream(serialized));
+        char[] buffer = new char[BUFFER_SIZE];
+        try {
+            while (input.text.read(buffer, 0, buffer.length) != -1) {
+                // read until the end
+            }
+            fail("Text error is not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
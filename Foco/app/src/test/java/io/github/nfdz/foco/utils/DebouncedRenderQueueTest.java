@@ -0,0 +1,254 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DebouncedRenderQueueTest {
+
+    private static final long IDLE_WINDOW = 300;
+
+    /**
+     * Main thread driven by a clock that only advances when the test says so.
+     */
+    private static class FakeMainThread implements DebouncedRenderQueue.MainThread {
+
+        private static class Message {
+            final Runnable runnable;
+            final long time;
+            Message(Runnable runnable, long time) {
+                this.runnable = runnable;
+                this.time = time;
+            }
+        }
+
+        private final List<Message> mMessages = new ArrayList<>();
+        long now = 0;
+
+        @Override
+        public void post(Runnable runnable) {
+            postDelayed(runnable, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            mMessages.add(new Message(runnable, now + delayMillis));
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            Iterator<Message> iterator = mMessages.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().runnable == runnable) iterator.remove();
+            }
+        }
+
+        /**
+         * Advances the clock running the messages that are due, in order of time.
+         */
+        void advance(long millis) {
+            long target = now + millis;
+            while (true) {
+                Message next = null;
+                for (Message message : mMessages) {
+                    if (message.time <= target && (next == null || message.time < next.time)) next = message;
+                }
+                if (next == null) break;
+                mMessages.remove(next);
+                now = next.time;
+                next.runnable.run();
+            }
+            now = target;
+        }
+    }
+
+    /**
+     * Executor that runs its tasks when the test says so.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+
+        private final Queue<Runnable> mTasks = new LinkedList<>();
+        private boolean mShutdown = false;
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            mShutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            mShutdown = true;
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            return tasks;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return mShutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return mShutdown && mTasks.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+
+    /**
+     * Callback that renders the current content and records the renders and results.
+     */
+    private static class RecordingCallback implements DebouncedRenderQueue.Callback<String> {
+
+        String content = "";
+        int renders = 0;
+        final List<String> results = new ArrayList<>();
+
+        @Override
+        public Callable<String> onCreateRender() {
+            renders++;
+            final String snapshot = content;
+            return new Callable<String>() {
+                @Override
+                public String call() {
+                    return "<p>" + snapshot + "</p>";
+                }
+            };
+        }
+
+        @Override
+        public void onRendered(String result) {
+            results.add(result);
+        }
+    }
+
+    private FakeMainThread mMainThread;
+    private ManualExecutor mExecutor;
+    private RecordingCallback mCallback;
+    private DebouncedRenderQueue<String> mQueue;
+
+    @Before
+    public void setUp() {
+        mMainThread = new FakeMainThread();
+        mExecutor = new ManualExecutor();
+        mCallback = new RecordingCallback();
+        mQueue = new DebouncedRenderQueue<>(mCallback, IDLE_WINDOW, mMainThread, mExecutor);
+    }
+
+    /**
+     * Types given content, one character per given interval.
+     */
+    private void type(String content, long intervalMillis) {
+        for (int i = 0; i < content.length(); i++) {
+            mCallback.content += content.charAt(i);
+            mQueue.onEdit();
+            mMainThread.advance(intervalMillis);
+        }
+    }
+
+    /**
+     * Runs the renders in background and then the posted results in the main thread.
+     */
+    private void runRenders() {
+        mExecutor.runAll();
+        mMainThread.advance(0);
+    }
+
+    @Test
+    public void rendersOncePerIdleWindow() {
+        type("hello", IDLE_WINDOW - 1);
+        assertEquals(0, mCallback.renders);
+        mMainThread.advance(1);
+        assertEquals(1, mCallback.renders);
+        runRenders();
+        assertEquals(1, mCallback.results.size());
+        assertEquals("<p>hello</p>", mCallback.results.get(0));
+        // nothing else is rendered while the user does not edit
+        mMainThread.advance(10 * IDLE_WINDOW);
+        runRenders();
+        assertEquals(1, mCallback.renders);
+        assertEquals(1, mCallback.results.size());
+        // every idle window between edits has its render
+        type(" world", 2 * IDLE_WINDOW);
+        runRenders();
+        assertEquals(7, mCallback.renders);
+        assertEquals("<p>hello world</p>", mCallback.results.get(mCallback.results.size() - 1));
+    }
+
+    @Test
+    public void dropsRenderThatHasNotStarted() {
+        type("a", IDLE_WINDOW);
+        assertEquals(1, mCallback.renders);
+        // the first render has not run yet when the next one is queued
+        type("b", IDLE_WINDOW);
+        assertEquals(2, mCallback.renders);
+        runRenders();
+        assertEquals(1, mCallback.results.size());
+        assertEquals("<p>ab</p>", mCallback.results.get(0));
+    }
+
+    @Test
+    public void dropsResultOfStaleRender() {
+        type("a", IDLE_WINDOW);
+        // the first render finishes, but the next one starts before its result is delivered
+        mExecutor.runAll();
+        mCallback.content += "b";
+        mQueue.renderNow();
+        runRenders();
+        assertEquals(1, mCallback.results.size());
+        assertEquals("<p>ab</p>", mCallback.results.get(0));
+    }
+
+    @Test
+    public void renderNowSkipsIdleWindow() {
+        mCallback.content = "now";
+        mQueue.onEdit();
+        mQueue.renderNow();
+        runRenders();
+        assertEquals(1, mCallback.renders);
+        assertEquals(1, mCallback.results.size());
+        // the pending render of the edit has been cancelled
+        mMainThread.advance(IDLE_WINDOW);
+        assertEquals(1, mCallback.renders);
+    }
+
+    @Test
+    public void cancelAndRelease() {
+        type("a", IDLE_WINDOW);
+        mQueue.cancel();
+        runRenders();
+        assertEquals(0, mCallback.results.size());
+        mQueue.onEdit();
+        mQueue.release();
+        mMainThread.advance(IDLE_WINDOW);
+        assertEquals(1, mCallback.renders);
+        assertTrue(mExecutor.isShutdown());
+    }
+}
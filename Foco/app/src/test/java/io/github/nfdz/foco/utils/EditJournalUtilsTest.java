@@ -0,0 +1,145 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.github.nfdz.foco.data.entity.DocumentEditEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class EditJournalUtilsTest {
+
+    private static final long DOC_ID = 1;
+    private static final String ALPHABET = "abc xyz\nñ中";
+
+    @Test
+    public void typedWordIsSingleEdit() {
+        List<DocumentEditEntity> edits = new ArrayList<>();
+        EditJournalUtils.recordEdit(edits, DOC_ID, 5, 0, " w");
+        EditJournalUtils.recordEdit(edits, DOC_ID, 7, 0, "o");
+        EditJournalUtils.recordEdit(edits, DOC_ID, 8, 0, "rx");
+        EditJournalUtils.recordEdit(edits, DOC_ID, 9, 1, "");
+        EditJournalUtils.recordEdit(edits, DOC_ID, 9, 0, "ld");
+        assertEquals(1, edits.size());
+        assertEquals("Hello world", EditJournalUtils.applyEdits("Hello", edits));
+    }
+
+    @Test
+    public void emptyEditIsIgnored() {
+        List<DocumentEditEntity> edits = new ArrayList<>();
+        EditJournalUtils.recordEdit(edits, DOC_ID, 3, 0, "");
+        assertEquals(0, edits.size());
+        assertEquals("Hello", EditJournalUtils.applyEdits("Hello", edits));
+    }
+
+    @Test
+    public void replaceAllEdit() {
+        List<DocumentEditEntity> edits = new ArrayList<>();
+        EditJournalUtils.recordEdit(edits, DOC_ID, 0, 1, "J");
+        edits.add(new DocumentEditEntity(DOC_ID, 0, DocumentEditEntity.REMOVE_ALL, "Bye"));
+        EditJournalUtils.recordEdit(edits, DOC_ID, 3, 0, "!");
+        assertEquals("Bye!", EditJournalUtils.applyEdits("Hello", edits));
+    }
+
+    @Test
+    public void outOfRangeEditIsSkipped() {
+        List<DocumentEditEntity> edits = new ArrayList<>();
+        edits.add(new DocumentEditEntity(DOC_ID, 10, 0, "lost"));
+        edits.add(new DocumentEditEntity(DOC_ID, 3, 5, "lost"));
+        edits.add(new DocumentEditEntity(DOC_ID, 5, 0, "!"));
+        assertEquals("Hello!", EditJournalUtils.applyEdits("Hello", edits));
+        // a replace all edit repairs the text
+        edits.add(new DocumentEditEntity(DOC_ID, 0, DocumentEditEntity.REMOVE_ALL, "Bye"));
+        assertEquals("Bye", EditJournalUtils.applyEdits("Hello", edits));
+    }
+
+    @Test
+    public void randomEditsRoundTrip() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            String base = randomText(random, random.nextInt(50));
+            StringBuilder text = new StringBuilder(base);
+            List<DocumentEditEntity> edits = new ArrayList<>();
+            int operations = 1 + random.nextInt(100);
+            for (int i = 0; i < operations; i++) {
+                applyRandomEdit(random, text, edits);
+            }
+            assertEquals("seed " + seed, text.toString(), EditJournalUtils.applyEdits(base, edits));
+        }
+    }
+
+    @Test
+    public void randomEditsRoundTripAcrossSaves() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            String base = randomText(random, random.nextInt(50));
+            StringBuilder text = new StringBuilder(base);
+            // every save persists the pending edits and starts a new list, like the editor
+            List<DocumentEditEntity> journal = new ArrayList<>();
+            int saves = 1 + random.nextInt(5);
+            for (int save = 0; save < saves; save++) {
+                List<DocumentEditEntity> pending = new ArrayList<>();
+                int operations = random.nextInt(30);
+                for (int i = 0; i < operations; i++) {
+                    applyRandomEdit(random, text, pending);
+                }
+                journal.addAll(pending);
+            }
+            assertEquals("seed " + seed, text.toString(), EditJournalUtils.applyEdits(base, journal));
+        }
+    }
+
+    @Test
+    public void hashText() {
+        assertEquals(EditJournalUtils.hashText("Hello"), EditJournalUtils.hashText(new StringBuilder("Hello")));
+        assertNotEquals(EditJournalUtils.hashText("Hello"), EditJournalUtils.hashText("Hellp"));
+        assertNotEquals(EditJournalUtils.hashText(""), EditJournalUtils.hashText("\u0000"));
+    }
+
+    /**
+     * Applies a random edit to the text and records it as TextWatcher would notify it. Typing
+     * and deleting at the end of the previous edit are more likely, so edits are merged.
+     */
+    private static void applyRandomEdit(Random random, StringBuilder text, List<DocumentEditEntity> edits) {
+        int start;
+        if (!edits.isEmpty() && random.nextBoolean()) {
+            DocumentEditEntity last = edits.get(edits.size() - 1);
+            start = Math.min(last.start + last.inserted.length(), text.length());
+        } else {
+            start = random.nextInt(text.length() + 1);
+        }
+        int before;
+        String inserted;
+        switch (random.nextInt(3)) {
+            case 0:
+                // typing
+                before = 0;
+                inserted = randomText(random, 1 + random.nextInt(3));
+                break;
+            case 1:
+                // backspace
+                if (start > 0) start--;
+                before = Math.min(1 + random.nextInt(2), text.length() - start);
+                inserted = "";
+                break;
+            default:
+                // paste over a selection
+                before = random.nextInt(text.length() - start + 1);
+                inserted = randomText(random, random.nextInt(6));
+        }
+        text.replace(start, start + before, inserted);
+        EditJournalUtils.recordEdit(edits, DOC_ID, start, before, inserted);
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder bld = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bld.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return bld.toString();
+    }
+}
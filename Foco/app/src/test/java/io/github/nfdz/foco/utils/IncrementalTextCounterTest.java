@@ -0,0 +1,113 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalTextCounterTest {
+
+    /** Latin and CJK words, a surrogate pair ideograph, punctuation and line breaks */
+    private static final String[] TOKENS = { "a", "b", "x", " ", "  ", "\t", "\n", "\u00A0", "\u3000",
+            "\u4E2D", "\u6587", "\u306E", "\u30AB", "\uD840\uDC0B", "\u3002", "\u2014", "\u201C" };
+
+    /** Maximum length of the edited text, so edits touch its start and its end often */
+    private static final int MAX_LENGTH = 200;
+
+    private static String randomTokens(Random random, int count) {
+        StringBuilder bld = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            bld.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Replaces a random range of the text as an EditText does, notifying the counter before
+     * and after the change.
+     */
+    private static void randomEdit(Random random, StringBuilder text, IncrementalTextCounter counter) {
+        int start = random.nextInt(text.length() + 1);
+        int count = Math.min(random.nextInt(5), text.length() - start);
+        String replacement = randomTokens(random, random.nextInt(4));
+        counter.beforeTextChanged(text, start, count);
+        text.replace(start, start + count, replacement);
+        counter.onTextChanged(text, start, replacement.length());
+    }
+
+    private static void assertCount(String message, CharSequence text, IncrementalTextCounter counter) {
+        TextStatistics expected = TextStatistics.compute(text);
+        assertEquals(message + " words", expected.words, counter.getWords());
+        assertEquals(message + " paragraphs", expected.paragraphs, counter.getParagraphs());
+        assertEquals(message + " characters", expected.characters, counter.getCharacters());
+    }
+
+    @Test
+    public void editsMatchFullCount() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            StringBuilder text = new StringBuilder(randomTokens(random, random.nextInt(50)));
+            IncrementalTextCounter counter = new IncrementalTextCounter();
+            counter.reset(text);
+            assertTrue(counter.isCounted());
+            for (int edit = 0; edit < 500; edit++) {
+                randomEdit(random, text, counter);
+                assertCount("seed " + seed + " edit " + edit, text, counter);
+                if (text.length() > MAX_LENGTH) {
+                    text.setLength(0);
+                    counter.reset(text);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void editsBeforeFullCountAreDeltas() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            StringBuilder text = new StringBuilder(randomTokens(random, random.nextInt(50)));
+            // the full count is computed with the text of this moment, as it is done in background
+            String snapshot = text.toString();
+            IncrementalTextCounter counter = new IncrementalTextCounter();
+            counter.resetPending(snapshot.length());
+            assertFalse(counter.isCounted());
+            int edits = random.nextInt(20);
+            for (int edit = 0; edit < edits; edit++) {
+                randomEdit(random, text, counter);
+            }
+            assertFalse(counter.isCounted());
+            assertEquals(text.length(), counter.getCharacters());
+            counter.applyFullCount(TextStatistics.compute(snapshot));
+            assertTrue(counter.isCounted());
+            assertCount("seed " + seed, text, counter);
+            // and it keeps counting after it
+            for (int edit = 0; edit < 20; edit++) {
+                randomEdit(random, text, counter);
+                assertCount("seed " + seed + " after count", text, counter);
+            }
+        }
+    }
+
+    @Test
+    public void joinAndSplitWords() {
+        StringBuilder text = new StringBuilder("hello world");
+        IncrementalTextCounter counter = new IncrementalTextCounter();
+        counter.reset(text);
+        assertEquals(2, counter.getWords());
+        // the space is removed
+        counter.beforeTextChanged(text, 5, 1);
+        text.delete(5, 6);
+        counter.onTextChanged(text, 5, 0);
+        assertEquals(1, counter.getWords());
+        // a line break is inserted in the middle of the word
+        counter.beforeTextChanged(text, 3, 0);
+        text.insert(3, "\n");
+        counter.onTextChanged(text, 3, 1);
+        assertEquals(2, counter.getWords());
+        assertEquals(2, counter.getParagraphs());
+        assertEquals(11, counter.getCharacters());
+    }
+}
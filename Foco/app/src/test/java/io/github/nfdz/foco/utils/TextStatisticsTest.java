@@ -0,0 +1,65 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextStatisticsTest {
+
+    /** Latin and CJK words, a surrogate pair ideograph, punctuation, spaces and line breaks */
+    private static final String[] TOKENS = { "a", "bc", "word", " ", "  ", "\t", "\n", "\n\n", "\u00A0",
+            "\u3000", "\u4E2D", "\u6587\u5B57", "\u306E", "\u30AB", "\uD840\uDC0B", "\u3002", "\u2014", "\u201C" };
+
+    private static String randomTokens(Random random, int count) {
+        StringBuilder bld = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            bld.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return bld.toString();
+    }
+
+    private static void assertStatistics(String message, TextStatistics expected, TextStatistics actual) {
+        assertEquals(message + " words", expected.words, actual.words);
+        assertEquals(message + " characters", expected.characters, actual.characters);
+        assertEquals(message + " lines", expected.lines, actual.lines);
+        assertEquals(message + " paragraphs", expected.paragraphs, actual.paragraphs);
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            String text = randomTokens(random, random.nextInt(500));
+            TextStatistics expected = TextStatistics.compute(text, 1);
+            assertEquals("seed " + seed, WordCountUtils.countWords(text), expected.words);
+            // more segments than separators too, so some of them are empty
+            for (int segments = 2; segments <= 64; segments *= 2) {
+                assertStatistics("seed " + seed + " segments " + segments,
+                        expected, TextStatistics.compute(text, segments));
+            }
+        }
+    }
+
+    @Test
+    public void segmentsDoNotSplitWords() {
+        // the boundaries fall in the middle of a word, a CJK run and a surrogate pair
+        String text = "aaaaaaaaaa\n\u4E2D\u6587\u4E2D\u6587\u4E2D\u6587\u4E2D\u6587 \uD840\uDC0B\uD840\uDC0B\uD840\uDC0B\n\nbbbbbbbb";
+        TextStatistics expected = TextStatistics.compute(text, 1);
+        for (int segments = 2; segments <= text.length(); segments++) {
+            assertStatistics("segments " + segments, expected, TextStatistics.compute(text, segments));
+        }
+        // a text without separators is a single segment
+        assertEquals(1, TextStatistics.compute("abcdefghij", 4).words);
+    }
+
+    @Test
+    public void emptyText() {
+        TextStatistics statistics = TextStatistics.compute("", 4);
+        assertEquals(0, statistics.words);
+        assertEquals(0, statistics.characters);
+        assertEquals(0, statistics.lines);
+        assertEquals(0, statistics.paragraphs);
+    }
+}
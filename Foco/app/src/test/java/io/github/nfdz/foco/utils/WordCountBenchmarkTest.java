@@ -0,0 +1,166 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks of word counting on the JVM. Times are the best of some runs after a warm up, so
+ * they are stable enough to compare implementations with a wide margin.
+ */
+public class WordCountBenchmarkTest {
+
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+
+    /** Lengths of the benchmarked texts, from a short note to a big imported document */
+    private static final int[] LENGTHS = { KB, 64 * KB, MB, 10 * MB, 50 * MB };
+
+    /**
+     * Length of the slices that are counted by the regex. Splitting a whole big text would
+     * need hundreds of MB of heap (one String per word), slices are cut at whitespace so the
+     * sum is the count of the whole text.
+     */
+    private static final int REGEX_SLICE_LENGTH = MB;
+
+    private static final String[] LATIN_WORDS = { "the", "focus", "writer", "a", "document",
+            "of", "words", "and", "paragraphs", "lorem", "ipsum", "dolor", "sit", "amet," };
+    /** Chinese and Japanese sentences, they are not separated by spaces */
+    private static final String[] CJK_WORDS = { "\u6211\u4EEC\u4ECA\u5929\u53BB\u516C\u56ED\u3002",
+            "\u79C1\u306F\u5B66\u751F\u3067\u3059\u3002", "\u5199\u4F5C", "\u6587\u7AE0\uFF0C",
+            "\u300C\u30AB\u30BF\u30AB\u30CA\u300D", "\uD840\uDC0B\u5B57" };
+    private static final String[] MIXED_WORDS = concat(LATIN_WORDS, CJK_WORDS);
+    private static final String[] SEPARATORS = { " ", " ", " ", " ", "\n", "\n\n", "  ", "\t" };
+
+    /** Minimum total time of the runs of each measure */
+    private static final long MIN_MEASURE_NANOS = 200 * 1000 * 1000L;
+    private static final int MIN_RUNS = 3;
+
+    /** Maximum ratio between the time of mixed script and split Latin texts of the same length */
+    private static final double MAX_MIXED_SCRIPT_RATIO = 2;
+
+    /**
+     * Interface of a measured operation.
+     */
+    interface Counting {
+        int count(String text);
+    }
+
+    /**
+     * Counts words as the app did before WordCountUtils.
+     */
+    private static final Counting REGEX_COUNTING = new Counting() {
+        @Override
+        public int count(String text) {
+            int words = 0;
+            int start = 0;
+            while (start < text.length()) {
+                int end = Math.min(text.length(), start + REGEX_SLICE_LENGTH);
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+                String slice = text.substring(start, end);
+                // leading whitespace is an empty word for split
+                if (!slice.isEmpty() && !Character.isWhitespace(slice.charAt(0))) {
+                    words += slice.split("\\s+").length;
+                } else if (slice.trim().length() > 0) {
+                    words += slice.split("\\s+").length - 1;
+                }
+                start = end;
+            }
+            return words;
+        }
+    };
+
+    private static final Counting WALK_COUNTING = new Counting() {
+        @Override
+        public int count(String text) {
+            return WordCountUtils.countWords(text);
+        }
+    };
+
+    static String[] concat(String[] first, String[] second) {
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    static String randomText(Random random, String[] words, int length) {
+        StringBuilder bld = new StringBuilder(length + 16);
+        while (bld.length() < length) {
+            bld.append(words[random.nextInt(words.length)]);
+            bld.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        bld.setLength(length);
+        return bld.toString();
+    }
+
+    /**
+     * Measures the best time of given counting.
+     * @return nanoseconds
+     */
+    static long measure(Counting counting, String text, int expectedWords) {
+        // warm up, the JIT compiles the loops (and BreakIterator) before they are measured
+        long warmUpEnd = System.nanoTime() + MIN_MEASURE_NANOS;
+        for (int i = 0; i < MIN_RUNS || System.nanoTime() < warmUpEnd; i++) {
+            assertEquals(expectedWords, counting.count(text));
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int run = 0; run < MIN_RUNS || total < MIN_MEASURE_NANOS; run++) {
+            long start = System.nanoTime();
+            int words = counting.count(text);
+            long time = System.nanoTime() - start;
+            assertEquals(expectedWords, words);
+            best = Math.min(best, time);
+            total += time;
+        }
+        return best;
+    }
+
+    static String formatLength(int length) {
+        return length >= MB ? (length / MB) + " MB" : (length / KB) + " KB";
+    }
+
+    @Test
+    public void walkIsFasterThanRegex() {
+        Random random = new Random(19);
+        System.out.println("Word count: length, regex split (ms), walk (ms), speedup");
+        for (int length : LENGTHS) {
+            String text = randomText(random, LATIN_WORDS, length);
+            int words = REGEX_COUNTING.count(text);
+            long regex = measure(REGEX_COUNTING, text, words);
+            long walk = measure(WALK_COUNTING, text, words);
+            System.out.println(String.format("%s, %.3f, %.3f, %.1fx", formatLength(length),
+                    regex / 1e6, walk / 1e6, (double) regex / walk));
+            assertTrue(formatLength(length) + " walk " + walk + " ns, regex " + regex + " ns", walk < regex);
+        }
+    }
+
+    /**
+     * Mixed script texts are compared with Latin texts of the same length counted by the regex
+     * split, that was the whitespace speed of the app. The walk of Latin text is printed too,
+     * CJK runs are segmented by BreakIterator so they cannot be as fast as it.
+     */
+    @Test
+    public void mixedScriptIsWithinTwiceWhitespaceSplit() {
+        Random random = new Random(21);
+        System.out.println("Word count: length, Latin regex split (ms), Latin walk (ms), mixed script walk (ms), ratio to split");
+        // from the longest text, BreakIterator is compiled by the JIT before short texts are measured
+        for (int i = LENGTHS.length - 1; i >= 0; i--) {
+            int length = LENGTHS[i];
+            String latin = randomText(random, LATIN_WORDS, length);
+            String mixed = randomText(random, MIXED_WORDS, length);
+            int latinWords = WordCountUtils.countWords(latin);
+            long regex = measure(REGEX_COUNTING, latin, latinWords);
+            long walk = measure(WALK_COUNTING, latin, latinWords);
+            long mixedWalk = measure(WALK_COUNTING, mixed, WordCountUtils.countWords(mixed));
+            double ratio = (double) mixedWalk / regex;
+            System.out.println(String.format("%s, %.3f, %.3f, %.3f, %.1fx", formatLength(length),
+                    regex / 1e6, walk / 1e6, mixedWalk / 1e6, ratio));
+            assertTrue(formatLength(length) + " mixed script is " + ratio + "x the split", ratio <= MAX_MIXED_SCRIPT_RATIO);
+        }
+    }
+}
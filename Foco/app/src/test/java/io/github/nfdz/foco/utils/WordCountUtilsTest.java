@@ -0,0 +1,198 @@
+package io.github.nfdz.foco.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WordCountUtilsTest {
+
+    /** Maximum length of a pending CJK run of WordCountUtils.Counter */
+    private static final int MAX_PENDING_RUN = 16 * 1024;
+
+    /** ASCII text with the whitespace characters of the \s regex class */
+    private static final String ASCII_ALPHABET = "abcXYZ019.,;'-_!?()\u0001 \t\n\u000B\f\r";
+
+    /**
+     * Counts words as the app did before WordCountUtils.
+     */
+    private static int countWordsWithRegex(String text) {
+        return text.isEmpty() ? 0 : text.split("\\s+").length;
+    }
+
+    /** Mixed text: ideographs, kana, a surrogate pair ideograph, an emoji and punctuation */
+    private static final String[] MIXED_TOKENS = { "a", "b", "1", " ", "\n", "\u00A0", "\u3000", "中", "文",
+            "字", "の", "カ", "\uD840\uDC0B", "\uD83D\uDE00", "\u2014", "\u3002", "\u201C", "-" };
+
+    @After
+    public void tearDown() {
+        WordCountUtils.setSegmenter(WordCountUtils.DEFAULT_SEGMENTER);
+    }
+
+    /**
+     * Counts the words of given text with a counter that reads it in random chunks.
+     */
+    private static int countWordsByChunks(Random random, String text, int maxChunk) {
+        WordCountUtils.Counter counter = new WordCountUtils.Counter();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + 1 + random.nextInt(maxChunk));
+            counter.append(text, start, end);
+            start = end;
+        }
+        return counter.finish();
+    }
+
+    private static String randomTokens(Random random, String[] tokens, int count) {
+        StringBuilder bld = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            bld.append(tokens[random.nextInt(tokens.length)]);
+        }
+        return bld.toString();
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder bld = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bld.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return bld.toString();
+    }
+
+    @Test
+    public void asciiMatchesRegex() {
+        for (long seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+            // leading whitespace is skipped because split counts an empty word before it
+            String text = randomText(random, ASCII_ALPHABET, random.nextInt(200)).replaceFirst("^\\s+", "");
+            assertEquals("seed " + seed, countWordsWithRegex(text), WordCountUtils.countWords(text));
+        }
+    }
+
+    @Test
+    public void asciiSamplesMatchRegex() {
+        String[] samples = { "", "a", "a b", "a  b", "a\tb\nc", "a\r\nb\r\n", "a \u000B\f b", "one, two; three!" };
+        for (String sample : samples) {
+            assertEquals(sample, countWordsWithRegex(sample), WordCountUtils.countWords(sample));
+        }
+    }
+
+    @Test
+    public void emptyText() {
+        assertEquals(0, WordCountUtils.countWords(null));
+        assertEquals(0, WordCountUtils.countWords(""));
+        assertEquals(0, WordCountUtils.countWords(" \t\n"));
+    }
+
+    @Test
+    public void leadingWhitespaceIsNotWord() {
+        assertEquals(2, WordCountUtils.countWords("  a b"));
+        assertEquals(2, WordCountUtils.countWords("\na b\n"));
+    }
+
+    @Test
+    public void unicodeSpacesAreSeparators() {
+        // no-break, figure, narrow no-break, ideographic and em spaces
+        String[] spaces = { "\u00A0", "\u2007", "\u202F", "\u3000", "\u2003" };
+        for (String space : spaces) {
+            assertEquals(Integer.toHexString(space.charAt(0)), 2, WordCountUtils.countWords("a" + space + "b"));
+            assertTrue(WordCountUtils.isSeparator(space.charAt(0)));
+        }
+    }
+
+    @Test
+    public void informationSeparatorsAreSeparators() {
+        // U+001C to U+001F are whitespace for Character.isWhitespace but not for \s
+        for (char c = '\u001C'; c <= '\u001F'; c++) {
+            assertEquals(Integer.toHexString(c), 2, WordCountUtils.countWords("a" + c + "b"));
+            assertTrue(WordCountUtils.isSeparator(c));
+        }
+    }
+
+    @Test
+    public void controlCharactersAreNotSeparators() {
+        assertFalse(WordCountUtils.isSeparator('\u0000'));
+        assertFalse(WordCountUtils.isSeparator('\u0001'));
+        assertFalse(WordCountUtils.isSeparator('\u001B'));
+        assertEquals(1, WordCountUtils.countWords("a\u0001b"));
+    }
+
+    @Test
+    public void rangesContinueWords() {
+        String text = "hello world again";
+        for (int split = 0; split <= text.length(); split++) {
+            int words = WordCountUtils.countWords(text, 0, split, false);
+            boolean afterWord = split > 0 && WordCountUtils.isInWord(text.charAt(split - 1));
+            words += WordCountUtils.countWords(text, split, text.length(), afterWord);
+            assertEquals("split " + split, 3, words);
+        }
+    }
+
+    @Test
+    public void counterMatchesWholeText() {
+        for (long seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+            String text = randomTokens(random, MIXED_TOKENS, random.nextInt(300));
+            // chunks of one char split every CJK run and every surrogate pair
+            int maxChunk = seed % 5 == 0 ? 1 : 1 + random.nextInt(50);
+            assertEquals("seed " + seed, WordCountUtils.countWords(text),
+                    countWordsByChunks(random, text, maxChunk));
+        }
+    }
+
+    @Test
+    public void counterSplitsInsideCjkRun() {
+        String text = "abc \u6211\u4EEC\u5B66\u4E60\u4E2D\u6587\u3002 def \u79C1\u306F\uD840\uDC0B\u3067\u3059 ghi";
+        int expected = WordCountUtils.countWords(text);
+        for (int split = 0; split <= text.length(); split++) {
+            WordCountUtils.Counter counter = new WordCountUtils.Counter();
+            counter.append(text, 0, split);
+            counter.append(text, split, text.length());
+            assertEquals("split " + split, expected, counter.finish());
+        }
+    }
+
+    @Test
+    public void counterWithoutText() {
+        WordCountUtils.Counter counter = new WordCountUtils.Counter();
+        assertEquals(0, counter.finish());
+        counter = new WordCountUtils.Counter();
+        counter.append("", 0, 0);
+        assertEquals(0, counter.finish());
+    }
+
+    @Test
+    public void counterFlushesLongCjkRun() {
+        // every code point of a run is a word, so a run can be split without changing the count
+        final int[] maxRun = { 0 };
+        final int[] runs = { 0 };
+        WordCountUtils.setSegmenter(new WordCountUtils.Segmenter() {
+            @Override
+            public int countWords(CharSequence text, int start, int end) {
+                maxRun[0] = Math.max(maxRun[0], end - start);
+                runs[0]++;
+                int words = 0;
+                for (int i = start; i < end; i++) {
+                    if (WordCountUtils.isCjk(text.charAt(i))) words++;
+                }
+                return words;
+            }
+        });
+        String[] tokens = { "\u4E2D", "\u6587", "\uD840\uDC0B", "\u2014", "\u3002" };
+        int maxChunk = 1000;
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            String text = "abc " + randomTokens(random, tokens, 3 * MAX_PENDING_RUN) + "\u2014def ghi";
+            int expected = WordCountUtils.countWords(text);
+            maxRun[0] = 0;
+            runs[0] = 0;
+            assertEquals("seed " + seed, expected, countWordsByChunks(random, text, maxChunk));
+            assertTrue("the run is not flushed", runs[0] > 1);
+            assertTrue("pending run is too long " + maxRun[0], maxRun[0] <= MAX_PENDING_RUN + maxChunk);
+        }
+    }
+}